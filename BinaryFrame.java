@@ -0,0 +1,204 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary framing for the client protocol (version 1)
+ * Every frame is a type byte, a 4 byte big-endian payload length and the payload, so chat text,
+ * commands and file chunks share one stream without any line scanning or escaping. A client opts
+ * in by sending the text line "PROTO BIN 1" as its first line; once the server answers
+ * "PROTO OK 1" both directions use frames for the rest of the connection. A server that has the
+ * binary protocol disabled answers "PROTO TEXT" and the connection stays on the line protocol.
+ */
+public final class BinaryFrame {
+    public static final int VERSION = 1;
+    public static final String HELLO = "PROTO BIN " + VERSION;
+    public static final String ACCEPT = "PROTO OK " + VERSION;
+    public static final String DECLINE = "PROTO TEXT";
+
+    // Frame types
+    public static final byte TEXT = 1;        // server -> client: one display line
+    public static final byte CHAT = 2;        // client -> server: chat text, never parsed as a command
+    public static final byte COMMAND = 3;     // client -> server: LOGIN/REGISTER, /command or exit
+    public static final byte FILE_BEGIN = 4;  // 8 byte file size followed by the UTF-8 file name
+    public static final byte FILE_CHUNK = 5;  // raw file content
+    public static final byte FILE_END = 6;    // empty payload
+    public static final byte UPLOAD_CHUNK = 7; // 4 byte transfer id, 8 byte offset, 4 byte CRC32C, data
+    public static final byte UPLOAD_ACK = 8;   // 4 byte transfer id, 8 byte next expected offset (-1: abort)
+
+    public static final int HEADER_BYTES = 5;
+    public static final int MAX_PAYLOAD = 1024 * 1024;
+    public static final int FILE_CHUNK_SIZE = 64 * 1024;
+    public static final int UPLOAD_CHUNK_HEADER = 16;
+
+    private final byte type;
+    private final byte[] payload;
+
+    public BinaryFrame(byte type, byte[] payload) {
+        this.type = type;
+        this.payload = payload;
+    }
+
+    public byte type() {
+        return type;
+    }
+
+    public byte[] payload() {
+        return payload;
+    }
+
+    public String text() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Size announced by a FILE_BEGIN frame
+     */
+    public long fileSize() {
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = (value << 8) | (payload[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * File name carried by a FILE_BEGIN frame
+     */
+    public String fileName() {
+        return new String(payload, Long.BYTES, payload.length - Long.BYTES, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Transfer id of an UPLOAD_CHUNK or UPLOAD_ACK frame
+     */
+    public int transferId() {
+        return ((payload[0] & 0xFF) << 24) | ((payload[1] & 0xFF) << 16) | ((payload[2] & 0xFF) << 8)
+                | (payload[3] & 0xFF);
+    }
+
+    /**
+     * Chunk offset of an UPLOAD_CHUNK frame, next expected offset of an UPLOAD_ACK frame
+     */
+    public long offset() {
+        long value = 0;
+        for (int i = 4; i < 12; i++) {
+            value = (value << 8) | (payload[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * CRC32C of the data carried by an UPLOAD_CHUNK frame
+     */
+    public int checksum() {
+        return ((payload[12] & 0xFF) << 24) | ((payload[13] & 0xFF) << 16) | ((payload[14] & 0xFF) << 8)
+                | (payload[15] & 0xFF);
+    }
+
+    /**
+     * Whether a payload length is acceptable for the frame type
+     */
+    public static boolean isValidLength(int type, int length) {
+        if (length < 0 || length > MAX_PAYLOAD) {
+            return false;
+        }
+        switch (type) {
+            case FILE_BEGIN:
+                return length >= Long.BYTES;
+            case UPLOAD_CHUNK:
+                return length >= UPLOAD_CHUNK_HEADER;
+            case UPLOAD_ACK:
+                return length == 12;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Read the next frame, or return null at a clean end of stream
+     */
+    public static BinaryFrame read(DataInputStream in) throws IOException {
+        int type = in.read();
+        if (type == -1) {
+            return null;
+        }
+        int length = in.readInt();
+        if (!isValidLength(type, length)) {
+            throw new ProtocolException("Invalid payload length " + length + " for frame type " + type);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new BinaryFrame((byte) type, payload);
+    }
+
+    public static void putHeader(byte[] target, int offset, byte type, int length) {
+        target[offset] = type;
+        target[offset + 1] = (byte) (length >>> 24);
+        target[offset + 2] = (byte) (length >>> 16);
+        target[offset + 3] = (byte) (length >>> 8);
+        target[offset + 4] = (byte) length;
+    }
+
+    public static byte[] encode(byte type, byte[] payload, int offset, int length) {
+        byte[] frame = new byte[HEADER_BYTES + length];
+        putHeader(frame, 0, type, length);
+        System.arraycopy(payload, offset, frame, HEADER_BYTES, length);
+        return frame;
+    }
+
+    public static byte[] encodeText(byte type, String text) {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        return encode(type, payload, 0, payload.length);
+    }
+
+    public static byte[] fileBegin(String fileName, long size) {
+        byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[HEADER_BYTES + Long.BYTES + name.length];
+        putHeader(frame, 0, FILE_BEGIN, Long.BYTES + name.length);
+        putLong(frame, HEADER_BYTES, size);
+        System.arraycopy(name, 0, frame, HEADER_BYTES + Long.BYTES, name.length);
+        return frame;
+    }
+
+    /**
+     * Fill the frame header and upload header of an UPLOAD_CHUNK whose data follows at
+     * HEADER_BYTES + UPLOAD_CHUNK_HEADER in the same array
+     */
+    public static void putUploadChunkHeader(byte[] target, int transferId, long offset, int checksum,
+            int dataLength) {
+        putHeader(target, 0, UPLOAD_CHUNK, UPLOAD_CHUNK_HEADER + dataLength);
+        putInt(target, HEADER_BYTES, transferId);
+        putLong(target, HEADER_BYTES + 4, offset);
+        putInt(target, HEADER_BYTES + 12, checksum);
+    }
+
+    public static byte[] uploadAck(int transferId, long offset) {
+        byte[] frame = new byte[HEADER_BYTES + 12];
+        putHeader(frame, 0, UPLOAD_ACK, 12);
+        putInt(frame, HEADER_BYTES, transferId);
+        putLong(frame, HEADER_BYTES + 4, offset);
+        return frame;
+    }
+
+    private static void putInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private static void putLong(byte[] target, int offset, long value) {
+        for (int i = offset + Long.BYTES - 1; i >= offset; i--) {
+            target[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    public static byte[] fileEnd() {
+        byte[] frame = new byte[HEADER_BYTES];
+        putHeader(frame, 0, FILE_END, 0);
+        return frame;
+    }
+}
@@ -0,0 +1,191 @@
+import java.sql.Timestamp;
+
+/**
+ * One event sent between EnhancedServer nodes over the MessageBus
+ * Events carry the raw fields (ids, sender name, text, send time) rather than formatted lines, so
+ * every node formats them the way it formats its own messages and payloads stay small. The wire
+ * form is one field per line with backslash and newline escaped.
+ */
+public final class BusEvent {
+    public enum Type {
+        /** Chat line in a room: roomId, senderId, name = sender display name, text, sentAt */
+        ROOM_MESSAGE,
+        /** Server notice to one room: roomId, text */
+        ROOM_NOTICE,
+        /** Server notice to everyone: text */
+        SERVER_MESSAGE,
+        /** Private message: messageId (0 once delivered), senderId, userId = recipient, name = sender username, text, sentAt */
+        PRIVATE_MESSAGE,
+        /** User connected or disconnected on the origin node: userId, flag = online, name = username, text = display name */
+        PRESENCE,
+        /** Disconnect a user wherever they are connected: userId, text = reason */
+        KICK,
+        /** Room membership changed: roomId, userId, flag = joined */
+        ROOM_MEMBER,
+        /** Origin node (re)started; its previous sessions are gone */
+        NODE_STARTED
+    }
+
+    private final Type type;
+    private final String nodeId;
+    private final int roomId;
+    private final int userId;
+    private final int senderId;
+    private final int messageId;
+    private final long sentAt;
+    private final boolean flag;
+    private final String name;
+    private final String text;
+
+    private BusEvent(Type type, String nodeId, int roomId, int userId, int senderId, int messageId, long sentAt,
+            boolean flag, String name, String text) {
+        this.type = type;
+        this.nodeId = nodeId;
+        this.roomId = roomId;
+        this.userId = userId;
+        this.senderId = senderId;
+        this.messageId = messageId;
+        this.sentAt = sentAt;
+        this.flag = flag;
+        this.name = name != null ? name : "";
+        this.text = text != null ? text : "";
+    }
+
+    public static BusEvent roomMessage(String nodeId, Message message, String senderName) {
+        return new BusEvent(Type.ROOM_MESSAGE, nodeId, message.getRoomId(), 0, message.getSenderId(), 0,
+                message.getSentAt().getTime(), false, senderName, message.getMessageText());
+    }
+
+    public static BusEvent roomNotice(String nodeId, int roomId, String notice) {
+        return new BusEvent(Type.ROOM_NOTICE, nodeId, roomId, 0, 0, 0, 0, false, null, notice);
+    }
+
+    public static BusEvent serverMessage(String nodeId, String notice) {
+        return new BusEvent(Type.SERVER_MESSAGE, nodeId, 0, 0, 0, 0, 0, false, null, notice);
+    }
+
+    /**
+     * @param message a stored, undelivered message for the node holding the recipient to deliver,
+     *                or one already delivered (id 0) that other nodes only record
+     */
+    public static BusEvent privateMessage(String nodeId, Message message, int messageId, String senderUsername) {
+        return new BusEvent(Type.PRIVATE_MESSAGE, nodeId, 0, message.getRecipientId(), message.getSenderId(),
+                messageId, message.getSentAt().getTime(), false, senderUsername, message.getMessageText());
+    }
+
+    public static BusEvent presence(String nodeId, User user, boolean online) {
+        return new BusEvent(Type.PRESENCE, nodeId, 0, user.getUserId(), 0, 0, 0, online, user.getUsername(),
+                user.getDisplayName());
+    }
+
+    public static BusEvent kick(String nodeId, int userId, String reason) {
+        return new BusEvent(Type.KICK, nodeId, 0, userId, 0, 0, 0, false, null, reason);
+    }
+
+    public static BusEvent roomMember(String nodeId, int roomId, int userId, boolean joined) {
+        return new BusEvent(Type.ROOM_MEMBER, nodeId, roomId, userId, 0, 0, 0, joined, null, null);
+    }
+
+    public static BusEvent nodeStarted(String nodeId) {
+        return new BusEvent(Type.NODE_STARTED, nodeId, 0, 0, 0, 0, 0, false, null, null);
+    }
+
+    /**
+     * Chat message equivalent of a ROOM_MESSAGE or PRIVATE_MESSAGE, for history and search
+     */
+    public Message toMessage() {
+        Message message = new Message(senderId, text);
+        message.setMessageType("text");
+        message.setSentAt(new Timestamp(sentAt));
+        if (type == Type.PRIVATE_MESSAGE) {
+            message.setRecipientId(userId);
+            message.setMessageId(messageId);
+        } else {
+            message.setRoomId(roomId);
+        }
+        return message;
+    }
+
+    public String encode() {
+        return type.name() + '\n' + escape(nodeId) + '\n' + roomId + '\n' + userId + '\n' + senderId + '\n'
+                + messageId + '\n' + sentAt + '\n' + (flag ? '1' : '0') + '\n' + escape(name) + '\n' + escape(text);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the payload is not an encoded event
+     */
+    public static BusEvent decode(String payload) {
+        String[] fields = payload.split("\n", -1);
+        if (fields.length != 10) {
+            throw new IllegalArgumentException("Malformed bus event: " + fields.length + " fields");
+        }
+        try {
+            return new BusEvent(Type.valueOf(fields[0]), unescape(fields[1]), Integer.parseInt(fields[2]),
+                    Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), Integer.parseInt(fields[5]),
+                    Long.parseLong(fields[6]), "1".equals(fields[7]), unescape(fields[8]), unescape(fields[9]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed bus event", e);
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                out.append(next == 'n' ? '\n' : next);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public int getRoomId() {
+        return roomId;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public int getSenderId() {
+        return senderId;
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    public long getSentAt() {
+        return sentAt;
+    }
+
+    public boolean getFlag() {
+        return flag;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getText() {
+        return text;
+    }
+}
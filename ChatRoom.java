@@ -0,0 +1,105 @@
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+/**
+ * A chat room and the user ids of its members, as loaded from chat_rooms and room_members
+ * Membership lives in an IntSet behind a read-write lock: broadcasts iterate it under the read
+ * lock, joins and leaves take the write lock.
+ */
+public class ChatRoom {
+    private final int roomId;
+    private final String roomName;
+    private final String description;
+    private final boolean isPrivate;
+    private final int maxUsers;
+    private final IntSet members;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public ChatRoom(int roomId, String roomName, String description, boolean isPrivate, int maxUsers,
+            int[] memberIds) {
+        this.roomId = roomId;
+        this.roomName = roomName;
+        this.description = description;
+        this.isPrivate = isPrivate;
+        this.maxUsers = maxUsers;
+        this.members = new IntSet(Math.max(8, memberIds.length));
+        for (int userId : memberIds) {
+            members.add(userId);
+        }
+    }
+
+    public boolean isMember(int userId) {
+        lock.readLock().lock();
+        try {
+            return members.contains(userId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return false if the user already was a member
+     */
+    public boolean addMember(int userId) {
+        lock.writeLock().lock();
+        try {
+            return members.add(userId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean removeMember(int userId) {
+        lock.writeLock().lock();
+        try {
+            return members.remove(userId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int getMemberCount() {
+        lock.readLock().lock();
+        try {
+            return members.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Run the action for every member while holding the read lock; keep it short and non-blocking
+     */
+    public void forEachMember(IntConsumer action) {
+        lock.readLock().lock();
+        try {
+            members.forEach(action);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isFull() {
+        return maxUsers > 0 && getMemberCount() >= maxUsers;
+    }
+
+    public int getRoomId() {
+        return roomId;
+    }
+
+    public String getRoomName() {
+        return roomName;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public boolean isPrivate() {
+        return isPrivate;
+    }
+
+    public int getMaxUsers() {
+        return maxUsers;
+    }
+}
@@ -1,36 +1,115 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
 /**
  * Handles individual client connections
- * Each client gets its own ClientHandler instance running in a separate thread
+ * Each client gets its own ClientHandler instance running in a separate thread.
+ * The protocol itself is line driven (see handleLine) so other transports such as
+ * NioClientHandler can reuse it without owning a blocking socket. Clients that negotiate the
+ * binary protocol (see BinaryFrame) are served through handleFrame instead.
  */
 public class ClientHandler implements Runnable {
     private static final Logger LOGGER = Logger.getLogger(ClientHandler.class.getName());
+    private static final int MAX_AUTH_ATTEMPTS = 3;
+    private static final int WRITE_BUFFER_SIZE = 8192;
+
+    // Metrics, shared by every transport
+    private static final MetricsRegistry METRICS = MetricsRegistry.getInstance();
+    protected static final MetricsRegistry.Counter BYTES_RECEIVED = METRICS.counter(
+            "connecthub_bytes_received_total", "Bytes read from client connections");
+    protected static final MetricsRegistry.Counter BYTES_SENT = METRICS.counter(
+            "connecthub_bytes_sent_total", "Bytes written to client connections");
+    private static final LatencyHistogram AUTH_TIME = METRICS.histogram(
+            "connecthub_auth_seconds", "Time to check a LOGIN or REGISTER line");
+    private static final MetricsRegistry.Counter AUTH_FAILURES = METRICS.counter(
+            "connecthub_auth_failures_total", "Rejected LOGIN and REGISTER attempts");
+    protected static final MetricsRegistry.Counter FILE_BYTES_SENT = METRICS.counter(
+            "connecthub_file_transfer_bytes_total", "File content transferred", "direction", "sent");
+    protected static final MetricsRegistry.Counter FILE_BYTES_RECEIVED = METRICS.counter(
+            "connecthub_file_transfer_bytes_total", "File content transferred", "direction", "received");
+    protected static final LatencyHistogram FILE_SEND_TIME = METRICS.histogram(
+            "connecthub_file_transfer_seconds", "Duration of whole file transfers", "direction", "sent");
+    protected static final LatencyHistogram FILE_RECEIVE_TIME = METRICS.histogram(
+            "connecthub_file_transfer_seconds", "Duration of whole file transfers", "direction", "received");
 
     private final Socket clientSocket;
-    private final EnhancedServer server;
-    private BufferedReader reader;
-    private PrintWriter writer;
+    protected final EnhancedServer server;
+    private final String remoteAddress;
+    private LineInputStream reader;
+    private OutputStream output;
     private DataInputStream dataInputStream;
-    private DataOutputStream dataOutputStream;
-    private User user;
-    private boolean isConnected = true;
+    // ReentrantLock rather than synchronized so virtual threads never pin while writing
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final OutboundQueue outboundQueue;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    // Written only while holding writeLock
+    private boolean binaryOutput;
+    private volatile boolean binaryInput;
+    private volatile boolean firstLineSeen;
+    // Binary upload in progress, touched only by the serial inbound path
+    private File uploadFile;
+    private OutputStream uploadStream;
+    private long uploadRemaining;
+    private long uploadStartedAt;
+    private ResumableUpload resumableUpload;
+
+    // Room that plain chat lines go to; always one the user is a member of
+    private volatile int currentRoomId;
+
+    // /history position: what is being listed and the keyset cursor of its next, older page
+    private String historyScope;
+    private int historyTargetId;
+    private MessageCursor historyCursor;
+
+    // /search position: the last query, its filters and how many results were shown
+    private String searchText;
+    private boolean searchRecent;
+    private int searchRoomId;
+    private int searchSenderId;
+    private int searchOffset = -1;
+    private volatile User user;
+    private int authAttempts;
+    protected volatile boolean isConnected = true;
 
     public ClientHandler(Socket clientSocket, EnhancedServer server) {
         this.clientSocket = clientSocket;
         this.server = server;
+        this.remoteAddress = clientSocket.getInetAddress().getHostAddress();
+        this.outboundQueue = server.newOutboundQueue();
         initializeStreams();
     }
 
+    /**
+     * Constructor for transports that manage their own channel instead of a blocking socket
+     */
+    protected ClientHandler(EnhancedServer server, String remoteAddress) {
+        this.clientSocket = null;
+        this.server = server;
+        this.remoteAddress = remoteAddress;
+        this.outboundQueue = server.newOutboundQueue();
+    }
+
     private void initializeStreams() {
         try {
-            reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            writer = new PrintWriter(clientSocket.getOutputStream(), true);
-            dataInputStream = new DataInputStream(clientSocket.getInputStream());
-            dataOutputStream = new DataOutputStream(clientSocket.getOutputStream());
+            // Lines and SENDFILE payloads are read from the same buffer so no bytes are lost
+            reader = new LineInputStream(new CountingInputStream(clientSocket.getInputStream()),
+                    ServerConfig.getInstance().getInt("server.buffer_size", 4096));
+            dataInputStream = new DataInputStream(reader);
+            output = new CountingOutputStream(clientSocket.getOutputStream());
 
             LOGGER.info("Client streams initialized for: " + clientSocket.getInetAddress());
         } catch (IOException e) {
@@ -42,17 +121,32 @@ public class ClientHandler implements Runnable {
     @Override
     public void run() {
         try {
-            // First, handle user authentication
-            if (authenticateUser()) {
-                server.addClient(user.getUserId(), this);
-                sendWelcomeMessage();
-                sendOnlineUsersList();
+            sendAuthPrompt();
 
-                // Main message processing loop
-                processMessages();
-            } else {
-                sendMessage("❌ Authentication failed. Disconnecting...");
-                disconnect("Authentication failed");
+            // Authentication and then the main message loop share the same line handler
+            while (isConnected) {
+                if (binaryInput) {
+                    BinaryFrame frame = BinaryFrame.read(dataInputStream);
+                    if (frame == null) {
+                        break;
+                    }
+                    handleFrame(frame);
+                    continue;
+                }
+
+                String line = reader.readLine();
+                if (line == null) {
+                    break;
+                }
+                if (isProtocolRequest(line)) {
+                    negotiateProtocol(line);
+                } else {
+                    handleLine(line);
+                }
+            }
+        } catch (IOException e) {
+            if (isConnected) {
+                LOGGER.log(Level.WARNING, "Client disconnected unexpectedly: " + getDisplayInfo(), e);
             }
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Error in client handler", e);
@@ -61,88 +155,364 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    private boolean authenticateUser() {
-        try {
-            sendMessage("🔐 Welcome to FileTalk! Please login or register.");
-            sendMessage("💡 Commands: LOGIN <username> <password> or REGISTER <username> <password> <display_name>");
-
-            int attempts = 0;
-            final int MAX_ATTEMPTS = 3;
+    protected void sendAuthPrompt() {
+        sendMessage("🔐 Welcome to FileTalk! Please login or register.");
+        sendMessage("💡 Commands: LOGIN <username> <password> or REGISTER <username> <password> <display_name>");
+    }
 
-            while (attempts < MAX_ATTEMPTS && isConnected) {
-                String authMessage = reader.readLine();
-                if (authMessage == null) {
-                    return false;
-                }
+    /**
+     * Only the first line of a connection may ask to switch protocols
+     */
+    protected boolean isProtocolRequest(String line) {
+        if (firstLineSeen) {
+            return false;
+        }
+        firstLineSeen = true;
+        return line.startsWith("PROTO ");
+    }
 
-                String[] parts = authMessage.trim().split("\\s+");
-                if (parts.length < 3) {
-                    sendMessage(
-                            "❌ Invalid format. Use: LOGIN <username> <password> or REGISTER <username> <password> <display_name>");
-                    attempts++;
-                    continue;
-                }
+    /**
+     * Answer a protocol request; returns true when input from this client is framed from now on
+     */
+    protected boolean negotiateProtocol(String request) {
+        if (BinaryFrame.HELLO.equals(request.trim()) && server.isBinaryProtocolEnabled()) {
+            binaryInput = true;
+            enqueue(EncodedMessage.protocolSwitch(BinaryFrame.ACCEPT));
+            return true;
+        }
+        sendMessage(BinaryFrame.DECLINE);
+        return false;
+    }
 
-                String command = parts[0].toUpperCase();
-                String username = parts[1];
-                String password = parts[2];
-
-                if ("LOGIN".equals(command)) {
-                    user = server.getUserDAO().authenticateUser(username, hashPassword(password));
-                    if (user != null) {
-                        sendMessage("✅ Login successful! Welcome back, " + user.getDisplayName());
-                        return true;
-                    } else {
-                        sendMessage("❌ Invalid username or password");
-                    }
-                } else if ("REGISTER".equals(command)) {
-                    if (parts.length < 4) {
-                        sendMessage("❌ Registration format: REGISTER <username> <password> <display_name>");
-                        attempts++;
-                        continue;
-                    }
+    protected boolean isBinaryInput() {
+        return binaryInput;
+    }
 
-                    String displayName = parts[3];
-                    if (server.getUserDAO().usernameExists(username)) {
-                        sendMessage("❌ Username already exists");
-                    } else {
-                        User newUser = new User(username, hashPassword(password), displayName);
-                        if (server.getUserDAO().createUser(newUser)) {
-                            user = newUser;
-                            sendMessage("✅ Registration successful! Welcome, " + displayName);
-                            return true;
-                        } else {
-                            sendMessage("❌ Registration failed. Please try again.");
-                        }
+    /**
+     * Process one frame received from a binary protocol client, whatever transport delivered it
+     */
+    protected void handleFrame(BinaryFrame frame) {
+        switch (frame.type()) {
+            case BinaryFrame.CHAT:
+                if (user == null) {
+                    handleLine(frame.text());
+                } else {
+                    String message = frame.text().trim();
+                    if (!message.isEmpty()) {
+                        server.broadcastMessage(message, user.getUserId());
                     }
+                }
+                break;
+            case BinaryFrame.COMMAND:
+                handleLine(frame.text());
+                break;
+            case BinaryFrame.FILE_BEGIN:
+            case BinaryFrame.FILE_CHUNK:
+            case BinaryFrame.FILE_END:
+                if (user == null) {
+                    sendMessage("❌ Please login before sending files");
+                } else {
+                    handleFileFrame(frame);
+                }
+                break;
+            case BinaryFrame.UPLOAD_CHUNK:
+                if (user == null) {
+                    sendMessage("❌ Please login before sending files");
                 } else {
-                    sendMessage("❌ Unknown command. Use LOGIN or REGISTER");
+                    handleUploadChunk(frame);
                 }
+                break;
+            default:
+                disconnect("Unknown frame type " + frame.type());
+        }
+    }
 
-                attempts++;
+    private void handleFileFrame(BinaryFrame frame) {
+        if (frame.type() == BinaryFrame.FILE_BEGIN) {
+            if (uploadStream != null) {
+                abortUpload("❌ Previous upload was not finished and has been discarded");
             }
+            String fileName = frame.fileName();
+            if (rejectOversizedUpload(frame.fileSize())) {
+                return;
+            }
+            uploadRemaining = frame.fileSize();
+            uploadStartedAt = System.nanoTime();
+            try {
+                uploadFile = uploadTarget(fileName);
+                uploadStream = new BufferedOutputStream(new FileOutputStream(uploadFile));
+                sendMessage("📥 Receiving file: " + fileName + " (" + formatFileSize(uploadRemaining) + ")");
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error receiving file: " + fileName, e);
+                abortUpload("❌ Error receiving file: " + e.getMessage());
+            }
+            return;
+        }
 
-            if (attempts >= MAX_ATTEMPTS) {
-                sendMessage("❌ Too many failed attempts. Disconnecting...");
+        // Chunks of an upload that already failed are skipped until its FILE_END
+        if (uploadStream == null) {
+            return;
+        }
+        try {
+            if (frame.type() == BinaryFrame.FILE_CHUNK) {
+                uploadRemaining -= frame.payload().length;
+                if (uploadRemaining < 0) {
+                    abortUpload("❌ Upload is larger than announced, discarded");
+                    return;
+                }
+                uploadStream.write(frame.payload());
+            } else if (uploadRemaining != 0) {
+                abortUpload("❌ Upload ended early, discarded");
+            } else {
+                uploadStream.close();
+                uploadStream = null;
+                FILE_BYTES_RECEIVED.add(uploadFile.length());
+                FILE_RECEIVE_TIME.recordSince(uploadStartedAt);
+                sendMessage("✅ File received successfully: " + uploadFile.getName());
+                LOGGER.info("File received by " + user.getUsername() + ": " + uploadFile.getName());
             }
-            return false;
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error receiving file: " + uploadFile.getName(), e);
+            abortUpload("❌ Error receiving file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * /upload <size> <name>: start a resumable upload and acknowledge offset 0
+     */
+    private void startResumableUpload(String sizeArg, String fileName) {
+        long fileSize;
+        try {
+            fileSize = Long.parseLong(sizeArg);
+        } catch (NumberFormatException e) {
+            fileSize = -1;
+        }
+        if (fileSize < 0) {
+            sendMessage("❌ Usage: /upload <size_in_bytes> <file_name>");
+            return;
+        }
+        if (rejectOversizedUpload(fileSize)) {
+            return;
+        }
 
+        suspendResumableUpload();
+        ServerConfig config = ServerConfig.getInstance();
+        try {
+            resumableUpload = ResumableUpload.begin(server.getFileTransferStore(), user.getUserId(), fileName,
+                    uploadTarget(fileName), fileSize, config.getLong("files.upload.checkpoint_bytes", 4L << 20),
+                    config.getInt("files.cleanup_days", 7));
         } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Error during authentication", e);
-            return false;
+            LOGGER.log(Level.SEVERE, "Error starting upload: " + fileName, e);
+            sendMessage("❌ Could not start upload: " + e.getMessage());
+            return;
         }
+        sendMessage("📥 Upload #" + resumableUpload.getTransferId() + " started: " + fileName + " ("
+                + formatFileSize(fileSize) + "). If interrupted, reconnect and /resume "
+                + resumableUpload.getTransferId());
+        acknowledgeUpload();
     }
 
-    private void processMessages() {
+    /**
+     * /resume <id>: reopen an interrupted upload and acknowledge the offset to continue from
+     */
+    private void resumeUpload(String idArg) {
+        int transferId;
+        try {
+            transferId = Integer.parseInt(idArg);
+        } catch (NumberFormatException e) {
+            sendMessage("❌ Usage: /resume <upload_id>");
+            return;
+        }
+
+        suspendResumableUpload();
         try {
-            String message;
-            while (isConnected && (message = reader.readLine()) != null) {
-                handleMessage(message);
+            resumableUpload = ResumableUpload.resume(server.getFileTransferStore(), transferId, user.getUserId(),
+                    ServerConfig.getInstance().getLong("files.upload.checkpoint_bytes", 4L << 20));
+        } catch (IOException e) {
+            enqueue(EncodedMessage.ofFrame(BinaryFrame.uploadAck(transferId, -1)));
+            sendMessage("❌ Cannot resume upload #" + transferId + ": " + e.getMessage());
+            return;
+        }
+        sendMessage("🔁 Resuming upload #" + transferId + " (" + resumableUpload.getFileName() + ") at "
+                + formatFileSize(resumableUpload.getOffset()) + " of "
+                + formatFileSize(resumableUpload.getFileSize()));
+        acknowledgeUpload();
+    }
+
+    private void handleUploadChunk(BinaryFrame frame) {
+        ResumableUpload upload = resumableUpload;
+        if (upload == null || upload.getTransferId() != frame.transferId()) {
+            enqueue(EncodedMessage.ofFrame(BinaryFrame.uploadAck(frame.transferId(), -1)));
+            return;
+        }
+
+        // Out of order chunks (sent after a rejected one) are answered with the expected offset
+        byte[] payload = frame.payload();
+        int length = payload.length - BinaryFrame.UPLOAD_CHUNK_HEADER;
+        if (frame.offset() == upload.getOffset()) {
+            if (!ResumableUpload.checksumMatches(frame.checksum(), payload, BinaryFrame.UPLOAD_CHUNK_HEADER, length)) {
+                sendMessage("⚠️ Chunk at offset " + frame.offset() + " failed its checksum and will be resent");
+            } else {
+                try {
+                    upload.write(payload, BinaryFrame.UPLOAD_CHUNK_HEADER, length);
+                    // Resumable uploads can span connections, so only their bytes are counted
+                    FILE_BYTES_RECEIVED.add(length);
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Error receiving upload #" + upload.getTransferId(), e);
+                    enqueue(EncodedMessage.ofFrame(BinaryFrame.uploadAck(upload.getTransferId(), -1)));
+                    sendMessage("❌ Error receiving file: " + e.getMessage());
+                    suspendResumableUpload();
+                    return;
+                }
             }
+        }
+        acknowledgeUpload();
+    }
+
+    /**
+     * Tell the client the next offset to send, finishing the upload once everything arrived
+     */
+    private void acknowledgeUpload() {
+        ResumableUpload upload = resumableUpload;
+        enqueue(EncodedMessage.ofFrame(BinaryFrame.uploadAck(upload.getTransferId(), upload.getOffset())));
+        if (!upload.isComplete()) {
+            return;
+        }
+
+        resumableUpload = null;
+        try {
+            File file = upload.complete();
+            sendMessage("✅ File received successfully: " + file.getName());
+            LOGGER.info("File received by " + user.getUsername() + ": " + upload.getFileName() + " (upload #"
+                    + upload.getTransferId() + ")");
         } catch (IOException e) {
-            if (isConnected) {
-                LOGGER.log(Level.WARNING, "Client disconnected unexpectedly: " + getDisplayInfo(), e);
+            LOGGER.log(Level.SEVERE, "Error completing upload #" + upload.getTransferId(), e);
+            sendMessage("❌ Error receiving file: " + e.getMessage());
+        }
+    }
+
+    private void suspendResumableUpload() {
+        if (resumableUpload != null) {
+            resumableUpload.suspend();
+            resumableUpload = null;
+        }
+    }
+
+    private void abortUpload(String reason) {
+        if (uploadStream != null) {
+            try {
+                uploadStream.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Error closing upload", e);
+            }
+            uploadStream = null;
+        }
+        if (uploadFile != null && !uploadFile.delete()) {
+            LOGGER.fine("Could not delete partial upload " + uploadFile);
+        }
+        uploadFile = null;
+        if (reason != null) {
+            sendMessage(reason);
+        }
+    }
+
+    /**
+     * Process one line received from the client, whatever transport delivered it
+     */
+    protected void handleLine(String line) {
+        if (user != null) {
+            handleMessage(line);
+            return;
+        }
+
+        long authStart = System.nanoTime();
+        boolean authenticated = authenticateUser(line);
+        AUTH_TIME.recordSince(authStart);
+        if (authenticated) {
+            currentRoomId = server.getDefaultRoomId();
+            if (server.getRoomManager() != null) {
+                server.getRoomManager().loadRoomsOf(user.getUserId());
+            }
+            server.addClient(user.getUserId(), this);
+            sendWelcomeMessage();
+            sendJoinBackfill();
+            server.deliverOfflineMessages(this);
+            if (server.getReadReceipts() != null) {
+                server.getReadReceipts().load(user.getUserId());
+                sendUnreadSummary(false);
             }
+            sendOnlineUsersList();
+            return;
+        }
+
+        AUTH_FAILURES.increment();
+        authAttempts++;
+        if (authAttempts >= MAX_AUTH_ATTEMPTS) {
+            sendMessage("❌ Too many failed attempts. Disconnecting...");
+            sendMessage("❌ Authentication failed. Disconnecting...");
+            disconnect("Authentication failed");
+        }
+    }
+
+    private boolean authenticateUser(String authMessage) {
+        String[] parts = authMessage.trim().split("\\s+");
+        if (parts.length < 3) {
+            sendMessage(
+                    "❌ Invalid format. Use: LOGIN <username> <password> or REGISTER <username> <password> <display_name>");
+            return false;
+        }
+
+        String command = parts[0].toUpperCase();
+        String username = parts[1];
+        String password = parts[2];
+
+        if ("LOGIN".equals(command)) {
+            User authenticated = server.getUserStore().authenticateUser(username, hashPassword(password));
+            if (authenticated != null) {
+                user = authenticated;
+                sendMessage("✅ Login successful! Welcome back, " + user.getDisplayName());
+                return true;
+            }
+            sendMessage("❌ Invalid username or password");
+        } else if ("REGISTER".equals(command)) {
+            if (parts.length < 4) {
+                sendMessage("❌ Registration format: REGISTER <username> <password> <display_name>");
+                return false;
+            }
+
+            String displayName = parts[3];
+            if (!server.isStorageAvailable() && server.getOfflineJournal() != null) {
+                registerOffline(new User(username, hashPassword(password), displayName));
+            } else if (server.getUserStore().usernameExists(username)) {
+                sendMessage("❌ Username already exists");
+            } else {
+                User newUser = new User(username, hashPassword(password), displayName);
+                if (server.getUserStore().createUser(newUser)) {
+                    user = newUser;
+                    sendMessage("✅ Registration successful! Welcome, " + displayName);
+                    return true;
+                }
+                sendMessage("❌ Registration failed. Please try again.");
+            }
+        } else {
+            sendMessage("❌ Unknown command. Use LOGIN or REGISTER");
+        }
+        return false;
+    }
+
+    /**
+     * Journal a registration while the database is down; the account exists once the journal
+     * has been replayed, so the user logs in after that
+     */
+    private void registerOffline(User newUser) {
+        if (server.getUserStore().findByUsername(newUser.getUsername()) != null
+                || server.getOfflineJournal().isRegistrationPending(newUser.getUsername())) {
+            sendMessage("❌ Username already exists");
+        } else if (server.getOfflineJournal().appendRegistration(newUser)) {
+            sendMessage("📝 The database is unavailable; your registration is saved. Log in once the service "
+                    + "is fully back.");
+        } else {
+            sendMessage("❌ Registration failed. Please try again.");
         }
     }
 
@@ -156,6 +526,11 @@ public class ClientHandler implements Runnable {
             if (message.startsWith("/")) {
                 handleCommand(message);
             } else if (message.startsWith("SENDFILE ")) {
+                if (binaryInput) {
+                    // Raw bytes after a command frame would desynchronize the stream
+                    sendMessage("❌ Binary clients send files as FILE frames");
+                    return;
+                }
                 String fileName = message.substring(9).trim();
                 receiveFile(fileName);
             } else if (message.equalsIgnoreCase("exit")) {
@@ -170,9 +545,18 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    private void handleCommand(String command) {
+    /**
+     * Split a "/command arg rest of line" into at most three parts, the command lower-cased
+     */
+    static String[] parseCommand(String command) {
         String[] parts = command.substring(1).split("\\s+", 3);
-        String cmd = parts[0].toLowerCase();
+        parts[0] = parts[0].toLowerCase();
+        return parts;
+    }
+
+    private void handleCommand(String command) {
+        String[] parts = parseCommand(command);
+        String cmd = parts[0];
 
         switch (cmd) {
             case "help":
@@ -200,8 +584,42 @@ public class ClientHandler implements Runnable {
                     sendMessage("❌ Usage: /sendfile <file_path>");
                 }
                 break;
+            case "upload":
+            case "resume":
+                if (!binaryInput) {
+                    sendMessage("❌ Resumable uploads need the binary protocol");
+                } else if ("resume".equals(cmd) && parts.length >= 2) {
+                    resumeUpload(parts[1]);
+                } else if ("upload".equals(cmd) && parts.length >= 3) {
+                    startResumableUpload(parts[1], parts[2]);
+                } else {
+                    sendMessage("❌ Usage: /upload <size_in_bytes> <file_name> or /resume <upload_id>");
+                }
+                break;
             case "history":
-                sendRecentMessages();
+                sendHistory(parts.length >= 2 ? parts[1] : null);
+                break;
+            case "search":
+                sendSearchResults(command.substring(1 + cmd.length()).trim());
+                break;
+            case "rooms":
+                sendRoomList();
+                break;
+            case "join":
+                if (parts.length >= 2) {
+                    joinRoom(parts[1]);
+                } else {
+                    sendMessage("❌ Usage: /join <room>");
+                }
+                break;
+            case "leave":
+                leaveRoom(parts.length >= 2 ? parts[1] : null);
+                break;
+            case "read":
+                markRead(parts.length >= 2 ? parts[1] : null);
+                break;
+            case "unread":
+                sendUnreadSummary(true);
                 break;
             case "whoami":
                 sendMessage("👤 You are: " + user.getDisplayName() + " (@" + user.getUsername() + ")");
@@ -217,7 +635,17 @@ public class ClientHandler implements Runnable {
         sendMessage("/users         - List online users");
         sendMessage("/msg <user> <text> - Send private message");
         sendMessage("/sendfile <path>   - Send a file");
-        sendMessage("/history       - Show recent messages");
+        sendMessage("/resume <id>       - Resume an interrupted upload (binary clients)");
+        sendMessage("/rooms         - List rooms");
+        sendMessage("/join <room>   - Join or switch to a room (created if it does not exist)");
+        sendMessage("/leave [room]  - Leave the current (or named) room");
+        sendMessage("/history       - Show recent messages of the room (/history more for older ones)");
+        sendMessage("/history @user - Show your conversation with a user");
+        sendMessage("/history mine  - Show messages you sent");
+        sendMessage("/search <words>    - Search all messages (from:<user>, room:<id>, /search more)");
+        sendMessage("/search recent <words> - Search recent messages only (fast)");
+        sendMessage("/read [@user]  - Mark the room (or a conversation) read up to the newest message");
+        sendMessage("/unread        - Show unread message counts");
         sendMessage("/whoami        - Show your info");
         sendMessage("exit           - Disconnect from server");
         sendMessage("============================\n");
@@ -241,9 +669,349 @@ public class ClientHandler implements Runnable {
         sendMessage("=============================\n");
     }
 
-    private void sendRecentMessages() {
-        // This would get recent messages from database
-        sendMessage("📜 Recent message history feature coming soon!");
+    /**
+     * List one page of history, newest page first; "/history more" continues from the cursor of
+     * the previous page
+     */
+    private void sendHistory(String argument) {
+        UserStore userStore = server.getUserStore();
+        boolean continuing = "more".equalsIgnoreCase(argument);
+        if (continuing) {
+            if (historyCursor == null) {
+                sendMessage("📜 No more history. Use /history to start from the newest messages.");
+                return;
+            }
+        } else if (argument == null) {
+            historyScope = "room";
+            historyTargetId = currentRoomId;
+            historyCursor = null;
+        } else if ("mine".equalsIgnoreCase(argument)) {
+            historyScope = "user";
+            historyTargetId = user.getUserId();
+            historyCursor = null;
+        } else {
+            User other = userStore.findByUsername(argument.startsWith("@") ? argument.substring(1) : argument);
+            if (other == null) {
+                sendMessage("❌ Unknown user: " + argument);
+                return;
+            }
+            historyScope = "private";
+            historyTargetId = other.getUserId();
+            historyCursor = null;
+        }
+
+        int pageSize = server.getHistoryPageSize();
+        MessageHistory history = server.getMessageHistory();
+        List<Message> page;
+        switch (historyScope) {
+            case "private":
+                page = history.getPrivateHistory(user.getUserId(), historyTargetId, historyCursor, pageSize);
+                break;
+            case "user":
+                page = server.getMessageStore().getUserHistory(historyTargetId, historyCursor, pageSize);
+                break;
+            default:
+                page = history.getRoomHistory(historyTargetId, historyCursor, pageSize);
+        }
+
+        if (page.isEmpty()) {
+            historyCursor = null;
+            sendMessage(continuing ? "📜 No older messages" : "📜 No messages yet");
+            return;
+        }
+
+        // Pages arrive newest first; show them oldest first like the live chat
+        sendMessage("📜 === History (" + page.size() + " messages) ===");
+        for (int i = page.size() - 1; i >= 0; i--) {
+            sendMessage(formatHistoryLine(page.get(i), userStore));
+        }
+        historyCursor = page.size() == pageSize ? MessageCursor.before(page.get(page.size() - 1)) : null;
+        sendMessage(historyCursor != null ? "📜 /history more for older messages" : "📜 Beginning of history");
+    }
+
+    /**
+     * Run a search, or show its next page with "/search more". "recent" searches the in-memory
+     * index of recent messages newest first; otherwise the database ranks all history.
+     */
+    private void sendSearchResults(String arguments) {
+        if (arguments.equalsIgnoreCase("more")) {
+            if (searchOffset < 0) {
+                sendMessage("🔍 No more results. Use /search <words> to start a new search.");
+                return;
+            }
+        } else {
+            searchRecent = false;
+            searchRoomId = 0;
+            searchSenderId = 0;
+            StringBuilder terms = new StringBuilder();
+            for (String word : arguments.split("\\s+")) {
+                String lower = word.toLowerCase();
+                if (lower.equals("recent") && terms.length() == 0 && !searchRecent) {
+                    searchRecent = true;
+                } else if (lower.startsWith("from:") && word.length() > 5) {
+                    String name = word.substring(5).replaceFirst("^@", "");
+                    User sender = server.getUserStore().findByUsername(name);
+                    if (sender == null) {
+                        sendMessage("❌ Unknown user: " + name);
+                        return;
+                    }
+                    searchSenderId = sender.getUserId();
+                } else if (lower.startsWith("room:") && word.length() > 5) {
+                    try {
+                        searchRoomId = Integer.parseInt(word.substring(5));
+                    } catch (NumberFormatException e) {
+                        sendMessage("❌ Invalid room id: " + word.substring(5));
+                        return;
+                    }
+                    RoomManager rooms = server.getRoomManager();
+                    ChatRoom room = rooms != null ? rooms.getRoom(searchRoomId) : null;
+                    if (rooms != null && (room == null || !room.isMember(user.getUserId()))) {
+                        sendMessage("❌ You are not a member of room " + searchRoomId);
+                        searchOffset = -1;
+                        return;
+                    }
+                } else if (!word.isEmpty()) {
+                    terms.append(terms.length() > 0 ? " " : "").append(word);
+                }
+            }
+            if (terms.length() == 0) {
+                sendMessage("❌ Usage: /search [recent] [from:<user>] [room:<id>] <words>");
+                return;
+            }
+            if (searchRecent && server.getSearchIndex() == null) {
+                sendMessage("❌ Recent message search is disabled on this server");
+                return;
+            }
+            searchText = terms.toString();
+            searchOffset = 0;
+        }
+
+        int pageSize = server.getSearchPageSize();
+        List<Message> results = searchRecent
+                ? server.getSearchIndex().search(searchText, user.getUserId(), viewerRoomIds(), searchRoomId,
+                        searchSenderId, pageSize, searchOffset)
+                : server.getMessageStore().searchMessages(searchText, user.getUserId(), searchRoomId, searchSenderId,
+                        pageSize, searchOffset);
+
+        if (results.isEmpty()) {
+            sendMessage(searchOffset == 0 ? "🔍 No messages match \"" + searchText + "\"" : "🔍 No more results");
+            searchOffset = -1;
+            return;
+        }
+        sendMessage("🔍 === \"" + searchText + "\" results " + (searchOffset + 1) + "-"
+                + (searchOffset + results.size()) + (searchRecent ? " (recent)" : "") + " ===");
+        UserStore userStore = server.getUserStore();
+        for (Message message : results) {
+            sendMessage(formatHistoryLine(message, userStore));
+        }
+        searchOffset = results.size() == pageSize ? searchOffset + results.size() : -1;
+        sendMessage(searchOffset > 0 ? "🔍 /search more for more results" : "🔍 End of results");
+    }
+
+    /**
+     * Rooms whose messages this user may find with /search recent, null when there are no rooms
+     */
+    private IntSet viewerRoomIds() {
+        RoomManager rooms = server.getRoomManager();
+        if (rooms == null) {
+            return null;
+        }
+        List<Integer> roomIds = rooms.getRoomIdsOf(user.getUserId());
+        IntSet viewerRoomIds = new IntSet(Math.max(4, roomIds.size()));
+        for (int roomId : roomIds) {
+            viewerRoomIds.add(roomId);
+        }
+        return viewerRoomIds;
+    }
+
+    /**
+     * Show the last few room messages after login, straight from the in-memory history
+     */
+    private void sendJoinBackfill() {
+        int count = server.getJoinBackfill();
+        if (count <= 0 || server.getMessageHistory() == null) {
+            return;
+        }
+        List<Message> recent = server.getMessageHistory().getRoomHistory(currentRoomId, null, count);
+        if (recent.isEmpty()) {
+            return;
+        }
+        sendMessage("📜 === Recent messages ===");
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            sendMessage(formatHistoryLine(recent.get(i), server.getUserStore()));
+        }
+        sendMessage("📜 ======================");
+    }
+
+    private void sendRoomList() {
+        RoomManager rooms = server.getRoomManager();
+        if (rooms == null) {
+            sendMessage("❌ Rooms are not available");
+            return;
+        }
+        sendMessage("\n🏠 === Rooms ===");
+        for (Map.Entry<Integer, String> entry : rooms.getVisibleRooms(user.getUserId()).entrySet()) {
+            ChatRoom loaded = rooms.getLoadedRoom(entry.getKey());
+            String marker = entry.getKey() == currentRoomId ? "➡️ "
+                    : loaded != null && loaded.isMember(user.getUserId()) ? "✔️ " : "   ";
+            sendMessage(marker + "#" + entry.getValue()
+                    + (loaded != null ? " (" + loaded.getMemberCount() + " members)" : ""));
+        }
+        sendMessage("===============\n");
+    }
+
+    /**
+     * Join a room, creating it if needed, and make it the current room; joining a room the user
+     * already belongs to just switches to it
+     */
+    private void joinRoom(String roomName) {
+        RoomManager rooms = server.getRoomManager();
+        if (rooms == null) {
+            sendMessage("❌ Rooms are not available");
+            return;
+        }
+        roomName = roomName.startsWith("#") ? roomName.substring(1) : roomName;
+        if (!roomName.matches("[A-Za-z0-9_-]{1,50}")) {
+            sendMessage("❌ Room names are 1-50 letters, digits, '-' or '_'");
+            return;
+        }
+        ChatRoom room = rooms.findOrCreateRoom(roomName, user.getUserId());
+        if (room == null) {
+            sendMessage("❌ Could not open room " + roomName);
+            return;
+        }
+        int userId = user.getUserId();
+        if (!room.isMember(userId)) {
+            if (room.isPrivate()) {
+                sendMessage("❌ #" + room.getRoomName() + " is private");
+                return;
+            }
+            if (!rooms.hasRoomFor(room)) {
+                sendMessage("❌ #" + room.getRoomName() + " is full (" + room.getMaxUsers() + " members)");
+                return;
+            }
+            if (!rooms.join(room, userId)) {
+                sendMessage("❌ Could not join #" + room.getRoomName());
+                return;
+            }
+            server.sendRoomNotice(room.getRoomId(), "👋 " + user.getDisplayName() + " joined the room");
+        }
+        currentRoomId = room.getRoomId();
+        historyCursor = null;
+        sendMessage("🏠 Now chatting in #" + room.getRoomName() + " (" + room.getMemberCount() + " members)");
+        sendJoinBackfill();
+    }
+
+    private void leaveRoom(String roomName) {
+        RoomManager rooms = server.getRoomManager();
+        if (rooms == null) {
+            sendMessage("❌ Rooms are not available");
+            return;
+        }
+        ChatRoom room;
+        if (roomName == null) {
+            room = rooms.getRoom(currentRoomId);
+        } else {
+            int roomId = rooms.findRoomId(roomName.startsWith("#") ? roomName.substring(1) : roomName);
+            room = roomId != 0 ? rooms.getRoom(roomId) : null;
+        }
+        int userId = user.getUserId();
+        if (room == null || !room.isMember(userId)) {
+            sendMessage("❌ You are not in " + (roomName != null ? roomName : "a room"));
+            return;
+        }
+        if (room.getRoomId() == rooms.getDefaultRoomId()) {
+            sendMessage("❌ Everyone stays in #" + room.getRoomName());
+            return;
+        }
+        if (!rooms.leave(room, userId)) {
+            sendMessage("❌ Could not leave #" + room.getRoomName());
+            return;
+        }
+        server.sendRoomNotice(room.getRoomId(), "👋 " + user.getDisplayName() + " left the room");
+        sendMessage("🚪 Left #" + room.getRoomName());
+        if (currentRoomId == room.getRoomId()) {
+            currentRoomId = rooms.getDefaultRoomId();
+            historyCursor = null;
+            sendMessage("🏠 Back in the default room");
+        }
+    }
+
+    public int getCurrentRoomId() {
+        return currentRoomId;
+    }
+
+    /**
+     * Acknowledge everything up to the newest message of the room or of a private conversation
+     */
+    private void markRead(String argument) {
+        ReadReceiptTracker readReceipts = server.getReadReceipts();
+        if (readReceipts == null) {
+            sendMessage("❌ Read receipts are not available");
+            return;
+        }
+        ReadReceiptTracker.ReadMarker marker;
+        String scope;
+        if (argument == null) {
+            marker = readReceipts.markRoomRead(user.getUserId(), currentRoomId);
+            scope = "the room";
+        } else {
+            User other = server.getUserStore().findByUsername(argument.startsWith("@") ? argument.substring(1) : argument);
+            if (other == null) {
+                sendMessage("❌ Unknown user: " + argument);
+                return;
+            }
+            marker = readReceipts.markConversationRead(user.getUserId(), other.getUserId());
+            scope = "your conversation with " + other.getDisplayName();
+        }
+        sendMessage(marker != null ? "✔️ Marked " + scope + " as read" : "📭 Nothing to mark in " + scope);
+    }
+
+    /**
+     * Unread counts per room and conversation, from the in-memory index
+     *
+     * @param always also answer when nothing is unread
+     */
+    private void sendUnreadSummary(boolean always) {
+        ReadReceiptTracker readReceipts = server.getReadReceipts();
+        if (readReceipts == null) {
+            if (always) {
+                sendMessage("❌ Read receipts are not available");
+            }
+            return;
+        }
+        RoomManager rooms = server.getRoomManager();
+        List<ReadReceiptTracker.Unread> unread = readReceipts.getUnread(user.getUserId(),
+                rooms != null ? rooms.getRoomIdsOf(user.getUserId()) : List.of(currentRoomId));
+        if (unread.isEmpty()) {
+            if (always) {
+                sendMessage("✔️ No unread messages");
+            }
+            return;
+        }
+        StringBuilder summary = new StringBuilder("🔔 Unread:");
+        for (ReadReceiptTracker.Unread entry : unread) {
+            if (ReadReceiptTracker.SCOPE_ROOM.equals(entry.getScopeType())) {
+                ChatRoom room = rooms != null ? rooms.getRoom(entry.getScopeId()) : null;
+                summary.append(" #").append(room != null ? room.getRoomName() : String.valueOf(entry.getScopeId()));
+            } else {
+                User other = server.getUserStore().findById(entry.getScopeId());
+                summary.append(" @").append(other != null ? other.getUsername() : "#" + entry.getScopeId());
+            }
+            summary.append(" (").append(entry.formatCount()).append(")");
+        }
+        sendMessage(summary.toString());
+    }
+
+    private String formatHistoryLine(Message message, UserStore userStore) {
+        User sender = userStore.findById(message.getSenderId());
+        String name = sender != null ? sender.getDisplayName() : "#" + message.getSenderId();
+        String sentAt = message.getSentAt() != null ? message.getSentAt().toString().substring(0, 16) : "?";
+        if (message.getRecipientId() != null) {
+            User recipient = userStore.findById(message.getRecipientId());
+            name += " → " + (recipient != null ? recipient.getDisplayName() : "#" + message.getRecipientId());
+        }
+        return String.format("[%s] %s: %s", sentAt, name, message.getMessageText());
     }
 
     private void sendFile(String filePath) {
@@ -264,76 +1032,131 @@ public class ClientHandler implements Runnable {
             server.broadcastMessage("📁 " + user.getDisplayName() + " is sharing file: " + file.getName(),
                     user.getUserId(), user.getUserId());
 
-            // Send file metadata
-            writer.println("SENDFILE " + file.getName());
-            dataOutputStream.writeLong(file.length());
+            transmitFile(file);
 
-            // Send file content
-            try (FileInputStream fis = new FileInputStream(file);
-                    BufferedInputStream bis = new BufferedInputStream(fis)) {
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error sending file: " + filePath, e);
+            sendMessage("❌ Error sending file: " + e.getMessage());
+        }
+    }
 
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                long totalSent = 0;
+    /**
+     * Write the SENDFILE header, length and content of an already validated file
+     */
+    protected void transmitFile(File file) throws IOException {
+        // Hold the write lock for the whole transfer so broadcasts cannot interleave with the payload;
+        // anything queued meanwhile only goes out after the file, so there are no progress lines
+        writeLock.lock();
+        try {
+            // Anything queued before the transfer goes out first
+            writePending();
+            long transferStart = System.nanoTime();
 
-                while ((bytesRead = bis.read(buffer)) != -1) {
-                    dataOutputStream.write(buffer, 0, bytesRead);
-                    totalSent += bytesRead;
+            // Send file metadata
+            boolean framed = binaryOutput;
+            if (framed) {
+                output.write(BinaryFrame.fileBegin(file.getName(), file.length()));
+            } else {
+                output.write(("SENDFILE " + file.getName() + "\n").getBytes(StandardCharsets.UTF_8));
+                writeLong(file.length());
+            }
 
-                    // Show progress for large files
-                    if (file.length() > 1024 * 1024) { // > 1MB
-                        int progress = (int) ((totalSent * 100) / file.length());
-                        if (progress % 25 == 0) {
-                            sendMessage("📊 Upload progress: " + progress + "%");
-                        }
+            // Send file content straight from the page cache to the socket (transferTo);
+            // in binary mode every chunk is preceded by its FILE_CHUNK frame header
+            try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                WritableByteChannel target = FileTransfers.writableChannel(clientSocket, output);
+                long length = fileChannel.size();
+                byte[] header = new byte[BinaryFrame.HEADER_BYTES];
+                long totalSent = 0;
+
+                while (totalSent < length) {
+                    long chunk = framed ? Math.min(length - totalSent, BinaryFrame.FILE_CHUNK_SIZE) : length - totalSent;
+                    if (framed) {
+                        BinaryFrame.putHeader(header, 0, BinaryFrame.FILE_CHUNK, (int) chunk);
+                        output.write(header);
                     }
+                    FileTransfers.transferTo(fileChannel, totalSent, chunk, target);
+                    if (clientSocket.getChannel() != null) {
+                        BYTES_SENT.add(chunk); // went to the socket channel, past the counting stream
+                    }
+                    totalSent += chunk;
                 }
 
-                dataOutputStream.flush();
-                sendMessage("✅ File sent successfully: " + file.getName());
-                LOGGER.info("File sent by " + user.getUsername() + ": " + file.getName());
+                if (framed) {
+                    output.write(BinaryFrame.fileEnd());
+                }
+                output.flush();
+                FILE_BYTES_SENT.add(length);
+                FILE_SEND_TIME.recordSince(transferStart);
             }
+        } finally {
+            writeLock.unlock();
+        }
+        sendMessage("✅ File sent successfully: " + file.getName());
+        LOGGER.info("File sent by " + user.getUsername() + ": " + file.getName());
+    }
 
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Error sending file: " + filePath, e);
-            sendMessage("❌ Error sending file: " + e.getMessage());
+    /**
+     * Progress is reported in quarters for files over 1 MB
+     */
+    private static long progressStep(long length) {
+        return length > 1024 * 1024 ? (length + 3) / 4 : Math.max(length, 1);
+    }
+
+    private void writeLong(long value) throws IOException {
+        byte[] bytes = new byte[Long.BYTES];
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
         }
+        output.write(bytes);
     }
 
-    private void receiveFile(String fileName) {
+    protected void receiveFile(String fileName) {
         try {
             long fileSize = dataInputStream.readLong();
-            File file = new File("uploads/received_" + user.getUsername() + "_" + fileName);
-
-            // Create uploads directory if it doesn't exist
-            file.getParentFile().mkdirs();
+            if (rejectOversizedUpload(fileSize)) {
+                // Read past the body so the next line is where the client thinks it is
+                dataInputStream.skipNBytes(fileSize);
+                return;
+            }
+            long transferStart = System.nanoTime();
+            File file = uploadTarget(fileName);
 
             sendMessage("📥 Receiving file: " + fileName + " (" + formatFileSize(fileSize) + ")");
 
-            try (FileOutputStream fos = new FileOutputStream(file);
-                    BufferedOutputStream bos = new BufferedOutputStream(fos)) {
+            try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
 
-                byte[] buffer = new byte[8192];
+                // Bytes the line reader already pulled off the socket come first
                 long totalRead = 0;
-                int bytesRead;
-
-                while (totalRead < fileSize &&
-                        (bytesRead = dataInputStream.read(buffer, 0,
-                                (int) Math.min(buffer.length, fileSize - totalRead))) != -1) {
+                int buffered = (int) Math.min(reader.buffered(), fileSize);
+                if (buffered > 0) {
+                    byte[] head = new byte[buffered];
+                    dataInputStream.readFully(head);
+                    fileChannel.write(ByteBuffer.wrap(head));
+                    totalRead = buffered;
+                }
 
-                    bos.write(buffer, 0, bytesRead);
-                    totalRead += bytesRead;
+                // The rest moves socket -> file with transferFrom
+                ReadableByteChannel source = FileTransfers.readableChannel(clientSocket, reader);
+                long step = progressStep(fileSize);
+                while (totalRead < fileSize) {
+                    long chunk = Math.min(fileSize - totalRead, step - totalRead % step);
+                    FileTransfers.transferFrom(source, fileChannel, totalRead, chunk);
+                    if (clientSocket.getChannel() != null) {
+                        BYTES_RECEIVED.add(chunk);
+                    }
+                    totalRead += chunk;
 
                     // Show progress for large files
-                    if (fileSize > 1024 * 1024) { // > 1MB
-                        int progress = (int) ((totalRead * 100) / fileSize);
-                        if (progress % 25 == 0) {
-                            sendMessage("📊 Download progress: " + progress + "%");
-                        }
+                    if (step < fileSize) {
+                        sendMessage("📊 Download progress: " + (int) ((totalRead * 100) / fileSize) + "%");
                     }
                 }
 
-                bos.flush();
+                FILE_BYTES_RECEIVED.add(fileSize);
+                FILE_RECEIVE_TIME.recordSince(transferStart);
                 sendMessage("✅ File received successfully: " + file.getName());
                 LOGGER.info("File received by " + user.getUsername() + ": " + fileName);
             }
@@ -344,38 +1167,185 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    /**
+     * Reply "File too large" and return true when an announced upload is over files.max_size_mb
+     */
+    protected boolean rejectOversizedUpload(long fileSize) {
+        long maxFileSize = ServerConfig.getInstance().getLong("files.max_size_mb", 50) * 1024 * 1024;
+        if (fileSize <= maxFileSize) {
+            return false;
+        }
+        sendMessage("❌ File too large: " + formatFileSize(fileSize) + " (limit " + formatFileSize(maxFileSize) + ")");
+        return true;
+    }
+
+    /**
+     * Resolve where an upload from this user is stored, creating the uploads directory if needed
+     */
+    protected File uploadTarget(String fileName) {
+        // Only the last path element is kept so a crafted name cannot escape uploads/
+        File file = new File("uploads/received_" + user.getUsername() + "_" + new File(fileName).getName());
+        file.getParentFile().mkdirs();
+        return file;
+    }
+
     public void sendMessage(String message) {
-        if (writer != null && isConnected) {
-            writer.println(message);
+        enqueue(EncodedMessage.of(message));
+    }
+
+    /**
+     * Queue an encoded message for this client without blocking the caller.
+     * Broadcasts encode once and pass the same instance to every recipient.
+     */
+    public void enqueue(EncodedMessage message) {
+        if (!isConnected) {
+            message.release();
+            return;
+        }
+        OutboundQueue.OfferResult result = outboundQueue.offer(message);
+        if (result == OutboundQueue.OfferResult.QUEUED) {
+            scheduleDrain();
+        } else if (result == OutboundQueue.OfferResult.OVERFLOW) {
+            dropSlowConsumer();
         }
     }
 
-    public void disconnect(String reason) {
+    protected OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    /**
+     * Arrange for the outbound queue to be written; the blocking transport drains it on the
+     * client executor so a slow socket only ever stalls its own writer
+     */
+    protected void scheduleDrain() {
+        if (output == null || !drainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            server.getClientExecutor().execute(this::drainOutbound);
+        } catch (RejectedExecutionException e) {
+            drainScheduled.set(false);
+        }
+    }
+
+    private void drainOutbound() {
+        writeLock.lock();
+        try {
+            writePending();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to write to " + getDisplayInfo(), e);
+            outboundQueue.clear();
+        } finally {
+            writeLock.unlock();
+            drainScheduled.set(false);
+        }
+        if (!outboundQueue.isEmpty() && isConnected) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Write everything queued, packing small messages into as few socket writes as possible.
+     * Caller holds writeLock.
+     */
+    private void writePending() throws IOException {
+        byte[] buffer = null;
+        int used = 0;
+        EncodedMessage next;
+        while ((next = outboundQueue.poll()) != null) {
+            byte[] bytes = next.bytes(binaryOutput);
+            if (next.switchesToBinary()) {
+                binaryOutput = true;
+            }
+            if (bytes.length >= WRITE_BUFFER_SIZE) {
+                if (used > 0) {
+                    output.write(buffer, 0, used);
+                    used = 0;
+                }
+                output.write(bytes);
+                continue;
+            }
+            if (buffer == null) {
+                buffer = new byte[WRITE_BUFFER_SIZE];
+            } else if (used + bytes.length > buffer.length) {
+                output.write(buffer, 0, used);
+                used = 0;
+            }
+            System.arraycopy(bytes, 0, buffer, used, bytes.length);
+            used += bytes.length;
+        }
+        if (used > 0) {
+            output.write(buffer, 0, used);
+        }
+    }
+
+    /**
+     * Outbound queue overflowed under the DISCONNECT policy: close without flushing
+     */
+    private void dropSlowConsumer() {
         if (isConnected) {
             isConnected = false;
+            outboundQueue.clear();
+            LOGGER.warning("Disconnecting slow consumer: " + getDisplayInfo());
+            closeTransport();
+        }
+    }
+
+    public void disconnect(String reason) {
+        if (isConnected) {
             sendMessage("🔌 Disconnecting: " + reason);
+            isConnected = false;
             LOGGER.info("Client disconnected: " + getDisplayInfo() + " - " + reason);
         }
     }
 
-    private void cleanup() {
-        try {
-            isConnected = false;
+    protected void cleanup() {
+        isConnected = false;
+        if (uploadStream != null) {
+            abortUpload(null);
+        }
+        suspendResumableUpload();
 
-            // Remove from server
-            if (user != null) {
-                server.removeClient(user.getUserId());
+        // Remove from server
+        if (user != null) {
+            server.removeClient(user.getUserId());
+            if (server.getReadReceipts() != null) {
+                server.getReadReceipts().unload(user.getUserId());
             }
+        }
 
+        closeTransport();
+    }
+
+    /**
+     * Release the underlying connection resources
+     */
+    protected void closeTransport() {
+        // Best effort to deliver what is still queued (e.g. the disconnect reason)
+        if (output != null && !outboundQueue.isEmpty()) {
+            try {
+                if (writeLock.tryLock(1, TimeUnit.SECONDS)) {
+                    try {
+                        writePending();
+                    } finally {
+                        writeLock.unlock();
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not flush pending messages for " + getDisplayInfo(), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        outboundQueue.clear();
+
+        try {
             // Close streams
             if (reader != null)
                 reader.close();
-            if (writer != null)
-                writer.close();
-            if (dataInputStream != null)
-                dataInputStream.close();
-            if (dataOutputStream != null)
-                dataOutputStream.close();
+            if (output != null)
+                output.close();
             if (clientSocket != null)
                 clientSocket.close();
 
@@ -390,7 +1360,7 @@ public class ClientHandler implements Runnable {
         return password + "_hashed";
     }
 
-    private String formatFileSize(long bytes) {
+    protected String formatFileSize(long bytes) {
         if (bytes < 1024)
             return bytes + " B";
         if (bytes < 1024 * 1024)
@@ -402,10 +1372,9 @@ public class ClientHandler implements Runnable {
 
     public String getDisplayInfo() {
         if (user != null) {
-            return user.getDisplayName() + " (@" + user.getUsername() + ") from " +
-                    clientSocket.getInetAddress().getHostAddress();
+            return user.getDisplayName() + " (@" + user.getUsername() + ") from " + remoteAddress;
         }
-        return "Anonymous from " + clientSocket.getInetAddress().getHostAddress();
+        return "Anonymous from " + remoteAddress;
     }
 
     // Getters
@@ -416,4 +1385,52 @@ public class ClientHandler implements Runnable {
     public boolean isConnected() {
         return isConnected;
     }
+
+    /**
+     * Socket input that adds what it reads to BYTES_RECEIVED
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                BYTES_RECEIVED.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            int read = in.read(target, offset, length);
+            if (read > 0) {
+                BYTES_RECEIVED.add(read);
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Socket output that adds what it writes to BYTES_SENT
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            BYTES_SENT.increment();
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            BYTES_SENT.add(length);
+        }
+    }
 }
@@ -0,0 +1,648 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded JDBC connection pool used by DatabaseManager
+ * Borrowed connections are proxies: close() returns the physical connection to the pool after
+ * rolling back any uncommitted work. Idle connections are kept LIFO so hot connections stay warm,
+ * validated after sitting idle, evicted past idle_timeout, and when a leak threshold is set, borrows
+ * held longer than it are logged together with the stack that borrowed them.
+ * Each physical connection also keeps an LRU cache of its prepared statements: preparing SQL the
+ * connection has seen before, with the same generated-keys flag or key column names, hands back
+ * the statement it already parsed, and closing it only clears its parameters and restores its
+ * fetch size, row limits and query timeout. A statement still open when the same SQL is prepared
+ * again (nested use) gets a plain, uncached statement instead.
+ * Executions of cached statements are timed into the connecthub_dao_call_seconds histogram,
+ * labelled with the DAO method that prepared the SQL; the caller is looked up with a StackWalker
+ * once per SQL string, not per call. Uncached statements are not timed.
+ */
+public class ConnectionPool {
+    private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+    private static final long VALIDATION_INTERVAL_MS = 5_000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long HOUSEKEEPING_INTERVAL_MS = 30_000;
+    private static final int MAX_TIMED_STATEMENTS = 1000;
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance();
+
+    private final String url;
+    private final Properties connectionProps;
+    private final int minConnections;
+    private final int maxConnections;
+    private final long connectionTimeoutMs;
+    private final long idleTimeoutMs;
+    private final long leakThresholdMs;
+    private final boolean autoCommit;
+    private final int statementCacheSize;
+
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final Semaphore permits;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    // Metrics
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong statementHitCount = new AtomicLong();
+    private final AtomicLong statementMissCount = new AtomicLong();
+    private final Map<String, LatencyHistogram> callTimers = new ConcurrentHashMap<>();
+
+    public ConnectionPool(String url, Properties connectionProps, int minConnections, int maxConnections,
+            long connectionTimeoutMs, long idleTimeoutMs, long leakThresholdMs, boolean autoCommit,
+            int statementCacheSize) {
+        this.url = url;
+        this.connectionProps = connectionProps;
+        this.maxConnections = Math.max(1, maxConnections);
+        this.minConnections = Math.max(0, Math.min(minConnections, this.maxConnections));
+        this.connectionTimeoutMs = connectionTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.leakThresholdMs = leakThresholdMs;
+        this.autoCommit = autoCommit;
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.permits = new Semaphore(this.maxConnections, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "db-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        fillToMinimum();
+        housekeeper.scheduleWithFixedDelay(this::housekeep, HOUSEKEEPING_INTERVAL_MS,
+                HOUSEKEEPING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connection, waiting up to connection_timeout for one to become free.
+     * Callers must close() it (try-with-resources) to hand it back.
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long waitStart = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(connectionTimeoutMs, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new PoolTimeoutException("Timed out after " + connectionTimeoutMs
+                        + "ms waiting for a database connection (" + describe() + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        totalWaitNanos.addAndGet(System.nanoTime() - waitStart);
+
+        try {
+            PooledConnection pooled = takeIdleOrCreate();
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrowSite = leakThresholdMs > 0 ? new Exception("Connection borrowed here") : null;
+            pooled.leakReported = false;
+            pooled.dirty = false;
+            borrowed.add(pooled);
+            borrowCount.incrementAndGet();
+            return pooled.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeIdleOrCreate() throws SQLException {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - pooled.lastUsed < VALIDATION_INTERVAL_MS || isValid(pooled)) {
+                return pooled;
+            }
+            discard(pooled, "failed validation");
+        }
+        return createConnection();
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return pooled.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection createConnection() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, connectionProps);
+        physical.setAutoCommit(autoCommit);
+        totalConnections.incrementAndGet();
+        createdCount.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    /**
+     * Called by a handle's close(); resets the connection and makes it available again
+     */
+    private void release(PooledConnection pooled) {
+        borrowed.remove(pooled);
+        try {
+            pooled.reclaimStatements();
+            if (closed) {
+                discard(pooled, "pool closed");
+                return;
+            }
+            try {
+                if (!pooled.physical.getAutoCommit()) {
+                    if (pooled.dirty) {
+                        pooled.physical.rollback();
+                    }
+                    if (autoCommit) {
+                        pooled.physical.setAutoCommit(true);
+                    }
+                } else if (!autoCommit) {
+                    pooled.physical.setAutoCommit(false);
+                }
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+            } catch (SQLException e) {
+                LOGGER.log(Level.WARNING, "Discarding connection that failed to reset", e);
+                discard(pooled, "reset failure");
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooled, String reason) {
+        totalConnections.decrementAndGet();
+        pooled.statements.clear(); // closed along with the physical connection
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            LOGGER.log(Level.FINE, "Error closing pooled connection", e);
+        }
+        LOGGER.fine("Closed pooled connection: " + reason);
+    }
+
+    private void housekeep() {
+        try {
+            evictIdle();
+            fillToMinimum();
+            detectLeaks();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Connection pool housekeeping failed", e);
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        // Least recently used connections sit at the tail of the deque
+        PooledConnection oldest;
+        while (totalConnections.get() > minConnections && (oldest = idle.pollLast()) != null) {
+            if (now - oldest.lastUsed < idleTimeoutMs) {
+                idle.offerLast(oldest);
+                return;
+            }
+            evictedCount.incrementAndGet();
+            discard(oldest, "idle timeout");
+        }
+    }
+
+    private void fillToMinimum() {
+        while (!closed && totalConnections.get() < minConnections) {
+            try {
+                PooledConnection pooled = createConnection();
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerLast(pooled);
+            } catch (SQLException e) {
+                LOGGER.log(Level.WARNING, "Could not open minimum pool connections: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void detectLeaks() {
+        if (leakThresholdMs <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : borrowed) {
+            if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdMs) {
+                pooled.leakReported = true;
+                leakCount.incrementAndGet();
+                LOGGER.log(Level.WARNING, "Possible connection leak: borrowed " + (now - pooled.borrowedAt)
+                        + "ms ago and not returned", pooled.borrowSite);
+            }
+        }
+    }
+
+    /**
+     * Close every idle connection, e.g. ones opened before a database outage; later borrows open
+     * fresh connections instead of failing on stale ones
+     */
+    public void discardIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            evictedCount.incrementAndGet();
+            discard(pooled, "discarded after outage");
+        }
+    }
+
+    /**
+     * Close idle connections now; borrowed ones are closed as they are returned
+     */
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled, "pool closed");
+        }
+        LOGGER.info("Connection pool closed");
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // Metrics
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    public int getActiveConnections() {
+        return borrowed.size();
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    public int getWaitingThreads() {
+        return permits.getQueueLength();
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    public long getStatementHitCount() {
+        return statementHitCount.get();
+    }
+
+    public long getStatementMissCount() {
+        return statementMissCount.get();
+    }
+
+    public String describe() {
+        long borrows = borrowCount.get();
+        double avgWaitMs = borrows > 0 ? totalWaitNanos.get() / 1_000_000.0 / borrows : 0;
+        return String.format("active=%d, idle=%d, total=%d/%d, waiting=%d, borrows=%d, avgWait=%.2fms, "
+                + "timeouts=%d, created=%d, evicted=%d, leaks=%d, stmtHits=%d, stmtMisses=%d",
+                getActiveConnections(), getIdleConnections(), getTotalConnections(), maxConnections,
+                getWaitingThreads(), borrows, avgWaitMs, timeoutCount.get(), createdCount.get(),
+                evictedCount.get(), leakCount.get(), statementHitCount.get(), statementMissCount.get());
+    }
+
+    /**
+     * A physical connection owned by the pool. Each borrow gets a fresh proxy handle so a
+     * stale reference kept after close() cannot touch the connection while someone else holds it.
+     * Only the borrowing thread touches the statement cache.
+     */
+    private final class PooledConnection {
+        private final Connection physical;
+        private final Map<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= statementCacheSize) {
+                    return false;
+                }
+                CachedStatement evicted = eldest.getValue();
+                evicted.evicted = true;
+                if (evicted.owner == null) {
+                    evicted.closePhysical();
+                }
+                return true;
+            }
+        };
+        private volatile long lastUsed;
+        private volatile long borrowedAt;
+        private volatile Exception borrowSite;
+        private volatile boolean leakReported;
+        private volatile boolean dirty;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Handle(this));
+        }
+
+        /**
+         * prepareStatement(sql), prepareStatement(sql, autoGeneratedKeys) or
+         * prepareStatement(sql, columnNames) through the cache
+         */
+        PreparedStatement prepareCached(Connection handle, Object[] args) throws SQLException {
+            String sql = (String) args[0];
+            String key = cacheKey(sql, args);
+            CachedStatement cached = statements.get(key);
+            if (cached != null && cached.evicted) {
+                cached = null; // failed to reset; replaced below
+            }
+            if (cached != null && cached.owner != null) {
+                statementMissCount.incrementAndGet();
+                return preparePhysical(sql, args);
+            }
+            if (cached != null) {
+                statementHitCount.incrementAndGet();
+            } else {
+                statementMissCount.incrementAndGet();
+                cached = new CachedStatement(preparePhysical(sql, args), callTimer(sql));
+                statements.put(key, cached);
+            }
+            StatementHandle owner = new StatementHandle(cached, handle);
+            cached.owner = owner;
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, owner);
+        }
+
+        private PreparedStatement preparePhysical(String sql, Object[] args) throws SQLException {
+            if (args.length == 1) {
+                return physical.prepareStatement(sql);
+            }
+            return args[1] instanceof String[] ? physical.prepareStatement(sql, (String[]) args[1])
+                    : physical.prepareStatement(sql, (Integer) args[1]);
+        }
+
+        /**
+         * Take back statements a borrower left open, so the next borrower finds them free
+         */
+        void reclaimStatements() {
+            Iterator<CachedStatement> iterator = statements.values().iterator();
+            while (iterator.hasNext()) {
+                CachedStatement cached = iterator.next();
+                if (cached.owner != null && !cached.checkIn()) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * The SQL plus whatever else shapes the prepared statement: the generated-keys flag or the
+     * key column names
+     */
+    private static String cacheKey(String sql, Object[] args) {
+        if (args.length == 1) {
+            return sql;
+        }
+        if (args[1] instanceof String[]) {
+            return String.join(",", (String[]) args[1]) + ";" + sql;
+        }
+        return args[1] + ":" + sql;
+    }
+
+    /**
+     * Histogram for executions of this SQL, shared by every connection that caches it. Past
+     * MAX_TIMED_STATEMENTS distinct strings (dynamically built SQL) everything lands in "other".
+     */
+    private LatencyHistogram callTimer(String sql) {
+        LatencyHistogram timer = callTimers.get(sql);
+        if (timer != null) {
+            return timer;
+        }
+        String method = callTimers.size() < MAX_TIMED_STATEMENTS ? callerOf() : "other";
+        timer = MetricsRegistry.getInstance().histogram("connecthub_dao_call_seconds",
+                "Time to execute a prepared statement, by calling DAO method", "method", method);
+        LatencyHistogram existing = method.equals("other") ? null : callTimers.putIfAbsent(sql, timer);
+        return existing != null ? existing : timer;
+    }
+
+    /**
+     * "Class.method" of the first frame outside the pool and the JDK, e.g. "UserDAO.findById"
+     */
+    private static String callerOf() {
+        return STACK_WALKER.walk(frames -> frames
+                .filter(frame -> {
+                    String className = frame.getClassName();
+                    return !className.startsWith(ConnectionPool.class.getName()) && !className.startsWith("java.")
+                            && !className.startsWith("jdk.") && !className.startsWith("com.sun.");
+                })
+                .findFirst()
+                .map(frame -> {
+                    String className = frame.getClassName();
+                    return className.substring(className.lastIndexOf('.') + 1) + "." + frame.getMethodName();
+                })
+                .orElse("other"));
+    }
+
+    /**
+     * No connection became free within connection_timeout. The pool is saturated, which says
+     * nothing about whether the database itself is reachable.
+     */
+    public static final class PoolTimeoutException extends SQLTimeoutException {
+        private static final long serialVersionUID = 1L;
+
+        PoolTimeoutException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A prepared statement kept open on its connection, handed to at most one owner at a time
+     */
+    private static final class CachedStatement {
+        private final PreparedStatement statement;
+        private final LatencyHistogram callTimer;
+        // Settings as prepared, restored on check-in so one caller's limits never reach the next
+        private final int fetchSize;
+        private final int maxRows;
+        private final int maxFieldSize;
+        private final int queryTimeout;
+        private StatementHandle owner;
+        private boolean evicted;
+
+        CachedStatement(PreparedStatement statement, LatencyHistogram callTimer) throws SQLException {
+            this.statement = statement;
+            this.callTimer = callTimer;
+            this.fetchSize = statement.getFetchSize();
+            this.maxRows = statement.getMaxRows();
+            this.maxFieldSize = statement.getMaxFieldSize();
+            this.queryTimeout = statement.getQueryTimeout();
+        }
+
+        /**
+         * Reset parameters, batch and settings for the next owner; a statement that cannot be
+         * reset, or was evicted while in use, is closed instead
+         *
+         * @return whether the statement is still usable
+         */
+        boolean checkIn() {
+            owner = null;
+            if (!evicted) {
+                try {
+                    statement.clearParameters();
+                    statement.clearBatch();
+                    statement.setFetchSize(fetchSize);
+                    statement.setMaxRows(maxRows);
+                    statement.setMaxFieldSize(maxFieldSize);
+                    statement.setQueryTimeout(queryTimeout);
+                    return true;
+                } catch (SQLException e) {
+                    LOGGER.log(Level.FINE, "Closing cached statement that failed to reset", e);
+                }
+            }
+            closePhysical();
+            evicted = true;
+            return false;
+        }
+
+        void closePhysical() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Error closing cached statement", e);
+            }
+        }
+    }
+
+    private final class StatementHandle implements InvocationHandler {
+        private final CachedStatement cached;
+        private final Connection connection;
+
+        StatementHandle(CachedStatement cached, Connection connection) {
+            this.cached = cached;
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            boolean open = cached.owner == this;
+            switch (method.getName()) {
+                case "close":
+                    if (open) {
+                        cached.checkIn();
+                    }
+                    return null;
+                case "isClosed":
+                    return !open;
+                case "getConnection":
+                    return connection;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + cached.statement + "]";
+                default:
+                    break;
+            }
+
+            if (!open) {
+                throw new SQLException("Statement is closed");
+            }
+            long start = method.getName().startsWith("execute") ? System.nanoTime() : 0;
+            try {
+                return method.invoke(cached.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                if (start != 0) {
+                    cached.callTimer.recordSince(start);
+                }
+            }
+        }
+    }
+
+    private final class Handle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean returned;
+
+        Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.physical + "]";
+                default:
+                    break;
+            }
+
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            if ("commit".equals(name) || "rollback".equals(name)) {
+                pooled.dirty = false;
+            } else if (name.startsWith("prepare") || name.startsWith("create")) {
+                pooled.dirty = true;
+                if (statementCacheSize > 0 && "prepareStatement".equals(name) && isCacheable(method)) {
+                    return pooled.prepareCached((Connection) proxy, args);
+                }
+            }
+
+            try {
+                return method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private boolean isCacheable(Method method) {
+            Class<?>[] parameters = method.getParameterTypes();
+            return parameters.length == 1
+                    || (parameters.length == 2 && (parameters[1] == int.class || parameters[1] == String[].class));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.sql.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Data Access Object for private conversations
+ * A conversation is the canonical (user_low, user_high) pair of its two participants; private
+ * messages reference it through messages.conversation_id so a DM thread is one index range.
+ * Conversation ids never change, so resolved ids are kept for the life of the process.
+ */
+public class ConversationDAO {
+    private static final Logger LOGGER = Logger.getLogger(ConversationDAO.class.getName());
+    private final DatabaseManager dbManager;
+    private final Map<Long, Integer> idsByPair = new ConcurrentHashMap<>();
+
+    public ConversationDAO() {
+        this.dbManager = DatabaseManager.getInstance();
+    }
+
+    /**
+     * In-memory key of the conversation between two users, independent of direction
+     */
+    public static long conversationKey(int user1Id, int user2Id) {
+        return ((long) Math.min(user1Id, user2Id) << 32) | (Math.max(user1Id, user2Id) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Conversation id of two users, creating the conversation on first use
+     */
+    public int getOrCreateConversationId(int user1Id, int user2Id) throws SQLException {
+        long key = conversationKey(user1Id, user2Id);
+        Integer cached = idsByPair.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        // DO UPDATE (a no-op) instead of DO NOTHING so RETURNING also yields an existing row
+        String sql = "INSERT INTO conversations (user_low, user_high) VALUES (?, ?) " +
+                "ON CONFLICT (user_low, user_high) DO UPDATE SET user_low = EXCLUDED.user_low " +
+                "RETURNING conversation_id";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, Math.min(user1Id, user2Id));
+            stmt.setInt(2, Math.max(user1Id, user2Id));
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                int conversationId = rs.getInt(1);
+                dbManager.commit(conn);
+                idsByPair.put(key, conversationId);
+                return conversationId;
+            }
+        }
+    }
+
+    /**
+     * Conversation id of two users, or 0 if they never exchanged a message
+     */
+    public int findConversationId(int user1Id, int user2Id) {
+        long key = conversationKey(user1Id, user2Id);
+        Integer cached = idsByPair.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        String sql = "SELECT conversation_id FROM conversations WHERE user_low = ? AND user_high = ?";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, Math.min(user1Id, user2Id));
+            stmt.setInt(2, Math.max(user1Id, user2Id));
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    int conversationId = rs.getInt(1);
+                    idsByPair.put(key, conversationId);
+                    return conversationId;
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error finding conversation between users: " + user1Id + " and " + user2Id, e);
+        }
+        return 0;
+    }
+}
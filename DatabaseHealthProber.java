@@ -0,0 +1,256 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps DatabaseManager's up/down state current from a background thread, so hot paths read a
+ * volatile flag instead of paying a round trip to ask whether the database is there
+ * The prober holds one connection of its own, outside the pool (a saturated pool is not an
+ * outage), and checks it with Connection.isValid() every interval_ms. failure_threshold failed
+ * probes in a row mark the database down; a connection error a DAO reports marks it down at once.
+ * While down, the prober reconnects with exponential backoff from backoff_initial_ms up to
+ * backoff_max_ms, and success_threshold good probes in a row mark it up again, at which point the
+ * pool drops idle connections opened before the outage. Only transitions are logged; they are
+ * counted in connecthub_db_health_transitions_total{to=up|down}, and every probe is timed into
+ * connecthub_db_probe_seconds.
+ */
+public class DatabaseHealthProber {
+    private static final Logger LOGGER = Logger.getLogger(DatabaseHealthProber.class.getName());
+    private static final MetricsRegistry METRICS = MetricsRegistry.getInstance();
+    private static final MetricsRegistry.Counter TRANSITIONS_UP = METRICS.counter(
+            "connecthub_db_health_transitions_total", "Database health state changes", "to", "up");
+    private static final MetricsRegistry.Counter TRANSITIONS_DOWN = METRICS.counter(
+            "connecthub_db_health_transitions_total", "Database health state changes", "to", "down");
+    private static final MetricsRegistry.Counter PROBE_FAILURES = METRICS.counter(
+            "connecthub_db_probe_failures_total", "Database health probes that failed");
+    private static final LatencyHistogram PROBE_TIME = METRICS.histogram(
+            "connecthub_db_probe_seconds", "Database health probe round trip, including reconnects");
+
+    private final String jdbcUrl;
+    private final Properties probeProps;
+    private final ConnectionPool pool;
+    private final long intervalMs;
+    private final int timeoutSeconds;
+    private final int failureThreshold;
+    private final int successThreshold;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+
+    private final AtomicBoolean healthy = new AtomicBoolean();
+    private volatile long stateSince = System.currentTimeMillis();
+    private volatile long backoffMs;
+    private volatile boolean rescheduled;
+    private volatile boolean running;
+    private volatile String lastError = "";
+    private Thread proberThread;
+
+    // Probe state, guarded by probeLock (a probe may also run on a caller's thread)
+    private final ReentrantLock probeLock = new ReentrantLock();
+    private Connection connection;
+    private int consecutiveFailures;
+    private int consecutiveSuccesses;
+
+    // Metrics
+    private final AtomicLong probeCount = new AtomicLong();
+    private final AtomicLong connectCount = new AtomicLong();
+
+    public DatabaseHealthProber(String jdbcUrl, Properties connectionProps, ConnectionPool pool, long intervalMs,
+            int timeoutSeconds, int failureThreshold, int successThreshold, long initialBackoffMs, long maxBackoffMs) {
+        this.jdbcUrl = jdbcUrl;
+        this.pool = pool;
+        this.intervalMs = Math.max(100, intervalMs);
+        this.timeoutSeconds = Math.max(1, timeoutSeconds);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.successThreshold = Math.max(1, successThreshold);
+        this.initialBackoffMs = Math.max(100, initialBackoffMs);
+        this.maxBackoffMs = Math.max(this.initialBackoffMs, maxBackoffMs);
+        this.backoffMs = this.initialBackoffMs;
+
+        // A probe must give up well before the next one is due, whatever the pool waits for
+        probeProps = new Properties();
+        probeProps.putAll(connectionProps);
+        probeProps.setProperty("connectTimeout", String.valueOf(this.timeoutSeconds));
+        probeProps.setProperty("socketTimeout", String.valueOf(this.timeoutSeconds));
+        probeProps.setProperty("ApplicationName", "connecthub-health-probe");
+    }
+
+    /**
+     * Probe once on the calling thread to learn the initial state, then keep probing in the background
+     *
+     * @return whether the database answered
+     */
+    public boolean start() {
+        probeLock.lock();
+        try {
+            boolean reachable = probeConnection();
+            healthy.set(reachable);
+            stateSince = System.currentTimeMillis();
+            if (!reachable) {
+                PROBE_FAILURES.increment();
+            }
+        } finally {
+            probeLock.unlock();
+        }
+        running = true;
+        proberThread = new Thread(this::runProber, "db-health-prober");
+        proberThread.setDaemon(true);
+        proberThread.start();
+        return healthy.get();
+    }
+
+    private void runProber() {
+        while (running) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(nextDelayMs());
+            long remaining;
+            while (running && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+                if (rescheduled) {
+                    // markDown() restarted the backoff; wait from now
+                    rescheduled = false;
+                    deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(nextDelayMs());
+                }
+            }
+            if (running) {
+                probe();
+            }
+        }
+        probeLock.lock();
+        try {
+            closeConnection();
+        } finally {
+            probeLock.unlock();
+        }
+    }
+
+    /**
+     * Up: the regular interval, sooner while a failure waits to be confirmed. Down: the backoff.
+     */
+    private long nextDelayMs() {
+        if (!healthy.get()) {
+            return backoffMs;
+        }
+        return consecutiveFailures > 0 ? Math.min(intervalMs, initialBackoffMs) : intervalMs;
+    }
+
+    /**
+     * Probe now and update the state; blocks for at most the probe timeout (twice when reconnecting)
+     */
+    public boolean probe() {
+        probeLock.lock();
+        try {
+            long start = System.nanoTime();
+            boolean reachable = probeConnection();
+            PROBE_TIME.recordSince(start);
+            if (reachable) {
+                consecutiveFailures = 0;
+                backoffMs = initialBackoffMs;
+                if (!healthy.get() && ++consecutiveSuccesses >= successThreshold) {
+                    consecutiveSuccesses = 0;
+                    markUp();
+                }
+            } else {
+                PROBE_FAILURES.increment();
+                consecutiveSuccesses = 0;
+                if (healthy.get()) {
+                    if (++consecutiveFailures >= failureThreshold) {
+                        consecutiveFailures = 0;
+                        markDown(lastError);
+                    }
+                } else {
+                    backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
+                }
+            }
+            return reachable;
+        } finally {
+            probeLock.unlock();
+        }
+    }
+
+    private boolean probeConnection() {
+        probeCount.incrementAndGet();
+        try {
+            if (connection == null) {
+                connectCount.incrementAndGet();
+                connection = DriverManager.getConnection(jdbcUrl, probeProps);
+            }
+            if (connection.isValid(timeoutSeconds)) {
+                return true;
+            }
+            lastError = "connection no longer valid";
+        } catch (SQLException e) {
+            lastError = e.getMessage();
+        }
+        closeConnection();
+        return false;
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Error closing health probe connection", e);
+            }
+            connection = null;
+        }
+    }
+
+    private void markUp() {
+        if (healthy.compareAndSet(false, true)) {
+            long downFor = System.currentTimeMillis() - stateSince;
+            stateSince = System.currentTimeMillis();
+            TRANSITIONS_UP.increment();
+            LOGGER.info("Database is reachable again after " + downFor / 1000 + "s");
+            if (pool != null) {
+                pool.discardIdle();
+            }
+        }
+    }
+
+    /**
+     * Mark the database down without waiting for a probe, e.g. when a statement lost its
+     * connection; the prober starts its reconnect backoff from the beginning. Never blocks.
+     */
+    public void markDown(String reason) {
+        if (healthy.compareAndSet(true, false)) {
+            stateSince = System.currentTimeMillis();
+            backoffMs = initialBackoffMs;
+            TRANSITIONS_DOWN.increment();
+            LOGGER.severe("Database is unreachable (" + reason + "), switching to offline mode");
+            Thread thread = proberThread;
+            if (thread != null && thread != Thread.currentThread()) {
+                rescheduled = true;
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    public boolean isHealthy() {
+        return healthy.get();
+    }
+
+    public void stop() {
+        running = false;
+        Thread thread = proberThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public String describe() {
+        long seconds = (System.currentTimeMillis() - stateSince) / 1000;
+        boolean up = healthy.get();
+        return String.format("%s for %ds, probes=%d, failures=%d, connects=%d, transitions=%d up/%d down%s",
+                up ? "up" : "down", seconds, probeCount.get(), PROBE_FAILURES.get(), connectCount.get(),
+                TRANSITIONS_UP.get(), TRANSITIONS_DOWN.get(),
+                up ? "" : ", next attempt in " + backoffMs + "ms, last error: " + lastError);
+    }
+}
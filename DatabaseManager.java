@@ -3,6 +3,7 @@ import java.util.Properties;
 import java.io.InputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -12,8 +13,13 @@ import java.util.logging.Level;
  */
 public class DatabaseManager {
     private static final Logger LOGGER = Logger.getLogger(DatabaseManager.class.getName());
-    private static DatabaseManager instance;
-    private Connection connection;
+    // Locks instead of synchronized so virtual threads blocked on JDBC I/O release their carrier
+    private static final ReentrantLock INSTANCE_LOCK = new ReentrantLock();
+    private static volatile DatabaseManager instance;
+    private ConnectionPool pool;
+    private DatabaseHealthProber healthProber;
+    private String jdbcUrl;
+    private Properties connectionProps;
     private Properties dbProperties;
 
     // Database configuration
@@ -25,14 +31,24 @@ public class DatabaseManager {
 
     private DatabaseManager() {
         loadConfiguration();
-        initializeConnection();
+        initializePool();
     }
 
-    public static synchronized DatabaseManager getInstance() {
-        if (instance == null) {
-            instance = new DatabaseManager();
+    public static DatabaseManager getInstance() {
+        DatabaseManager current = instance;
+        if (current == null) {
+            INSTANCE_LOCK.lock();
+            try {
+                current = instance;
+                if (current == null) {
+                    current = new DatabaseManager();
+                    instance = current;
+                }
+            } finally {
+                INSTANCE_LOCK.unlock();
+            }
         }
-        return instance;
+        return current;
     }
 
     private void loadConfiguration() {
@@ -115,27 +131,43 @@ public class DatabaseManager {
         password = "connecthub_pass";
     }
 
-    private void initializeConnection() {
+    private void initializePool() {
         try {
             // Load PostgreSQL JDBC driver
             Class.forName("org.postgresql.Driver");
 
             String url = String.format("jdbc:postgresql://%s:%d/%s", host, port, database);
 
-            Properties connectionProps = new Properties();
+            connectionProps = new Properties();
             connectionProps.setProperty("user", username);
             connectionProps.setProperty("password", password);
             connectionProps.setProperty("ssl", "false");
             connectionProps.setProperty("autoReconnect", "true");
             connectionProps.setProperty("characterEncoding", "UTF-8");
-
-            connection = DriverManager.getConnection(url, connectionProps);
-            connection.setAutoCommit(false); // Enable transaction management
-
-            LOGGER.info("Database connection established successfully");
-
-            // Test the connection
-            if (testConnection()) {
+            // Lets the driver turn batched message inserts into multi-row INSERT statements
+            connectionProps.setProperty("reWriteBatchedInserts", "true");
+
+            jdbcUrl = url;
+            ServerConfig config = ServerConfig.getInstance();
+            pool = new ConnectionPool(url, connectionProps,
+                    config.getInt("db.pool.min_connections", 1),
+                    config.getInt("db.pool.max_connections", 10),
+                    config.getLong("db.pool.connection_timeout", 30000),
+                    config.getLong("db.pool.idle_timeout", 600000),
+                    config.getLong("db.pool.leak_detection_threshold", 0),
+                    config.getBoolean("db.auto_commit", true),
+                    config.getInt("db.pool.statement_cache_size", 64));
+
+            LOGGER.info("Database connection pool initialized: " + pool.describe());
+
+            healthProber = new DatabaseHealthProber(url, connectionProps, pool,
+                    config.getLong("db.health.interval_ms", 5000),
+                    config.getInt("db.health.timeout_seconds", 2),
+                    config.getInt("db.health.failure_threshold", 2),
+                    config.getInt("db.health.success_threshold", 1),
+                    config.getLong("db.health.backoff_initial_ms", 500),
+                    config.getLong("db.health.backoff_max_ms", 30000));
+            if (healthProber.start()) {
                 LOGGER.info("Database connection test passed");
             } else {
                 LOGGER.warning("Database connection test failed");
@@ -143,28 +175,46 @@ public class DatabaseManager {
 
         } catch (ClassNotFoundException e) {
             LOGGER.log(Level.SEVERE, "PostgreSQL JDBC driver not found. Please add postgresql.jar to classpath", e);
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE,
-                    "Failed to establish database connection. Check if PostgreSQL is running and credentials are correct",
-                    e);
         }
     }
 
-    public Connection getConnection() {
-        try {
-            if (connection == null || connection.isClosed()) {
-                LOGGER.info("Reconnecting to database...");
-                initializeConnection();
-            }
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Error checking connection status", e);
+    /**
+     * Borrow a pooled connection. Always close it (try-with-resources) to return it to the pool;
+     * uncommitted work is rolled back on return.
+     */
+    public Connection getConnection() throws SQLException {
+        if (pool == null) {
+            throw new SQLException("Database connection pool is not available");
+        }
+        return pool.borrow();
+    }
+
+    /**
+     * Open a connection outside the pool for a long-lived session such as LISTEN; the caller
+     * owns it and must close it
+     */
+    public Connection openDedicatedConnection() throws SQLException {
+        if (jdbcUrl == null) {
+            throw new SQLException("Database is not configured");
+        }
+        Connection conn = DriverManager.getConnection(jdbcUrl, connectionProps);
+        conn.setAutoCommit(true);
+        return conn;
+    }
+
+    /**
+     * Commit work done on a borrowed connection when it is not in auto-commit mode
+     */
+    public void commit(Connection conn) throws SQLException {
+        if (!conn.getAutoCommit()) {
+            conn.commit();
         }
-        return connection;
     }
 
     public boolean testConnection() {
-        try (PreparedStatement stmt = connection.prepareStatement("SELECT 1")) {
-            ResultSet rs = stmt.executeQuery();
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement("SELECT 1");
+                ResultSet rs = stmt.executeQuery()) {
             return rs.next() && rs.getInt(1) == 1;
         } catch (SQLException e) {
             LOGGER.log(Level.WARNING, "Database connection test failed", e);
@@ -172,70 +222,96 @@ public class DatabaseManager {
         }
     }
 
-    public void closeConnection() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-                LOGGER.info("Database connection closed");
-            }
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Error closing database connection", e);
+    /**
+     * Cached health state for hot paths; never touches the network. Kept current by the
+     * background DatabaseHealthProber and cleared by reportFailure() when a statement fails
+     * because the database is gone.
+     */
+    public boolean isAvailable() {
+        return healthProber != null && healthProber.isHealthy();
+    }
+
+    /**
+     * Probe the database now instead of waiting for the next background probe, and update the
+     * cached state; costs a round trip, so only for callers that must know before going on
+     */
+    public boolean checkAvailability() {
+        return healthProber != null && healthProber.probe();
+    }
+
+    /**
+     * Tell the manager a statement failed; connection errors (SQLState class 08, driver timeouts)
+     * mark the database unavailable. A pool timeout does not: a saturated pool is not an outage.
+     *
+     * @return whether the error means the database is unreachable
+     */
+    public boolean reportFailure(SQLException e) {
+        if (!isConnectionFailure(e)) {
+            return false;
+        }
+        if (healthProber != null) {
+            healthProber.markDown(e.getMessage());
         }
+        return true;
     }
 
-    // Transaction management methods
-    public synchronized void beginTransaction() {
-        try {
-            Connection conn = getConnection();
-            if (conn != null) {
-                conn.setAutoCommit(false);
-                LOGGER.fine("Transaction started");
+    static boolean isConnectionFailure(SQLException e) {
+        if (isPoolTimeout(e)) {
+            return false;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientConnectionException || cause instanceof SQLNonTransientConnectionException
+                    || cause instanceof SQLTimeoutException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                String state = ((SQLException) cause).getSQLState();
+                if (state != null && state.startsWith("08")) {
+                    return true;
+                }
             }
-        } catch (SQLException e) {
-            LOGGER.severe("Error starting transaction: " + e.getMessage());
         }
+        return false;
     }
 
-    public synchronized void commitTransaction() {
-        try {
-            Connection conn = getConnection();
-            if (conn != null) {
-                conn.commit();
-                conn.setAutoCommit(true);
-                LOGGER.fine("Transaction committed");
+    /**
+     * Whether the statement never ran because no pooled connection became free in time
+     */
+    public static boolean isPoolTimeout(SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectionPool.PoolTimeoutException) {
+                return true;
             }
-        } catch (SQLException e) {
-            LOGGER.severe("Error committing transaction: " + e.getMessage());
-            rollbackTransaction();
         }
+        return false;
     }
 
-    public synchronized void rollbackTransaction() {
-        try {
-            Connection conn = getConnection();
-            if (conn != null) {
-                conn.rollback();
-                conn.setAutoCommit(true);
-                LOGGER.fine("Transaction rolled back");
-            }
-        } catch (SQLException e) {
-            LOGGER.severe("Error rolling back transaction: " + e.getMessage());
+    public void closePool() {
+        if (healthProber != null) {
+            healthProber.stop();
         }
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
     }
 
-    // Health check method
+    public DatabaseHealthProber getHealthProber() {
+        return healthProber;
+    }
+
+    // Health check method; the prober's cached state, no round trip
     public boolean isDatabaseHealthy() {
-        try {
-            return connection != null && !connection.isClosed() && testConnection();
-        } catch (SQLException e) {
-            return false;
-        }
+        return isAvailable();
     }
 
     // Get database metadata
     public String getDatabaseInfo() {
-        try {
-            DatabaseMetaData metaData = getConnection().getMetaData();
+        try (Connection conn = getConnection()) {
+            DatabaseMetaData metaData = conn.getMetaData();
             return String.format("Database: %s %s, Driver: %s %s",
                     metaData.getDatabaseProductName(),
                     metaData.getDatabaseProductVersion(),
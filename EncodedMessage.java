@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Immutable, already serialized outbound message
+ * A broadcast is encoded once and the same instance is queued for every recipient; the byte
+ * array is never modified after construction so transports can wrap it without copying.
+ * The binary frame form is built on first use and then shared the same way.
+ */
+public final class EncodedMessage {
+    private static final Logger LOGGER = Logger.getLogger(EncodedMessage.class.getName());
+
+    private final byte[] bytes;
+    private final String fileName;
+    private final FileChannel file;
+    private final long fileLength;
+    private final boolean switchesToBinary;
+    private volatile byte[] frame;
+    private final boolean droppable;
+
+    private EncodedMessage(byte[] bytes, String fileName, FileChannel file, long fileLength,
+            boolean switchesToBinary, boolean droppable) {
+        this.bytes = bytes;
+        this.fileName = fileName;
+        this.file = file;
+        this.fileLength = fileLength;
+        this.switchesToBinary = switchesToBinary;
+        this.droppable = droppable;
+    }
+
+    /**
+     * Encode one text protocol line (UTF-8, newline terminated)
+     */
+    public static EncodedMessage of(String line) {
+        return new EncodedMessage((line + "\n").getBytes(StandardCharsets.UTF_8), null, null, 0, false, true);
+    }
+
+    /**
+     * Text that must reach the client even when it is slow, e.g. messages already marked
+     * delivered in the database; slow-consumer policies never drop it
+     */
+    public static EncodedMessage reliable(String line) {
+        return new EncodedMessage((line + "\n").getBytes(StandardCharsets.UTF_8), null, null, 0, false, false);
+    }
+
+    /**
+     * A control frame for binary connections (e.g. an upload acknowledgement). It is never
+     * dropped by slow-consumer policies since the peer waits for it.
+     */
+    public static EncodedMessage ofFrame(byte[] frame) {
+        EncodedMessage message = new EncodedMessage(frame, null, null, 0, false, false);
+        message.frame = frame;
+        return message;
+    }
+
+    /**
+     * The protocol acceptance line; it is written as text and everything after it as frames
+     */
+    public static EncodedMessage protocolSwitch(String line) {
+        return new EncodedMessage((line + "\n").getBytes(StandardCharsets.UTF_8), null, null, 0, true, false);
+    }
+
+    /**
+     * A SENDFILE header line plus 8 byte length (FILE_BEGIN frame in binary mode), followed on
+     * the wire by the file content. Used by transports that stream the file from the queue.
+     */
+    public static EncodedMessage withFile(String fileName, FileChannel file, long length) {
+        byte[] header = ("SENDFILE " + fileName + "\n").getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[header.length + Long.BYTES];
+        System.arraycopy(header, 0, bytes, 0, header.length);
+        long value = length;
+        for (int i = bytes.length - 1; i >= header.length; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return new EncodedMessage(bytes, fileName, file, length, false, false);
+    }
+
+    /**
+     * Wire form for a connection in text or binary mode
+     */
+    public byte[] bytes(boolean binary) {
+        if (!binary) {
+            return bytes;
+        }
+        byte[] encoded = frame;
+        if (encoded == null) {
+            // Concurrent first uses may both encode; the results are identical
+            encoded = file != null ? BinaryFrame.fileBegin(fileName, fileLength)
+                    : BinaryFrame.encode(BinaryFrame.TEXT, bytes, 0, bytes.length - 1);
+            frame = encoded;
+        }
+        return encoded;
+    }
+
+    public boolean switchesToBinary() {
+        return switchesToBinary;
+    }
+
+    public boolean hasFile() {
+        return file != null;
+    }
+
+    public FileChannel file() {
+        return file;
+    }
+
+    public long fileLength() {
+        return fileLength;
+    }
+
+    /**
+     * Messages carrying a file body or a control frame are never dropped or coalesced by
+     * slow-consumer policies
+     */
+    public boolean isDroppable() {
+        return droppable;
+    }
+
+    /**
+     * Release resources held by a message that will not be written
+     */
+    public void release() {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Error closing queued file", e);
+            }
+        }
+    }
+}
@@ -1,26 +1,56 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
 /**
  * Enhanced FileTalk Client with improved user interface and features
+ * Negotiates the binary frame protocol on connect and falls back to text lines when the
+ * server declines it (or with --text).
  */
 public class EnhancedClient {
     private static final String HOST = "127.0.0.1";
     private static final int PORT = 8888;
     private static final Logger LOGGER = Logger.getLogger(EnhancedClient.class.getName());
+    private static final int NEGOTIATION_TIMEOUT_MS = 5000;
+    private static final int UPLOAD_CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_UPLOAD_ROUNDS = 3;
+    private static final long ACK_TIMEOUT_SECONDS = 30;
 
     private Socket socket;
-    private BufferedReader reader;
-    private PrintWriter writer;
+    // Lines and file bytes are read through the same buffer so no bytes are lost between them
+    private LineInputStream reader;
     private DataInputStream dataInputStream;
-    private DataOutputStream dataOutputStream;
-    private boolean isConnected = false;
-    private String username;
+    private OutputStream output;
+    private volatile boolean isConnected = false;
+    private final boolean requestBinary;
+    private boolean binary;
+
+    // Download in progress (binary mode)
+    private File downloadFile;
+    private OutputStream downloadStream;
+    private long downloadSize;
+    private long downloadReceived;
+    private int downloadProgress;
+
+    // UPLOAD_ACK frames handed from the reader thread to the uploading thread: {id, offset}
+    private final BlockingQueue<long[]> uploadAcks = new LinkedBlockingQueue<>();
 
     public EnhancedClient() {
+        this(true);
+    }
+
+    public EnhancedClient(boolean requestBinary) {
+        this.requestBinary = requestBinary;
         connectToServer();
     }
 
@@ -30,13 +60,15 @@ public class EnhancedClient {
             System.out.println("🔗 Connecting to server at " + HOST + ":" + PORT + "...");
 
             socket = new Socket(HOST, PORT);
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            writer = new PrintWriter(socket.getOutputStream(), true);
-            dataInputStream = new DataInputStream(socket.getInputStream());
-            dataOutputStream = new DataOutputStream(socket.getOutputStream());
+            reader = new LineInputStream(socket.getInputStream(), 8192);
+            dataInputStream = new DataInputStream(reader);
+            output = new BufferedOutputStream(socket.getOutputStream(), 8192);
 
             isConnected = true;
             System.out.println("✅ Connected to FileTalk server!");
+            if (requestBinary) {
+                negotiateProtocol();
+            }
 
             // Start reader thread
             startReaderThread();
@@ -51,12 +83,47 @@ public class EnhancedClient {
         }
     }
 
+    /**
+     * Ask for the binary protocol before anything else is sent. Lines that arrive first (the
+     * login prompt) are displayed; a server without binary support answers in text.
+     */
+    private void negotiateProtocol() throws IOException {
+        sendLine(BinaryFrame.HELLO);
+        socket.setSoTimeout(NEGOTIATION_TIMEOUT_MS);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (BinaryFrame.ACCEPT.equals(line)) {
+                    binary = true;
+                    break;
+                }
+                if (BinaryFrame.DECLINE.equals(line) || line.startsWith("❌")) {
+                    // Older servers reject the request as a malformed login
+                    break;
+                }
+                displayMessage(line);
+            }
+        } catch (SocketTimeoutException e) {
+            LOGGER.fine("No protocol answer from server, staying on text protocol");
+        } finally {
+            socket.setSoTimeout(0);
+        }
+        System.out.println(binary ? "⚡ Using binary protocol" : "📝 Using text protocol");
+    }
+
     private void startReaderThread() {
         Thread readerThread = new Thread(() -> {
             try {
-                String message;
-                while (isConnected && (message = reader.readLine()) != null) {
-                    handleServerMessage(message);
+                if (binary) {
+                    BinaryFrame frame;
+                    while (isConnected && (frame = BinaryFrame.read(dataInputStream)) != null) {
+                        handleServerFrame(frame);
+                    }
+                } else {
+                    String message;
+                    while (isConnected && (message = reader.readLine()) != null) {
+                        handleServerMessage(message);
+                    }
                 }
             } catch (IOException e) {
                 if (isConnected) {
@@ -88,13 +155,211 @@ public class EnhancedClient {
                 }
 
                 // Send to server
-                writer.println(input);
+                send(input);
             }
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Error in writer thread", e);
         }
     }
 
+    /**
+     * Send user input: commands and login lines as COMMAND frames, everything else as CHAT
+     */
+    private void send(String input) throws IOException {
+        if (!binary) {
+            sendLine(input);
+            return;
+        }
+        byte type = input.startsWith("/") ? BinaryFrame.COMMAND : BinaryFrame.CHAT;
+        output.write(BinaryFrame.encodeText(type, input));
+        output.flush();
+    }
+
+    private void sendLine(String line) throws IOException {
+        output.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        output.flush();
+    }
+
+    private void handleServerFrame(BinaryFrame frame) throws IOException {
+        switch (frame.type()) {
+            case BinaryFrame.TEXT:
+                displayMessage(frame.text());
+                break;
+            case BinaryFrame.FILE_BEGIN:
+                startDownload(frame.fileName(), frame.fileSize());
+                break;
+            case BinaryFrame.FILE_CHUNK:
+                if (downloadStream != null) {
+                    downloadStream.write(frame.payload());
+                    downloadReceived += frame.payload().length;
+                    showDownloadProgress();
+                }
+                break;
+            case BinaryFrame.UPLOAD_ACK:
+                uploadAcks.add(new long[] { frame.transferId(), frame.offset() });
+                break;
+            case BinaryFrame.FILE_END:
+                if (downloadStream != null) {
+                    downloadStream.close();
+                    downloadStream = null;
+                    System.out.println("✅ File downloaded: " + downloadFile.getAbsolutePath());
+                }
+                break;
+            default:
+                LOGGER.fine("Ignoring unknown frame type " + frame.type());
+        }
+    }
+
+    private void startDownload(String fileName, long fileSize) throws IOException {
+        System.out.println("📥 Receiving file: " + fileName + " (" + formatFileSize(fileSize) + ")");
+        downloadFile = new File("downloads/received_" + new File(fileName).getName());
+        downloadFile.getParentFile().mkdirs();
+        downloadStream = new BufferedOutputStream(new FileOutputStream(downloadFile));
+        downloadSize = fileSize;
+        downloadReceived = 0;
+        downloadProgress = 0;
+    }
+
+    private void showDownloadProgress() {
+        if (downloadSize > 0) {
+            int progress = (int) ((downloadReceived * 100) / downloadSize);
+            if (progress >= downloadProgress + 10) {
+                System.out.println("📊 Download progress: " + progress + "%");
+                downloadProgress = progress;
+            }
+        }
+    }
+
+    /**
+     * Upload a local file: a resumable chunked upload in binary mode, SENDFILE plus raw bytes in
+     * text mode
+     */
+    private void uploadFile(String path) {
+        File file = new File(path);
+        if (!file.isFile()) {
+            System.out.println("❌ File not found: " + path);
+            return;
+        }
+        if (binary) {
+            startUpload(file, "/upload " + file.length() + " " + file.getName());
+            return;
+        }
+        try (FileInputStream fis = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            output.write(("SENDFILE " + file.getName() + "\n").getBytes(StandardCharsets.UTF_8));
+            new DataOutputStream(output).writeLong(file.length());
+
+            int bytesRead;
+            while ((bytesRead = fis.read(buffer)) != -1) {
+                output.write(buffer, 0, bytesRead);
+            }
+            output.flush();
+            System.out.println("📤 Uploaded " + file.getName() + " (" + formatFileSize(file.length()) + ")");
+        } catch (IOException e) {
+            System.err.println("❌ Error uploading file: " + e.getMessage());
+            LOGGER.log(Level.SEVERE, "Error uploading file: " + path, e);
+        }
+    }
+
+    /**
+     * Continue an interrupted upload from the offset the server acknowledged last
+     */
+    private void resumeUpload(String idArg, String path) {
+        File file = new File(path);
+        if (!binary) {
+            System.out.println("❌ Resuming uploads needs the binary protocol");
+        } else if (!file.isFile()) {
+            System.out.println("❌ File not found: " + path);
+        } else {
+            startUpload(file, "/resume " + idArg);
+        }
+    }
+
+    private void startUpload(File file, String command) {
+        uploadAcks.clear();
+        int transferId = -1;
+        try {
+            send(command);
+            long[] ack = awaitAck();
+            transferId = (int) ack[0];
+            if (ack[1] < 0) {
+                return;
+            }
+            sendChunks(file, transferId, ack[1]);
+        } catch (IOException e) {
+            System.err.println("❌ Upload interrupted: " + e.getMessage());
+            if (transferId > 0) {
+                System.err.println("💡 Reconnect and run: resume " + transferId + " " + file.getPath());
+            }
+            LOGGER.log(Level.WARNING, "Upload interrupted: " + file, e);
+        }
+    }
+
+    /**
+     * Stream CRC32C-checked chunks from the acknowledged offset. Every chunk is answered by one
+     * acknowledgement; if the last one is short of the end (a chunk failed its checksum) the
+     * remainder is sent again from there.
+     */
+    private void sendChunks(File file, int transferId, long offset) throws IOException {
+        int dataStart = BinaryFrame.HEADER_BYTES + BinaryFrame.UPLOAD_CHUNK_HEADER;
+        byte[] frame = new byte[dataStart + UPLOAD_CHUNK_SIZE];
+        CRC32C crc = new CRC32C();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (int round = 0; offset < size && round < MAX_UPLOAD_ROUNDS; round++) {
+                int sent = 0;
+                int lastProgress = (int) (offset * 100 / size);
+                for (long position = offset; position < size; sent++) {
+                    int length = (int) Math.min(UPLOAD_CHUNK_SIZE, size - position);
+                    ByteBuffer data = ByteBuffer.wrap(frame, dataStart, length);
+                    while (data.hasRemaining()) {
+                        if (channel.read(data, position + data.position() - dataStart) < 0) {
+                            throw new EOFException("File shrank during upload");
+                        }
+                    }
+                    crc.reset();
+                    crc.update(frame, dataStart, length);
+                    BinaryFrame.putUploadChunkHeader(frame, transferId, position, (int) crc.getValue(), length);
+                    output.write(frame, 0, dataStart + length);
+                    position += length;
+
+                    int progress = (int) (position * 100 / size);
+                    if (progress >= lastProgress + 10) {
+                        System.out.println("📊 Upload progress: " + progress + "%");
+                        lastProgress = progress;
+                    }
+                }
+                output.flush();
+
+                for (int i = 0; i < sent; i++) {
+                    long[] ack = awaitAck();
+                    if (ack[1] < 0) {
+                        throw new IOException("Server aborted the upload");
+                    }
+                    offset = ack[1];
+                }
+            }
+            if (offset < size) {
+                throw new IOException("Upload stopped at " + formatFileSize(offset) + " of " + formatFileSize(size));
+            }
+            System.out.println("📤 Uploaded " + file.getName() + " (" + formatFileSize(size) + ")");
+        }
+    }
+
+    private long[] awaitAck() throws IOException {
+        try {
+            long[] ack = uploadAcks.poll(ACK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (ack == null) {
+                throw new IOException("No acknowledgement from server");
+            }
+            return ack;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the server", e);
+        }
+    }
+
     private void handleServerMessage(String message) {
         if (message.startsWith("SENDFILE ")) {
             String fileName = message.substring(9).trim();
@@ -127,7 +392,20 @@ public class EnhancedClient {
             // Quick private message syntax: @username message
             String[] parts = command.substring(1).split("\\s+", 2);
             if (parts.length >= 2) {
-                writer.println("/msg " + parts[0] + " " + parts[1]);
+                try {
+                    send("/msg " + parts[0] + " " + parts[1]);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to send private message", e);
+                }
+                return true;
+            }
+        } else if (command.toLowerCase().startsWith("upload ")) {
+            uploadFile(command.substring(7).trim());
+            return true;
+        } else if (command.toLowerCase().startsWith("resume ")) {
+            String[] parts = command.substring(7).trim().split("\\s+", 2);
+            if (parts.length == 2) {
+                resumeUpload(parts[0], parts[1]);
                 return true;
             }
         } else if (command.equalsIgnoreCase("clear")) {
@@ -146,6 +424,8 @@ public class EnhancedClient {
         System.out.println("  help           - Show this help");
         System.out.println("  clear          - Clear screen");
         System.out.println("  @user message  - Quick private message");
+        System.out.println("  upload <path>  - Upload a local file to the server");
+        System.out.println("  resume <id> <path> - Continue an interrupted upload");
         System.out.println("  exit/quit      - Disconnect");
         System.out.println("\nServer Commands (send to server):");
         System.out.println("  /help          - Server help");
@@ -229,8 +509,13 @@ public class EnhancedClient {
             isConnected = false;
             System.out.println("🔌 Disconnecting from server...");
 
-            if (writer != null) {
-                writer.println("exit");
+            if (output != null) {
+                if (binary) {
+                    output.write(BinaryFrame.encodeText(BinaryFrame.COMMAND, "exit"));
+                    output.flush();
+                } else {
+                    sendLine("exit");
+                }
             }
 
             if (socket != null) {
@@ -253,8 +538,9 @@ public class EnhancedClient {
             }
         }
 
+        boolean textOnly = args.length > 0 && "--text".equals(args[0]);
         System.out.println("🚀 Starting Enhanced FileTalk Client...");
-        new EnhancedClient();
+        new EnhancedClient(!textOnly);
     }
 
     private static void printUsage() {
@@ -263,6 +549,7 @@ public class EnhancedClient {
         System.out.println();
         System.out.println("Options:");
         System.out.println("  --help, -h     Show this help message");
+        System.out.println("  --text         Use the legacy text protocol instead of binary frames");
         System.out.println();
         System.out.println("Features:");
         System.out.println("  - Multi-user chat rooms");
@@ -1,7 +1,10 @@
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import java.sql.Timestamp;
@@ -13,48 +16,319 @@ import java.sql.Timestamp;
 public class EnhancedServer {
     private static final int DEFAULT_PORT = 8888;
     private static final Logger LOGGER = Logger.getLogger(EnhancedServer.class.getName());
+    private static final MetricsRegistry METRICS = MetricsRegistry.getInstance();
+    static final MetricsRegistry.Counter CONNECTIONS_ACCEPTED = METRICS.counter(
+            "connecthub_connections_accepted_total", "Client connections accepted");
+    private static final LatencyHistogram FANOUT_TIME = METRICS.histogram("connecthub_broadcast_fanout_seconds",
+            "Time to queue one line for every recipient of a room or server broadcast");
 
     private ServerSocket serverSocket;
+    private NioServerEngine nioEngine;
     private final Map<Integer, ClientHandler> connectedClients = new ConcurrentHashMap<>();
     private final Map<String, Integer> usernameToUserId = new ConcurrentHashMap<>();
-    private final ExecutorService clientThreadPool = Executors.newCachedThreadPool();
+    // Guards connect/disconnect bookkeeping; a ReentrantLock so virtual threads do not pin on DB calls
+    private final ReentrantLock clientsLock = new ReentrantLock();
+    private final ServerConfig config = ServerConfig.getInstance();
+    private final ExecutorService clientThreadPool;
+    // Claims private messages from the bus in order, off the bus delivery thread
+    private final ExecutorService privateDelivery;
+    private final String executionMode;
+    private final int outboundQueueCapacity;
+    private final OutboundQueue.SlowConsumerPolicy slowConsumerPolicy;
+    private final boolean binaryProtocolEnabled;
+    private final int defaultRoomId;
+    private final int historyPageSize;
+    private final int joinBackfill;
+    private final int searchPageSize;
+    private final int offlineDeliveryBatch;
+    private final String nodeId;
+    private final boolean clustered;
+    private final UserDirectory directory;
+    private final long startedAt = System.currentTimeMillis();
     private volatile boolean isRunning = true;
+    private final AtomicBoolean shutdownStarted = new AtomicBoolean();
     private int port;
 
-    // Database components
+    // Storage components
+    private Storage storage;
     private DatabaseManager dbManager;
-    private UserDAO userDAO;
-    private MessageDAO messageDAO;
+    private UserStore userStore;
+    private MessageStore messageStore;
+    private FileTransferStore fileTransferStore;
+    private MessageWriteBehind messageWriter;
+    private OfflineJournal offlineJournal;
+    private JournalReplayer journalReplayer;
+    private PresenceTracker presence;
+    private MessageHistory messageHistory;
+    private MessageSearchIndex searchIndex;
+    private ReadReceiptTracker readReceipts;
+    private RoomManager roomManager;
+    private MessageBus bus;
+    private HealthCheck healthCheck;
 
     public EnhancedServer() {
         // Get port from environment variable or use default
         String portEnv = System.getenv("PORT");
         port = portEnv != null ? Integer.parseInt(portEnv) : DEFAULT_PORT;
 
+        ExecutorService virtualExecutor = null;
+        if ("virtual".equalsIgnoreCase(config.getString("server.execution_mode", "platform"))) {
+            virtualExecutor = VirtualThreads.newPerTaskExecutor();
+            if (virtualExecutor == null) {
+                LOGGER.warning("Virtual threads require Java 21+, falling back to platform threads");
+            }
+        }
+        executionMode = virtualExecutor != null ? "virtual" : "platform";
+        clientThreadPool = virtualExecutor != null ? virtualExecutor : Executors.newCachedThreadPool();
+        privateDelivery = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "private-delivery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        outboundQueueCapacity = config.getInt("server.outbound.queue_capacity", 1024);
+        slowConsumerPolicy = OutboundQueue.SlowConsumerPolicy.parse(
+                config.getString("server.outbound.slow_consumer_policy", "coalesce"));
+        binaryProtocolEnabled = config.getBoolean("server.protocol.binary_enabled", true);
+        defaultRoomId = config.getInt("chat.default_room_id", 1);
+        historyPageSize = Math.max(1, config.getInt("chat.history.page_size", 50));
+        joinBackfill = config.getInt("chat.history.join_backfill", 10);
+        searchPageSize = Math.max(1, config.getInt("chat.search.page_size", 20));
+        offlineDeliveryBatch = Math.max(1, config.getInt("chat.offline.delivery_batch", 500));
+        clustered = config.getBoolean("cluster.enabled", false);
+        nodeId = resolveNodeId(config.getString("cluster.node_id", ""));
+        directory = new UserDirectory(nodeId);
+
         initializeDatabase();
+        registerGauges();
+        int healthPort = config.getInt("server.health.port", 8081);
+        if (healthPort > 0) {
+            healthCheck = new HealthCheck(healthPort, dbManager, messageWriter);
+            healthCheck.start();
+        }
+        bus.start(this::handleBusEvent);
+        bus.publish(BusEvent.nodeStarted(nodeId));
+        // SIGTERM from the platform still flushes queued messages
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "server-shutdown"));
         startServer();
     }
 
     private void initializeDatabase() {
         try {
-            dbManager = DatabaseManager.getInstance();
-            userDAO = new UserDAO();
-            messageDAO = new MessageDAO();
+            storage = Storage.create(config, defaultRoomId);
+            dbManager = storage.getDatabaseManager();
+            bus = createMessageBus();
+            userStore = storage.getUsers();
+            messageStore = storage.getMessages();
+            fileTransferStore = storage.getTransfers();
+            if (dbManager != null) {
+                offlineJournal = OfflineJournal.open(config.getString("db.offline.journal_path", "data/offline.journal"),
+                        config.getLong("db.offline.journal_size_mb", 64) * 1024 * 1024);
+            }
+            if (offlineJournal != null) {
+                journalReplayer = new JournalReplayer(offlineJournal, dbManager, messageStore, userStore,
+                        storage.getSessions(), config.getInt("db.offline.replay_batch_size", 500));
+            }
+            messageWriter = new MessageWriteBehind(messageStore, dbManager, offlineJournal,
+                    config.getInt("chat.persistence.queue_capacity", 10000),
+                    config.getInt("chat.persistence.batch_size", 200),
+                    config.getLong("chat.persistence.linger_ms", 20),
+                    config.getLong("chat.persistence.enqueue_timeout_ms", 500));
+            messageHistory = new MessageHistory(messageStore, config.getInt("chat.history.ring_size", 200));
+            roomManager = new RoomManager(storage.getRooms(), messageHistory, defaultRoomId, bus);
+            int recentIndexSize = config.getInt("chat.search.recent_index_size", 10000);
+            searchIndex = recentIndexSize > 0 ? new MessageSearchIndex(recentIndexSize) : null;
+            presence = new PresenceTracker(storage.getSessions(), nodeId, dbManager, offlineJournal, config.getLong("chat.presence.flush_interval_ms", 1000),
+                    config.getInt("chat.presence.batch_size", 500));
+            readReceipts = new ReadReceiptTracker(storage.getReadMarkers(), messageHistory,
+                    config.getLong("chat.read.flush_interval_ms", 2000), config.getInt("chat.read.batch_size", 500));
 
-            if (dbManager.isDatabaseHealthy()) {
-                LOGGER.info("Database connection established successfully");
-                LOGGER.info(dbManager.getDatabaseInfo());
+            if (storage.isAvailable()) {
+                if (dbManager != null) {
+                    LOGGER.info("Database connection established successfully");
+                    LOGGER.info(dbManager.getDatabaseInfo());
+                }
+                presence.resetAfterRestart(clustered);
+                if (clustered) {
+                    directory.load(storage.getSessions());
+                }
+                roomManager.getRoom(defaultRoomId);
+                messageHistory.warmConversations(config.getInt("chat.history.warm_days", 7));
+                warmSearchIndex();
             } else {
-                LOGGER.severe("Database connection failed - running in offline mode");
+                LOGGER.severe("Database connection failed - running in offline mode"
+                        + (offlineJournal != null ? ", writes go to the offline journal" : ""));
             }
         } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "Failed to initialize database", e);
+            LOGGER.log(Level.SEVERE, "Failed to initialize storage", e);
+        }
+        if (bus == null) {
+            bus = new InProcessMessageBus(nodeId, "local-" + nodeId);
+        }
+    }
+
+    private void registerGauges() {
+        METRICS.gauge("connecthub_connections_active", "Authenticated clients connected to this node",
+                connectedClients::size);
+        METRICS.gauge("connecthub_outbound_queue_depth", "Messages waiting in all client outbound queues",
+                OutboundQueue::getTotalDepth);
+        if (dbManager != null) {
+            METRICS.gauge("connecthub_db_up", "1 while the health prober sees the database, else 0",
+                    () -> dbManager.isAvailable() ? 1 : 0);
+        }
+        ConnectionPool pool = dbManager != null ? dbManager.getPool() : null;
+        if (pool != null) {
+            METRICS.gauge("connecthub_db_pool_active", "Database connections borrowed", pool::getActiveConnections);
+            METRICS.gauge("connecthub_db_pool_idle", "Database connections idle in the pool", pool::getIdleConnections);
+            METRICS.gauge("connecthub_db_pool_waiting", "Threads waiting for a database connection",
+                    pool::getWaitingThreads);
+        }
+        if (offlineJournal != null) {
+            METRICS.gauge("connecthub_offline_journal_pending", "Journaled writes waiting for the database",
+                    offlineJournal::getPendingRecords);
+        }
+        if (messageWriter != null) {
+            METRICS.gauge("connecthub_write_behind_queue_depth", "Messages waiting to be written to the database",
+                    messageWriter::getQueueDepth);
+        }
+    }
+
+    /**
+     * Configured node id, else the host name, which is stable across restarts of the same replica
+     */
+    private static String resolveNodeId(String configured) {
+        if (!configured.isEmpty()) {
+            return configured;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "node-" + UUID.randomUUID().toString().substring(0, 8);
+        }
+    }
+
+    /**
+     * Bus to the other nodes; a single node gets an in-process bus nobody else is on
+     */
+    private MessageBus createMessageBus() {
+        String channel = config.getString("cluster.channel", "connecthub_bus");
+        if (!clustered) {
+            return new InProcessMessageBus(nodeId, "local-" + nodeId);
+        }
+        if ("inprocess".equalsIgnoreCase(config.getString("cluster.bus", "postgres"))) {
+            return new InProcessMessageBus(nodeId, channel);
+        }
+        if (dbManager == null) {
+            LOGGER.warning("The postgres message bus needs the postgres storage backend, using an in-process bus");
+            return new InProcessMessageBus(nodeId, channel);
+        }
+        return new PostgresMessageBus(dbManager, nodeId, channel, config.getInt("cluster.queue_capacity", 10000));
+    }
+
+    /**
+     * Apply an event published by another node. Runs on the bus thread, so it only does local
+     * work and never publishes.
+     */
+    private void handleBusEvent(BusEvent event) {
+        switch (event.getType()) {
+            case ROOM_MESSAGE: {
+                recordRoomMessage(event.toMessage());
+                // A room this node never loaded has no members connected here
+                ChatRoom room = roomManager != null ? roomManager.getLoadedRoom(event.getRoomId()) : null;
+                if (room != null) {
+                    sendToMembers(room, EncodedMessage.of(formatRoomLine(event.getRoomId(), event.getName(),
+                            event.getText(), event.getSentAt())), -1);
+                }
+                break;
+            }
+            case ROOM_NOTICE: {
+                ChatRoom room = roomManager != null ? roomManager.getLoadedRoom(event.getRoomId()) : null;
+                if (room != null) {
+                    sendToMembers(room, EncodedMessage.of(formatRoomNotice(event.getRoomId(), event.getText())), -1);
+                }
+                break;
+            }
+            case SERVER_MESSAGE:
+                sendToAll(event.getText());
+                break;
+            case PRIVATE_MESSAGE: {
+                Message message = event.toMessage();
+                recordPrivateMessage(message);
+                ClientHandler recipient = connectedClients.get(event.getUserId());
+                // Only a stored, undelivered message is ours to deliver; the claim makes sure a
+                // concurrent login elsewhere and this node never both hand it out. Once claimed it
+                // counts as delivered, so it must not be dropped by a slow-consumer policy.
+                if (recipient != null && event.getMessageId() > 0 && messageStore != null) {
+                    int messageId = event.getMessageId();
+                    String line = String.format("[%s] 💬 %s → You: %s", formatTime(event.getSentAt()),
+                            event.getName(), event.getText());
+                    privateDelivery.execute(() -> {
+                        if (messageStore.claimMessage(messageId)) {
+                            recipient.enqueue(EncodedMessage.reliable(line));
+                        }
+                    });
+                }
+                break;
+            }
+            case PRESENCE:
+                if (event.getFlag()) {
+                    directory.setOnline(event.getUserId(), event.getNodeId(), event.getName(), event.getText());
+                } else {
+                    directory.setOffline(event.getUserId(), event.getNodeId());
+                }
+                break;
+            case KICK: {
+                ClientHandler client = connectedClients.get(event.getUserId());
+                if (client != null) {
+                    client.disconnect(event.getText());
+                }
+                break;
+            }
+            case ROOM_MEMBER:
+                if (roomManager != null) {
+                    roomManager.applyRemoteMembership(event.getRoomId(), event.getUserId(), event.getFlag());
+                }
+                break;
+            case NODE_STARTED: {
+                int removed = directory.removeNode(event.getNodeId());
+                LOGGER.info("Node " + event.getNodeId() + " started" + (removed > 0 ? ", dropped " + removed
+                        + " sessions it left behind" : ""));
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Fill the recent search index with the newest messages of every room and conversation, so
+     * /search recent finds them before anyone writes again
+     */
+    private void warmSearchIndex() {
+        if (searchIndex == null) {
+            return;
+        }
+        List<Message> newestFirst = messageStore.getRecentMessages(
+                config.getInt("chat.search.recent_index_size", 10000));
+        for (int i = newestFirst.size() - 1; i >= 0; i--) {
+            searchIndex.add(newestFirst.get(i));
         }
     }
 
     private void startServer() {
+        String engine = config.getString("server.engine", "blocking");
+        if ("nio".equalsIgnoreCase(engine)) {
+            startNioServer();
+        } else {
+            startBlockingServer();
+        }
+    }
+
+    private void startBlockingServer() {
         try {
-            serverSocket = new ServerSocket(port);
+            // Opened through a channel so accepted sockets expose a SocketChannel for transferTo
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            serverSocket = serverChannel.socket();
             LOGGER.info("🚀 Enhanced FileTalk Server started on port " + port);
             LOGGER.info("📊 Max clients supported: " + Runtime.getRuntime().availableProcessors() * 10);
 
@@ -65,6 +339,7 @@ public class EnhancedServer {
             while (isRunning) {
                 try {
                     Socket clientSocket = serverSocket.accept();
+                    CONNECTIONS_ACCEPTED.increment();
                     LOGGER.info("📱 New client connection from: " + clientSocket.getInetAddress());
 
                     // Create and start client handler
@@ -84,6 +359,40 @@ public class EnhancedServer {
         }
     }
 
+    private void startNioServer() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int eventLoops = config.getInt("server.nio.event_loops", Math.max(1, cores / 2));
+        int workers = config.getInt("server.nio.worker_threads", cores * 2);
+        int bufferSize = config.getInt("server.buffer_size", 4096);
+
+        try {
+            nioEngine = new NioServerEngine(this, port, eventLoops, workers, bufferSize);
+            nioEngine.start();
+            LOGGER.info("🚀 Enhanced FileTalk Server (NIO engine) started on port " + port);
+
+            startServerConsole();
+            nioEngine.runAcceptLoop();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to start server", e);
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void stopAccepting() {
+        isRunning = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error closing server socket", e);
+        }
+        if (nioEngine != null) {
+            nioEngine.stopAccepting();
+        }
+    }
+
     private void startServerConsole() {
         Thread consoleThread = new Thread(() -> {
             try (BufferedReader console = new BufferedReader(new InputStreamReader(System.in))) {
@@ -112,6 +421,11 @@ public class EnhancedServer {
             case "status":
                 printServerStatus();
                 break;
+            case "metrics":
+                StringBuilder metrics = new StringBuilder(4096);
+                METRICS.appendPrometheus(metrics);
+                System.out.print(metrics);
+                break;
             case "clients":
                 printConnectedClients();
                 break;
@@ -132,7 +446,7 @@ public class EnhancedServer {
                 break;
             case "shutdown":
                 LOGGER.info("🛑 Server shutdown initiated by admin");
-                isRunning = false;
+                stopAccepting();
                 break;
             default:
                 System.out.println("Unknown command: " + cmd + ". Type 'help' for available commands.");
@@ -143,6 +457,7 @@ public class EnhancedServer {
         System.out.println("\n=== Server Commands ===");
         System.out.println("help      - Show this help message");
         System.out.println("status    - Show server status");
+        System.out.println("metrics   - Print all metrics in the Prometheus text format (also GET /metrics)");
         System.out.println("clients   - List connected clients");
         System.out.println("broadcast <message> - Send message to all clients");
         System.out.println("kick <username> - Disconnect a user");
@@ -153,8 +468,56 @@ public class EnhancedServer {
     private void printServerStatus() {
         System.out.println("\n=== Server Status ===");
         System.out.println("Port: " + port);
+        System.out.println("Engine: " + (nioEngine != null ? "nio" : "blocking (" + executionMode + " threads)"));
         System.out.println("Connected clients: " + connectedClients.size());
-        System.out.println("Database status: " + (dbManager.isDatabaseHealthy() ? "✅ Healthy" : "❌ Offline"));
+        if (storage != null) {
+            System.out.println("Storage: " + storage.describe());
+        }
+        if (dbManager != null) {
+            System.out.println("Database status: " + (dbManager.isDatabaseHealthy() ? "✅ Healthy" : "❌ Offline")
+                    + (dbManager.getHealthProber() != null ? " (" + dbManager.getHealthProber().describe() + ")" : ""));
+        }
+        if (dbManager != null && dbManager.getPool() != null) {
+            System.out.println("Connection pool: " + dbManager.getPool().describe());
+        }
+        if (messageWriter != null) {
+            System.out.println("Message write-behind: " + messageWriter.describe());
+        }
+        if (presence != null) {
+            System.out.println("Presence: " + presence.describe());
+        }
+        if (offlineJournal != null) {
+            System.out.println("Offline journal: " + offlineJournal.describe() + ", " + journalReplayer.describe());
+        }
+        if (messageHistory != null) {
+            System.out.println("Message history: " + messageHistory.describe());
+        }
+        if (searchIndex != null) {
+            System.out.println("Recent search index: " + searchIndex.describe());
+        }
+        if (readReceipts != null) {
+            System.out.println("Read receipts: " + readReceipts.describe());
+        }
+        if (roomManager != null) {
+            System.out.println("Rooms: " + roomManager.describe());
+        }
+        System.out.println("Cluster: " + (clustered ? "enabled" : "single node") + ", " + bus.describe());
+        System.out.println("User directory: " + directory.describe());
+        int maxClientDepth = 0;
+        for (ClientHandler client : connectedClients.values()) {
+            maxClientDepth = Math.max(maxClientDepth, client.getOutboundQueue().getMaxDepth());
+        }
+        System.out.println("Outbound queues: " + OutboundQueue.describeTotals() + ", max client depth="
+                + maxClientDepth + "/" + outboundQueueCapacity + " (" + slowConsumerPolicy + ")");
+        System.out.println("File transfers: sent " + formatThroughput(ClientHandler.FILE_BYTES_SENT.get(),
+                ClientHandler.FILE_SEND_TIME.getSumNanos()) + ", received "
+                + formatThroughput(ClientHandler.FILE_BYTES_RECEIVED.get(), ClientHandler.FILE_RECEIVE_TIME.getSumNanos()));
+        StringBuilder metrics = new StringBuilder(2048);
+        METRICS.appendStatus(metrics);
+        System.out.print("--- Metrics ---\n" + metrics);
+        if (healthCheck != null) {
+            System.out.println("Health endpoint: " + healthCheck.describe());
+        }
         System.out.println("Uptime: " + getUptime());
         System.out.println("====================\n");
     }
@@ -171,73 +534,219 @@ public class EnhancedServer {
         System.out.println("========================\n");
     }
 
+    /**
+     * Bytes moved and the average rate while transfers were actually running
+     */
+    private static String formatThroughput(long bytes, long nanos) {
+        double seconds = nanos / 1_000_000_000.0;
+        return String.format("%d bytes (%.1f MB/s)", bytes, seconds > 0 ? bytes / seconds / (1024 * 1024) : 0.0);
+    }
+
     private String getUptime() {
-        // Simple uptime calculation - you can make this more sophisticated
-        return "Running";
+        long seconds = (System.currentTimeMillis() - startedAt) / 1000;
+        return String.format("%dd %02d:%02d:%02d", seconds / 86400, seconds / 3600 % 24, seconds / 60 % 60,
+                seconds % 60);
+    }
+
+    /**
+     * Executor for per-client work such as draining outbound queues on the blocking engine
+     */
+    public Executor getClientExecutor() {
+        return clientThreadPool;
+    }
+
+    public OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(outboundQueueCapacity, slowConsumerPolicy);
+    }
+
+    public boolean isBinaryProtocolEnabled() {
+        return binaryProtocolEnabled;
+    }
+
+    public int getDefaultRoomId() {
+        return defaultRoomId;
+    }
+
+    public int getHistoryPageSize() {
+        return historyPageSize;
+    }
+
+    public int getJoinBackfill() {
+        return joinBackfill;
+    }
+
+    public int getSearchPageSize() {
+        return searchPageSize;
+    }
+
+    public MessageSearchIndex getSearchIndex() {
+        return searchIndex;
     }
 
     // Client management methods
-    public synchronized void addClient(int userId, ClientHandler client) {
-        connectedClients.put(userId, client);
-        if (client.getUser() != null) {
-            usernameToUserId.put(client.getUser().getUsername(), userId);
-            userDAO.updateOnlineStatus(userId, true);
-            notifyUserJoined(client.getUser());
+    public void addClient(int userId, ClientHandler client) {
+        clientsLock.lock();
+        try {
+            connectedClients.put(userId, client);
+            if (client.getUser() != null) {
+                usernameToUserId.put(client.getUser().getUsername(), userId);
+                presence.markOnline(userId);
+                directory.setOnline(userId, nodeId, client.getUser().getUsername(), client.getUser().getDisplayName());
+                bus.publish(BusEvent.presence(nodeId, client.getUser(), true));
+                notifyUserJoined(client.getUser());
+            }
+            LOGGER.info("👥 Client added. Total connected: " + connectedClients.size());
+        } finally {
+            clientsLock.unlock();
         }
-        LOGGER.info("👥 Client added. Total connected: " + connectedClients.size());
     }
 
-    public synchronized void removeClient(int userId) {
-        ClientHandler client = connectedClients.remove(userId);
-        if (client != null && client.getUser() != null) {
-            usernameToUserId.remove(client.getUser().getUsername());
-            userDAO.updateOnlineStatus(userId, false);
-            notifyUserLeft(client.getUser());
+    public void removeClient(int userId) {
+        clientsLock.lock();
+        try {
+            ClientHandler client = connectedClients.remove(userId);
+            if (client != null && client.getUser() != null) {
+                usernameToUserId.remove(client.getUser().getUsername());
+                presence.markOffline(userId);
+                directory.setOffline(userId, nodeId);
+                bus.publish(BusEvent.presence(nodeId, client.getUser(), false));
+                notifyUserLeft(client.getUser());
+            }
+            LOGGER.info("👥 Client removed. Total connected: " + connectedClients.size());
+        } finally {
+            clientsLock.unlock();
         }
-        LOGGER.info("👥 Client removed. Total connected: " + connectedClients.size());
     }
 
     public void broadcastMessage(String message, int senderUserId) {
         broadcastMessage(message, senderUserId, -1);
     }
 
+    /**
+     * Send a chat line to the members of the sender's current room
+     */
     public void broadcastMessage(String message, int senderUserId, int excludeUserId) {
         ClientHandler sender = connectedClients.get(senderUserId);
         String senderName = (sender != null && sender.getUser() != null) ? sender.getUser().getDisplayName()
                 : "Unknown";
+        int roomId = sender != null ? sender.getCurrentRoomId() : defaultRoomId;
 
-        String formattedMessage = String.format("[%s] %s: %s",
-                getCurrentTimestamp(), senderName, message);
+        Message msg = new Message(senderUserId, message);
+        msg.setMessageType("text");
+        msg.setRoomId(roomId);
 
-        // Save message to database
-        if (dbManager.isDatabaseHealthy()) {
-            try {
-                Message msg = new Message();
-                msg.setSenderId(senderUserId);
-                msg.setMessageText(message);
-                msg.setMessageType("text");
-                messageDAO.saveMessage(msg);
-            } catch (Exception e) {
-                LOGGER.log(Level.WARNING, "Failed to save message to database", e);
+        // Keep it for /history and hand it to the write-behind queue; persistence happens off the
+        // sender's thread
+        if (messageWriter != null) {
+            recordRoomMessage(msg);
+            messageWriter.enqueue(msg);
+        }
+
+        sendToRoom(roomId, EncodedMessage.of(formatRoomLine(roomId, senderName, message, msg.getSentAt().getTime())),
+                excludeUserId);
+        bus.publish(BusEvent.roomMessage(nodeId, msg, senderName));
+    }
+
+    private void recordRoomMessage(Message msg) {
+        if (messageHistory == null) {
+            return;
+        }
+        messageHistory.addRoomMessage(msg.getRoomId(), msg);
+        if (searchIndex != null) {
+            searchIndex.add(msg);
+        }
+    }
+
+    private String formatRoomLine(int roomId, String senderName, String text, long sentAt) {
+        return formatChatLine(roomTag(roomId), senderName, text, sentAt);
+    }
+
+    /**
+     * The line every member of a room receives for a chat message
+     */
+    static String formatChatLine(String roomTag, String senderName, String text, long sentAt) {
+        return String.format("[%s] %s%s: %s", formatTime(sentAt), roomTag, senderName, text);
+    }
+
+    private String formatRoomNotice(int roomId, String notice) {
+        return String.format("[%s] 🖥️ %s%s", getCurrentTimestamp(), roomTag(roomId), notice);
+    }
+
+    /**
+     * Server notice to the members of one room, e.g. joins and leaves; not stored
+     */
+    public void sendRoomNotice(int roomId, String notice) {
+        sendToRoom(roomId, EncodedMessage.of(formatRoomNotice(roomId, notice)), -1);
+        bus.publish(BusEvent.roomNotice(nodeId, roomId, notice));
+    }
+
+    /**
+     * Queue the same encoded line for every member of a room connected to this node. Walks whichever is smaller,
+     * the room's members or the connected clients, so a small room costs little however many
+     * users are online and a huge room costs no more than a global broadcast.
+     */
+    private void sendToRoom(int roomId, EncodedMessage encoded, int excludeUserId) {
+        ChatRoom room = roomManager != null ? roomManager.getRoom(roomId) : null;
+        if (room == null) {
+            // Rooms unavailable without the database: everyone shares one room
+            long start = System.nanoTime();
+            for (Map.Entry<Integer, ClientHandler> entry : connectedClients.entrySet()) {
+                if (entry.getKey() != excludeUserId) {
+                    entry.getValue().enqueue(encoded);
+                }
             }
+            FANOUT_TIME.recordSince(start);
+            return;
         }
+        sendToMembers(room, encoded, excludeUserId);
+    }
 
-        // Broadcast to all connected clients
-        for (Map.Entry<Integer, ClientHandler> entry : connectedClients.entrySet()) {
-            if (entry.getKey() != excludeUserId) {
-                entry.getValue().sendMessage(formattedMessage);
+    private void sendToMembers(ChatRoom room, EncodedMessage encoded, int excludeUserId) {
+        long start = System.nanoTime();
+        if (room.getMemberCount() <= connectedClients.size()) {
+            room.forEachMember(userId -> {
+                ClientHandler client = connectedClients.get(userId);
+                if (client != null && userId != excludeUserId) {
+                    client.enqueue(encoded);
+                }
+            });
+        } else {
+            for (Map.Entry<Integer, ClientHandler> entry : connectedClients.entrySet()) {
+                if (entry.getKey() != excludeUserId && room.isMember(entry.getKey())) {
+                    entry.getValue().enqueue(encoded);
+                }
             }
         }
+        FANOUT_TIME.recordSince(start);
+    }
+
+    /**
+     * "#name " prefix for lines of rooms other than the default one, which keeps the plain format
+     */
+    private String roomTag(int roomId) {
+        if (roomId == defaultRoomId || roomManager == null) {
+            return "";
+        }
+        ChatRoom room = roomManager.getLoadedRoom(roomId);
+        return room != null ? "#" + room.getRoomName() + " " : "";
     }
 
     public void broadcastServerMessage(String message) {
+        sendToAll(message);
+        bus.publish(BusEvent.serverMessage(nodeId, message));
+        LOGGER.info("📢 Server message broadcasted: " + message);
+    }
+
+    private void sendToAll(String message) {
         String formattedMessage = String.format("[%s] 🖥️ SERVER: %s",
                 getCurrentTimestamp(), message);
 
+        EncodedMessage encoded = EncodedMessage.of(formattedMessage);
+        long start = System.nanoTime();
         for (ClientHandler client : connectedClients.values()) {
-            client.sendMessage(formattedMessage);
+            client.enqueue(encoded);
         }
-        LOGGER.info("📢 Server message broadcasted: " + message);
+        FANOUT_TIME.recordSince(start);
     }
 
     private void notifyUserJoined(User user) {
@@ -251,77 +760,226 @@ public class EnhancedServer {
     }
 
     private void kickUser(String username) {
+        String reason = "You have been kicked by the server administrator";
         Integer userId = usernameToUserId.get(username);
         if (userId != null) {
             ClientHandler client = connectedClients.get(userId);
             if (client != null) {
-                client.disconnect("You have been kicked by the server administrator");
+                client.disconnect(reason);
                 System.out.println("User " + username + " has been kicked");
             }
+        } else if ((userId = directory.getUserId(username)) != null) {
+            bus.publish(BusEvent.kick(nodeId, userId, reason));
+            System.out.println("User " + username + " is on node " + directory.getNodeOf(userId) + ", kick sent");
         } else {
             System.out.println("User " + username + " not found");
         }
     }
 
     public void sendPrivateMessage(String fromUsername, String toUsername, String message) {
+        Integer fromUserId = usernameToUserId.get(fromUsername);
+        if (fromUserId == null) {
+            return;
+        }
+        ClientHandler sender = connectedClients.get(fromUserId);
         Integer toUserId = usernameToUserId.get(toUsername);
-        if (toUserId != null) {
-            ClientHandler recipient = connectedClients.get(toUserId);
-            if (recipient != null) {
-                String formattedMessage = String.format("[%s] 💬 %s → You: %s",
-                        getCurrentTimestamp(), fromUsername, message);
-                recipient.sendMessage(formattedMessage);
-
-                // Send confirmation to sender
-                Integer fromUserId = usernameToUserId.get(fromUsername);
-                if (fromUserId != null) {
-                    ClientHandler sender = connectedClients.get(fromUserId);
-                    if (sender != null) {
-                        String confirmMessage = String.format("[%s] 💬 You → %s: %s",
-                                getCurrentTimestamp(), toUsername, message);
-                        sender.sendMessage(confirmMessage);
-                    }
-                }
-            }
+        ClientHandler recipient = toUserId != null ? connectedClients.get(toUserId) : null;
+        if (recipient == null) {
+            sendStoredMessage(fromUserId, sender, fromUsername, toUsername, message);
+            return;
+        }
+
+        String formattedMessage = String.format("[%s] 💬 %s → You: %s",
+                getCurrentTimestamp(), fromUsername, message);
+        recipient.sendMessage(formattedMessage);
+
+        if (messageWriter != null) {
+            Message msg = new Message(fromUserId, message);
+            msg.setMessageType("text");
+            msg.setRecipientId(toUserId);
+            recordPrivateMessage(msg);
+            messageWriter.enqueue(msg);
+            // Already delivered: other nodes only keep it for history
+            bus.publish(BusEvent.privateMessage(nodeId, msg, 0, fromUsername));
+        }
+
+        // Send confirmation to sender
+        if (sender != null) {
+            String confirmMessage = String.format("[%s] 💬 You → %s: %s",
+                    getCurrentTimestamp(), toUsername, message);
+            sender.sendMessage(confirmMessage);
         }
     }
 
-    public List<String> getOnlineUsersList() {
-        List<String> onlineUsers = new ArrayList<>();
-        for (ClientHandler client : connectedClients.values()) {
-            if (client.getUser() != null) {
-                onlineUsers.add(client.getUser().getDisplayName());
+    /**
+     * Store a private message for a recipient who is not connected to this node, then route it
+     * over the bus in case they are on another one. It is written synchronously, undelivered, not
+     * through the write-behind queue: the node holding the recipient claims it when the event
+     * arrives, and if nobody does the recipient's next login finds it.
+     */
+    private void sendStoredMessage(int fromUserId, ClientHandler sender, String fromUsername, String toUsername,
+            String message) {
+        User recipient = userStore.findByUsername(toUsername);
+        if (recipient == null) {
+            if (sender != null) {
+                sender.sendMessage("❌ User not found: " + toUsername);
+            }
+            return;
+        }
+
+        Message msg = new Message(fromUserId, message);
+        msg.setMessageType("text");
+        msg.setRecipientId(recipient.getUserId());
+        msg.setDeliveredAt(null);
+        if (!isStorageAvailable() && messageWriter != null) {
+            // Journaled while the database is down; the recipient gets it at a login after the replay
+            recordPrivateMessage(msg);
+            if (messageWriter.enqueue(msg) && sender != null) {
+                sender.sendMessage(String.format("[%s] 📭 You → %s (offline, delivered at a later login): %s",
+                        getCurrentTimestamp(), toUsername, message));
+            } else if (sender != null) {
+                sender.sendMessage("❌ Could not store your message for " + toUsername + ". Please try again.");
+            }
+            return;
+        }
+        if (!messageStore.saveMessage(msg)) {
+            if (sender != null) {
+                sender.sendMessage("❌ Could not store your message for " + toUsername + ". Please try again.");
+            }
+            return;
+        }
+        recordPrivateMessage(msg);
+        bus.publish(BusEvent.privateMessage(nodeId, msg, msg.getMessageId(), fromUsername));
+
+        if (sender != null) {
+            if (directory.isRemote(recipient.getUserId())) {
+                sender.sendMessage(String.format("[%s] 💬 You → %s: %s", getCurrentTimestamp(), toUsername, message));
+            } else {
+                sender.sendMessage(String.format("[%s] 📭 You → %s (offline, delivered at next login): %s",
+                        getCurrentTimestamp(), toUsername, message));
             }
         }
-        return onlineUsers;
+
+        // The recipient may have logged in while the message was being stored
+        ClientHandler lateRecipient = connectedClients.get(recipient.getUserId());
+        if (lateRecipient != null) {
+            deliverOfflineMessages(lateRecipient);
+        }
+    }
+
+    private void recordPrivateMessage(Message msg) {
+        if (messageHistory == null) {
+            return;
+        }
+        messageHistory.addPrivateMessage(msg);
+        if (searchIndex != null) {
+            searchIndex.add(msg);
+        }
+    }
+
+    /**
+     * Hand a user the private messages stored while they were offline. Each claimed batch goes
+     * out as a single queued message (one write, one frame) however many lines it holds.
+     */
+    public void deliverOfflineMessages(ClientHandler client) {
+        User user = client.getUser();
+        if (user == null || messageStore == null || !isStorageAvailable()) {
+            return;
+        }
+        List<Message> pending;
+        do {
+            pending = messageStore.claimUndeliveredMessages(user.getUserId(), offlineDeliveryBatch);
+            if (pending.isEmpty()) {
+                return;
+            }
+            StringBuilder batch = new StringBuilder("📬 " + pending.size() + " private message"
+                    + (pending.size() == 1 ? "" : "s") + " received while you were away:");
+            for (Message message : pending) {
+                User from = userStore.findById(message.getSenderId());
+                batch.append('\n').append(String.format("[%s] 💬 %s → You: %s",
+                        message.getSentAt().toString().substring(0, 16),
+                        from != null ? from.getUsername() : "#" + message.getSenderId(), message.getMessageText()));
+            }
+            client.enqueue(EncodedMessage.reliable(batch.toString()));
+        } while (pending.size() == offlineDeliveryBatch);
+    }
+
+    /**
+     * Display names of everyone online, on this node or any other
+     */
+    public List<String> getOnlineUsersList() {
+        return directory.getOnlineDisplayNames();
     }
 
     private String getCurrentTimestamp() {
-        return new Timestamp(System.currentTimeMillis()).toString().substring(11, 19);
+        return formatTime(System.currentTimeMillis());
+    }
+
+    private static String formatTime(long millis) {
+        return new Timestamp(millis).toString().substring(11, 19);
     }
 
     // Getters for ClientHandler access
-    public UserDAO getUserDAO() {
-        return userDAO;
+    public UserStore getUserStore() {
+        return userStore;
+    }
+
+    public FileTransferStore getFileTransferStore() {
+        return fileTransferStore;
+    }
+
+    public MessageStore getMessageStore() {
+        return messageStore;
     }
 
-    public MessageDAO getMessageDAO() {
-        return messageDAO;
+    public MessageHistory getMessageHistory() {
+        return messageHistory;
+    }
+
+    public RoomManager getRoomManager() {
+        return roomManager;
+    }
+
+    public ReadReceiptTracker getReadReceipts() {
+        return readReceipts;
     }
 
     public DatabaseManager getDbManager() {
         return dbManager;
     }
 
+    /**
+     * Cached database health, always true on in-memory storage; false sends writes to the
+     * offline journal
+     */
+    public boolean isStorageAvailable() {
+        return storage != null && storage.isAvailable();
+    }
+
+    public OfflineJournal getOfflineJournal() {
+        return offlineJournal;
+    }
+
     private void shutdown() {
+        if (!shutdownStarted.compareAndSet(false, true)) {
+            return;
+        }
         try {
             isRunning = false;
+            if (healthCheck != null) {
+                healthCheck.stop();
+            }
 
             // Disconnect all clients
             for (ClientHandler client : connectedClients.values()) {
                 client.disconnect("Server is shutting down");
             }
 
+            // Stop the NIO engine (event loops and worker pool) if it was selected
+            if (nioEngine != null) {
+                nioEngine.stop();
+            }
+
             // Shutdown thread pool
             clientThreadPool.shutdown();
             try {
@@ -337,9 +995,30 @@ public class EnhancedServer {
                 serverSocket.close();
             }
 
-            // Close database connection
+            // Flush queued messages before the pool goes away
+            if (messageWriter != null) {
+                messageWriter.shutdown(config.getLong("chat.persistence.shutdown_timeout_ms", 10000));
+            }
+            if (presence != null) {
+                presence.shutdown(config.getLong("chat.persistence.shutdown_timeout_ms", 10000));
+            }
+            if (readReceipts != null) {
+                readReceipts.shutdown(config.getLong("chat.persistence.shutdown_timeout_ms", 10000));
+            }
+            if (journalReplayer != null) {
+                journalReplayer.shutdown(config.getLong("chat.persistence.shutdown_timeout_ms", 10000));
+            }
+            if (offlineJournal != null) {
+                offlineJournal.close();
+            }
+            if (bus != null) {
+                bus.close();
+            }
+            privateDelivery.shutdown();
+
+            // Close database connection pool
             if (dbManager != null) {
-                dbManager.closeConnection();
+                dbManager.closePool();
             }
 
             LOGGER.info("🛑 Server shutdown completed");
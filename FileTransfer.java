@@ -0,0 +1,155 @@
+import java.sql.Timestamp;
+
+/**
+ * FileTransfer model class representing a row of file_transfers
+ */
+public class FileTransfer {
+    private int transferId;
+    private int senderId;
+    private Integer recipientId;
+    private String fileName;
+    private String originalFileName;
+    private String filePath;
+    private long fileSize;
+    private String fileType;
+    private String transferStatus;
+    private int progressPercentage;
+    private long bytesReceived;
+    private Timestamp startedAt;
+    private Timestamp completedAt;
+    private Timestamp expiryDate;
+
+    // Constructors
+    public FileTransfer() {
+        this.startedAt = new Timestamp(System.currentTimeMillis());
+        this.transferStatus = "pending";
+    }
+
+    public FileTransfer(int senderId, String fileName, String filePath, long fileSize) {
+        this();
+        this.senderId = senderId;
+        this.fileName = fileName;
+        this.originalFileName = fileName;
+        this.filePath = filePath;
+        this.fileSize = fileSize;
+    }
+
+    // Getters and Setters
+    public int getTransferId() {
+        return transferId;
+    }
+
+    public void setTransferId(int transferId) {
+        this.transferId = transferId;
+    }
+
+    public int getSenderId() {
+        return senderId;
+    }
+
+    public void setSenderId(int senderId) {
+        this.senderId = senderId;
+    }
+
+    public Integer getRecipientId() {
+        return recipientId;
+    }
+
+    public void setRecipientId(Integer recipientId) {
+        this.recipientId = recipientId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getOriginalFileName() {
+        return originalFileName;
+    }
+
+    public void setOriginalFileName(String originalFileName) {
+        this.originalFileName = originalFileName;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public void setFilePath(String filePath) {
+        this.filePath = filePath;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public String getFileType() {
+        return fileType;
+    }
+
+    public void setFileType(String fileType) {
+        this.fileType = fileType;
+    }
+
+    public String getTransferStatus() {
+        return transferStatus;
+    }
+
+    public void setTransferStatus(String transferStatus) {
+        this.transferStatus = transferStatus;
+    }
+
+    public int getProgressPercentage() {
+        return progressPercentage;
+    }
+
+    public void setProgressPercentage(int progressPercentage) {
+        this.progressPercentage = progressPercentage;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public void setBytesReceived(long bytesReceived) {
+        this.bytesReceived = bytesReceived;
+    }
+
+    public Timestamp getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Timestamp startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Timestamp getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(Timestamp completedAt) {
+        this.completedAt = completedAt;
+    }
+
+    public Timestamp getExpiryDate() {
+        return expiryDate;
+    }
+
+    public void setExpiryDate(Timestamp expiryDate) {
+        this.expiryDate = expiryDate;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FileTransfer{id=%d, sender=%d, file='%s', size=%d, received=%d, status='%s'}",
+                transferId, senderId, fileName, fileSize, bytesReceived, transferStatus);
+    }
+}
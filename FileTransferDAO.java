@@ -0,0 +1,159 @@
+import java.sql.*;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Data Access Object for FileTransfer operations
+ * Records uploads in file_transfers and checkpoints the acknowledged offset of resumable ones
+ */
+public class FileTransferDAO implements FileTransferStore {
+    private static final Logger LOGGER = Logger.getLogger(FileTransferDAO.class.getName());
+    private final DatabaseManager dbManager;
+
+    // mapResultSetToFileTransfer reads these by position, so keep the two in the same order
+    private static final String TRANSFER_COLUMNS = "transfer_id, sender_id, recipient_id, file_name, original_file_name, " +
+            "file_path, file_size, file_type, transfer_status, progress_percentage, bytes_received, started_at, " +
+            "completed_at, expiry_date";
+
+    public FileTransferDAO() {
+        this.dbManager = DatabaseManager.getInstance();
+    }
+
+    /**
+     * Create a new transfer record
+     */
+    @Override
+    public boolean createTransfer(FileTransfer transfer) {
+        String sql = "INSERT INTO file_transfers (sender_id, recipient_id, file_name, original_file_name, file_path, " +
+                "file_size, file_type, transfer_status, progress_percentage, bytes_received, started_at, expiry_date) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql, new String[] { "transfer_id" })) {
+            stmt.setInt(1, transfer.getSenderId());
+            if (transfer.getRecipientId() != null) {
+                stmt.setInt(2, transfer.getRecipientId());
+            } else {
+                stmt.setNull(2, Types.INTEGER);
+            }
+            stmt.setString(3, transfer.getFileName());
+            stmt.setString(4, transfer.getOriginalFileName());
+            stmt.setString(5, transfer.getFilePath());
+            stmt.setLong(6, transfer.getFileSize());
+            stmt.setString(7, transfer.getFileType());
+            stmt.setString(8, transfer.getTransferStatus());
+            stmt.setInt(9, transfer.getProgressPercentage());
+            stmt.setLong(10, transfer.getBytesReceived());
+            stmt.setTimestamp(11, transfer.getStartedAt());
+            stmt.setTimestamp(12, transfer.getExpiryDate());
+
+            int rowsAffected = stmt.executeUpdate();
+            if (rowsAffected > 0) {
+                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                    if (generatedKeys.next()) {
+                        transfer.setTransferId(generatedKeys.getInt(1));
+                    }
+                }
+                dbManager.commit(conn);
+                return true;
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error creating file transfer: " + transfer.getFileName(), e);
+        }
+        return false;
+    }
+
+    /**
+     * Find transfer by ID
+     */
+    @Override
+    public FileTransfer findById(int transferId) {
+        String sql = "SELECT " + TRANSFER_COLUMNS + " FROM file_transfers WHERE transfer_id = ?";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, transferId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return mapResultSetToFileTransfer(rs);
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error finding file transfer by ID: " + transferId, e);
+        }
+        return null;
+    }
+
+    /**
+     * Checkpoint the acknowledged offset of an upload in progress
+     */
+    @Override
+    public boolean updateProgress(int transferId, long bytesReceived, int progressPercentage) {
+        String sql = "UPDATE file_transfers SET bytes_received = ?, progress_percentage = ?, " +
+                "transfer_status = 'in_progress' WHERE transfer_id = ?";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, bytesReceived);
+            stmt.setInt(2, progressPercentage);
+            stmt.setInt(3, transferId);
+
+            int rowsAffected = stmt.executeUpdate();
+            if (rowsAffected > 0) {
+                dbManager.commit(conn);
+                return true;
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error updating progress for file transfer ID: " + transferId, e);
+        }
+        return false;
+    }
+
+    /**
+     * Mark an upload as fully received
+     */
+    @Override
+    public boolean completeTransfer(int transferId, long fileSize) {
+        String sql = "UPDATE file_transfers SET bytes_received = ?, progress_percentage = 100, " +
+                "transfer_status = 'completed', completed_at = CURRENT_TIMESTAMP WHERE transfer_id = ?";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, fileSize);
+            stmt.setInt(2, transferId);
+
+            int rowsAffected = stmt.executeUpdate();
+            if (rowsAffected > 0) {
+                dbManager.commit(conn);
+                return true;
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error completing file transfer ID: " + transferId, e);
+        }
+        return false;
+    }
+
+    /**
+     * Map a row of TRANSFER_COLUMNS to a FileTransfer object
+     */
+    private FileTransfer mapResultSetToFileTransfer(ResultSet rs) throws SQLException {
+        FileTransfer transfer = new FileTransfer();
+        transfer.setTransferId(rs.getInt(1));
+        transfer.setSenderId(rs.getInt(2));
+        int recipientId = rs.getInt(3);
+        transfer.setRecipientId(rs.wasNull() ? null : recipientId);
+        transfer.setFileName(rs.getString(4));
+        transfer.setOriginalFileName(rs.getString(5));
+        transfer.setFilePath(rs.getString(6));
+        transfer.setFileSize(rs.getLong(7));
+        transfer.setFileType(rs.getString(8));
+        transfer.setTransferStatus(rs.getString(9));
+        transfer.setProgressPercentage(rs.getInt(10));
+        transfer.setBytesReceived(rs.getLong(11));
+        transfer.setStartedAt(rs.getTimestamp(12));
+        transfer.setCompletedAt(rs.getTimestamp(13));
+        transfer.setExpiryDate(rs.getTimestamp(14));
+        return transfer;
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * Storage of upload records and their checkpointed offsets: FileTransferDAO on PostgreSQL, or
+ * InMemoryFileTransferStore
+ */
+public interface FileTransferStore {
+    /**
+     * Record a new transfer and set its generated id
+     */
+    boolean createTransfer(FileTransfer transfer);
+
+    FileTransfer findById(int transferId);
+
+    /**
+     * Checkpoint the acknowledged offset of an upload in progress
+     */
+    boolean updateProgress(int transferId, long bytesReceived, int progressPercentage);
+
+    /**
+     * Mark an upload as fully received
+     */
+    boolean completeTransfer(int transferId, long fileSize);
+}
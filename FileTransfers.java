@@ -0,0 +1,64 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Zero-copy file transfer helpers built on FileChannel.transferTo/transferFrom
+ * When both ends are a file and a socket channel the kernel moves the bytes (sendfile on Linux)
+ * without copying them through a Java byte[]. Sockets accepted through a ServerSocketChannel
+ * expose their channel; plain sockets fall back to stream adapters and still avoid heap buffers.
+ */
+public final class FileTransfers {
+
+    private FileTransfers() {
+    }
+
+    /**
+     * Write count bytes of the file starting at position to a blocking target channel
+     */
+    public static long transferTo(FileChannel file, long position, long count, WritableByteChannel target)
+            throws IOException {
+        long sent = 0;
+        while (sent < count) {
+            long written = file.transferTo(position + sent, count - sent, target);
+            if (written <= 0) {
+                if (position + sent >= file.size()) {
+                    throw new EOFException("File truncated during transfer");
+                }
+                continue;
+            }
+            sent += written;
+        }
+        return sent;
+    }
+
+    /**
+     * Read exactly count bytes from a blocking source channel into the file at position
+     */
+    public static long transferFrom(ReadableByteChannel source, FileChannel file, long position, long count)
+            throws IOException {
+        long received = 0;
+        while (received < count) {
+            long read = file.transferFrom(source, position + received, count - received);
+            if (read <= 0) {
+                throw new EOFException("Connection closed after " + received + " of " + count + " bytes");
+            }
+            received += read;
+        }
+        return received;
+    }
+
+    public static WritableByteChannel writableChannel(Socket socket, OutputStream fallback) {
+        return socket != null && socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(fallback);
+    }
+
+    public static ReadableByteChannel readableChannel(Socket socket, InputStream fallback) {
+        return socket != null && socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(fallback);
+    }
+}
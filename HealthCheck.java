@@ -0,0 +1,311 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Minimal HTTP listener on server.health.port: /health (liveness), /ready and /metrics
+ * Answers come from state the components already keep, so a probe never waits for the database.
+ */
+public class HealthCheck {
+    private static final Logger LOGGER = Logger.getLogger(HealthCheck.class.getName());
+    private static final int READ_TIMEOUT_MS = 2000;
+    private static final int REQUEST_BUFFER_BYTES = 4096;
+    private static final String TEXT = "text/plain; charset=utf-8";
+    private static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final int port;
+    private final DatabaseManager dbManager;
+    private final MessageWriteBehind messageWriter;
+    private final MetricsRegistry metrics = MetricsRegistry.getInstance();
+    private ServerSocket serverSocket;
+    private Thread listenerThread;
+    private volatile boolean running;
+
+    // Reused by the listener thread for every request
+    private final byte[] request = new byte[REQUEST_BUFFER_BYTES];
+    private final StringBuilder text = new StringBuilder(16384);
+    private final StringBuilder header = new StringBuilder(256);
+    private final long[] quantiles = new long[3];
+    private byte[] bodyBytes = new byte[16384];
+    private byte[] headerBytes = new byte[256];
+    private int encodedLength;
+
+    // Metrics
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong notReadyCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+
+    /**
+     * @param messageWriter null when messages are not persisted
+     */
+    public HealthCheck(int port, DatabaseManager dbManager, MessageWriteBehind messageWriter) {
+        this.port = port;
+        this.dbManager = dbManager;
+        this.messageWriter = messageWriter;
+    }
+
+    /**
+     * Bind the port and start serving; a port that cannot be bound is logged and the chat server
+     * runs without the endpoint
+     */
+    public void start() {
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Health endpoint disabled, cannot listen on port " + port, e);
+            return;
+        }
+        running = true;
+        listenerThread = new Thread(this::runListener, "health-http");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+        LOGGER.info("🩺 Health endpoint listening on port " + port + " (/health, /ready, /metrics)");
+    }
+
+    private void runListener() {
+        while (running) {
+            try (Socket socket = serverSocket.accept()) {
+                socket.setSoTimeout(READ_TIMEOUT_MS);
+                handle(socket.getInputStream(), socket.getOutputStream());
+            } catch (SocketException e) {
+                if (running) {
+                    errorCount.incrementAndGet();
+                    LOGGER.log(Level.FINE, "Health request failed", e);
+                }
+            } catch (IOException e) {
+                errorCount.incrementAndGet();
+                LOGGER.log(Level.FINE, "Health request failed", e);
+            }
+        }
+    }
+
+    private void handle(InputStream in, OutputStream out) throws IOException {
+        int lineEnd = readRequest(in);
+        if (lineEnd < 0) {
+            return;
+        }
+        requestCount.incrementAndGet();
+
+        // Request line: METHOD SP path[?query] SP version
+        int methodEnd = indexOf(request, 0, lineEnd, (byte) ' ');
+        int pathEnd = methodEnd < 0 ? -1 : indexOf(request, methodEnd + 1, lineEnd, (byte) ' ');
+        if (pathEnd < 0) {
+            respond(out, 400, "Bad Request", TEXT, text("Bad request\n"), true);
+            return;
+        }
+        int queryStart = indexOf(request, methodEnd + 1, pathEnd, (byte) '?');
+        if (queryStart >= 0) {
+            pathEnd = queryStart;
+        }
+        boolean head = equalsAscii(request, 0, methodEnd, "HEAD");
+        if (!head && !equalsAscii(request, 0, methodEnd, "GET")) {
+            respond(out, 405, "Method Not Allowed", TEXT, text("Only GET and HEAD are supported\n"), true);
+            return;
+        }
+
+        int pathStart = methodEnd + 1;
+        if (equalsAscii(request, pathStart, pathEnd, "/health")) {
+            respond(out, 200, "OK", TEXT, text("ok\n"), !head);
+        } else if (equalsAscii(request, pathStart, pathEnd, "/ready")) {
+            boolean ready = appendReadiness(clearText());
+            if (!ready) {
+                notReadyCount.incrementAndGet();
+            }
+            respond(out, ready ? 200 : 503, ready ? "OK" : "Service Unavailable", TEXT, text, !head);
+        } else if (equalsAscii(request, pathStart, pathEnd, "/metrics")) {
+            metrics.appendPrometheus(clearText(), quantiles);
+            respond(out, 200, "OK", PROMETHEUS_TEXT, text, !head);
+        } else {
+            respond(out, 404, "Not Found", TEXT, text("Not found\n"), !head);
+        }
+    }
+
+    /**
+     * Read the request head up to the blank line that ends it, keeping the request line at the
+     * start of the buffer; headers are read only so the connection closes cleanly
+     *
+     * @return end of the request line, or -1 if the client sent no complete request
+     */
+    private int readRequest(InputStream in) throws IOException {
+        int length = 0;
+        int lineEnd = -1;
+        int newlines = 0;
+        while (true) {
+            int read = in.read(request, length, request.length - length);
+            if (read < 0) {
+                return -1;
+            }
+            for (int i = length; i < length + read; i++) {
+                byte b = request[i];
+                if (b == '\n') {
+                    if (lineEnd < 0) {
+                        lineEnd = i > 0 && request[i - 1] == '\r' ? i - 1 : i;
+                    }
+                    if (++newlines == 2) {
+                        return lineEnd;
+                    }
+                } else if (b != '\r') {
+                    newlines = 0;
+                }
+            }
+            length += read;
+            if (length == request.length) {
+                if (lineEnd < 0) {
+                    return -1; // request line longer than the buffer
+                }
+                length = lineEnd; // drop headers already scanned
+            }
+        }
+    }
+
+    /**
+     * Pool, database and write-behind state, one line each. Ready needs an open pool holding
+     * connections (not checked on in-memory storage) and a running, unfailing write-behind with room
+     * left; the database line does not count, writes go to the offline journal while it is down.
+     */
+    private boolean appendReadiness(StringBuilder out) {
+        ConnectionPool pool = dbManager != null ? dbManager.getPool() : null;
+        // In-memory storage has no database to wait for
+        boolean poolReady = dbManager == null || (pool != null && !pool.isClosed() && pool.getTotalConnections() > 0);
+        boolean writerReady = messageWriter == null || (messageWriter.isRunning() && !messageWriter.isFailing()
+                && messageWriter.getQueueDepth() < messageWriter.getCapacity());
+
+        out.append("db_pool: ");
+        if (dbManager == null) {
+            out.append("none (in-memory storage)\n");
+        } else if (pool == null) {
+            out.append("unavailable\n");
+        } else {
+            out.append(poolReady ? "ok" : pool.isClosed() ? "closed" : "no connections")
+                    .append(" (active=").append(pool.getActiveConnections())
+                    .append(", idle=").append(pool.getIdleConnections())
+                    .append(", total=").append(pool.getTotalConnections()).append('/').append(pool.getMaxConnections())
+                    .append(", waiting=").append(pool.getWaitingThreads()).append(")\n");
+        }
+        if (dbManager != null) {
+            out.append("database: ").append(dbManager.isAvailable() ? "up" : "down").append('\n');
+        }
+        out.append("write_behind: ");
+        if (messageWriter == null) {
+            out.append("disabled\n");
+        } else {
+            out.append(writerReady ? "ok" : !messageWriter.isRunning() ? "stopped"
+                    : messageWriter.isFailing() ? "failing" : "full")
+                    .append(" (queued=").append(messageWriter.getQueueDepth())
+                    .append('/').append(messageWriter.getCapacity())
+                    .append(", dropped=").append(messageWriter.getDroppedCount()).append(")\n");
+        }
+        out.append("status: ").append(poolReady && writerReady ? "ready" : "not ready").append('\n');
+        return poolReady && writerReady;
+    }
+
+    private void respond(OutputStream out, int status, String reason, String contentType, CharSequence body,
+            boolean includeBody) throws IOException {
+        bodyBytes = encode(body, bodyBytes);
+        int bodyLength = encodedLength;
+
+        header.setLength(0);
+        header.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n")
+                .append("Content-Type: ").append(contentType).append("\r\n")
+                .append("Content-Length: ").append(bodyLength).append("\r\n")
+                .append("Cache-Control: no-store\r\n")
+                .append("Connection: close\r\n\r\n");
+        headerBytes = encode(header, headerBytes);
+        out.write(headerBytes, 0, encodedLength);
+        if (includeBody) {
+            out.write(bodyBytes, 0, bodyLength);
+        }
+        out.flush();
+    }
+
+    private StringBuilder clearText() {
+        text.setLength(0);
+        return text;
+    }
+
+    private StringBuilder text(String body) {
+        return clearText().append(body);
+    }
+
+    /**
+     * UTF-8 encode into the buffer, growing it when needed; the length goes to encodedLength
+     */
+    private byte[] encode(CharSequence chars, byte[] buffer) {
+        int length = 0;
+        for (int i = 0; i < chars.length(); i++) {
+            if (buffer.length - length < 4) {
+                byte[] grown = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, grown, 0, length);
+                buffer = grown;
+            }
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xC0 | c >> 6);
+                buffer[length++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars.length()
+                    && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                buffer[length++] = (byte) (0xF0 | codePoint >> 18);
+                buffer[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                buffer[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                buffer[length++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                buffer[length++] = '?';
+            } else {
+                buffer[length++] = (byte) (0xE0 | c >> 12);
+                buffer[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buffer[length++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        encodedLength = length;
+        return buffer;
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean equalsAscii(byte[] bytes, int from, int to, String expected) {
+        if (to - from != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (bytes[from + i] != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void stop() {
+        running = false;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Error closing health endpoint", e);
+            }
+        }
+    }
+
+    public String describe() {
+        return String.format("port=%d, %s, requests=%d, notReady=%d, errors=%d", port,
+                running ? "listening" : "stopped", requestCount.get(), notReadyCount.get(), errorCount.get());
+    }
+}
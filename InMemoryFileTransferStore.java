@@ -0,0 +1,99 @@
+import java.sql.Timestamp;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Upload records held in memory, for running without a database (storage.backend=memory)
+ * Records are copied in and out, so a resumed upload sees the last checkpoint and not whatever
+ * the upload in progress holds. Uploads can be resumed as long as the server runs.
+ */
+public class InMemoryFileTransferStore implements FileTransferStore {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final IntObjectMap<FileTransfer> transfers = new IntObjectMap<>();
+    private int lastTransferId;
+
+    @Override
+    public boolean createTransfer(FileTransfer transfer) {
+        lock.lock();
+        try {
+            transfer.setTransferId(++lastTransferId);
+            transfers.put(transfer.getTransferId(), copy(transfer));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public FileTransfer findById(int transferId) {
+        lock.lock();
+        try {
+            FileTransfer transfer = transfers.get(transferId);
+            return transfer != null ? copy(transfer) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean updateProgress(int transferId, long bytesReceived, int progressPercentage) {
+        lock.lock();
+        try {
+            FileTransfer transfer = transfers.get(transferId);
+            if (transfer == null) {
+                return false;
+            }
+            transfer.setBytesReceived(bytesReceived);
+            transfer.setProgressPercentage(progressPercentage);
+            transfer.setTransferStatus("in_progress");
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean completeTransfer(int transferId, long fileSize) {
+        lock.lock();
+        try {
+            FileTransfer transfer = transfers.get(transferId);
+            if (transfer == null) {
+                return false;
+            }
+            transfer.setBytesReceived(fileSize);
+            transfer.setProgressPercentage(100);
+            transfer.setTransferStatus("completed");
+            transfer.setCompletedAt(new Timestamp(System.currentTimeMillis()));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String describe() {
+        lock.lock();
+        try {
+            return "transfers=" + transfers.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static FileTransfer copy(FileTransfer transfer) {
+        FileTransfer copy = new FileTransfer();
+        copy.setTransferId(transfer.getTransferId());
+        copy.setSenderId(transfer.getSenderId());
+        copy.setRecipientId(transfer.getRecipientId());
+        copy.setFileName(transfer.getFileName());
+        copy.setOriginalFileName(transfer.getOriginalFileName());
+        copy.setFilePath(transfer.getFilePath());
+        copy.setFileSize(transfer.getFileSize());
+        copy.setFileType(transfer.getFileType());
+        copy.setTransferStatus(transfer.getTransferStatus());
+        copy.setProgressPercentage(transfer.getProgressPercentage());
+        copy.setBytesReceived(transfer.getBytesReceived());
+        copy.setStartedAt(transfer.getStartedAt());
+        copy.setCompletedAt(transfer.getCompletedAt());
+        copy.setExpiryDate(transfer.getExpiryDate());
+        return copy;
+    }
+}
@@ -0,0 +1,320 @@
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Messages held in memory, for running without a database (storage.backend=memory)
+ * Every room, private conversation and sender has its own array of messages sorted by
+ * (sent_at, message_id), found through int-keyed IntObjectMaps, so appending is an array store
+ * and a history page is a binary search for the cursor followed by a backwards copy. Undelivered
+ * private messages wait in a queue per recipient. Messages are kept as saved, not copied, and
+ * nothing is ever evicted; search scans every message newest first with MessageSearchIndex's
+ * tokenization, showing room messages only to members according to the RoomStore. One read-write
+ * lock guards it all: pages and searches share the read lock.
+ */
+public class InMemoryMessageStore implements MessageStore {
+    private static final Comparator<Message> CHRONOLOGICAL = Comparator.comparing(Message::getSentAt)
+            .thenComparingInt(Message::getMessageId);
+
+    private final RoomStore roomStore;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final MessageLog all = new MessageLog(0);
+    private final IntObjectMap<Message> byId = new IntObjectMap<>(1024);
+    private final IntObjectMap<MessageLog> rooms = new IntObjectMap<>();
+    private final IntObjectMap<MessageLog> senders = new IntObjectMap<>();
+    // user_low -> user_high -> conversation
+    private final IntObjectMap<IntObjectMap<MessageLog>> conversations = new IntObjectMap<>();
+    private final List<MessageLog> conversationLogs = new ArrayList<>();
+    private final IntObjectMap<ArrayDeque<Message>> undelivered = new IntObjectMap<>();
+    private int lastMessageId;
+
+    public InMemoryMessageStore(RoomStore roomStore) {
+        this.roomStore = roomStore;
+    }
+
+    @Override
+    public boolean saveMessage(Message message) {
+        lock.writeLock().lock();
+        try {
+            store(message);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveMessages(List<Message> messages) {
+        lock.writeLock().lock();
+        try {
+            for (Message message : messages) {
+                store(message);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void store(Message message) {
+        message.setMessageId(++lastMessageId);
+        if (message.getSentAt() == null) {
+            message.setSentAt(new Timestamp(System.currentTimeMillis()));
+        }
+        byId.put(message.getMessageId(), message);
+        all.add(message);
+        senders.computeIfAbsent(message.getSenderId(), id -> new MessageLog(0)).add(message);
+        if (message.getRoomId() > 0) {
+            rooms.computeIfAbsent(message.getRoomId(), id -> new MessageLog(0)).add(message);
+        }
+        Integer recipientId = message.getRecipientId();
+        if (recipientId != null) {
+            MessageLog conversation = conversation(message.getSenderId(), recipientId, true);
+            message.setConversationId(conversation.conversationId);
+            conversation.add(message);
+            if (message.getDeliveredAt() == null) {
+                undelivered.computeIfAbsent(recipientId, id -> new ArrayDeque<>()).addLast(message);
+            }
+        }
+    }
+
+    private MessageLog conversation(int user1Id, int user2Id, boolean create) {
+        int low = Math.min(user1Id, user2Id);
+        int high = Math.max(user1Id, user2Id);
+        IntObjectMap<MessageLog> partners = conversations.get(low);
+        if (partners == null) {
+            if (!create) {
+                return null;
+            }
+            partners = new IntObjectMap<>(4);
+            conversations.put(low, partners);
+        }
+        MessageLog conversation = partners.get(high);
+        if (conversation == null && create) {
+            conversation = new MessageLog(conversationLogs.size() + 1);
+            partners.put(high, conversation);
+            conversationLogs.add(conversation);
+        }
+        return conversation;
+    }
+
+    @Override
+    public List<Message> claimUndeliveredMessages(int recipientId, int limit) {
+        List<Message> claimed = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            ArrayDeque<Message> queue = undelivered.get(recipientId);
+            if (queue == null) {
+                return claimed;
+            }
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            while (claimed.size() < limit && !queue.isEmpty()) {
+                Message message = queue.pollFirst();
+                message.setDeliveredAt(now);
+                claimed.add(message);
+            }
+            if (queue.isEmpty()) {
+                undelivered.remove(recipientId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        claimed.sort(CHRONOLOGICAL);
+        return claimed;
+    }
+
+    @Override
+    public boolean claimMessage(int messageId) {
+        lock.writeLock().lock();
+        try {
+            Message message = byId.get(messageId);
+            if (message == null || message.getRecipientId() == null || message.getDeliveredAt() != null) {
+                return false;
+            }
+            message.setDeliveredAt(new Timestamp(System.currentTimeMillis()));
+            ArrayDeque<Message> queue = undelivered.get(message.getRecipientId());
+            if (queue != null && queue.remove(message) && queue.isEmpty()) {
+                undelivered.remove(message.getRecipientId());
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getRoomHistory(int roomId, MessageCursor before, int limit) {
+        lock.readLock().lock();
+        try {
+            return page(rooms.get(roomId), before, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getPrivateHistory(int user1Id, int user2Id, MessageCursor before, int limit) {
+        lock.readLock().lock();
+        try {
+            return page(conversation(user1Id, user2Id, false), before, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getUserHistory(int userId, MessageCursor before, int limit) {
+        lock.readLock().lock();
+        try {
+            return page(senders.get(userId), before, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static List<Message> page(MessageLog log, MessageCursor before, int limit) {
+        if (log == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        int end = before == null ? log.size : log.countBefore(before.getSentAt(), before.getMessageId());
+        int start = Math.max(0, end - limit);
+        List<Message> page = new ArrayList<>(end - start);
+        for (int i = end - 1; i >= start; i--) {
+            page.add(log.messages[i]);
+        }
+        return page;
+    }
+
+    @Override
+    public List<Message> getRecentConversationMessages(Timestamp since, int perConversation) {
+        List<Message> recent = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (MessageLog conversation : conversationLogs) {
+                int end = conversation.size;
+                for (int i = end - 1; i >= 0 && end - i <= perConversation; i--) {
+                    Message message = conversation.messages[i];
+                    if (!message.getSentAt().after(since)) {
+                        break;
+                    }
+                    recent.add(message);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        recent.sort(CHRONOLOGICAL);
+        return recent;
+    }
+
+    @Override
+    public List<Message> getRecentMessages(int limit) {
+        lock.readLock().lock();
+        try {
+            return page(all, null, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Messages containing every term, newest first; there is no ranking and no query syntax,
+     * unlike the PostgreSQL full-text search
+     */
+    @Override
+    public List<Message> searchMessages(String searchText, int viewerId, int roomId, int senderId, int limit,
+            int offset) {
+        List<Message> results = new ArrayList<>();
+        Set<String> terms = MessageSearchIndex.tokenize(searchText);
+        if (terms.isEmpty()) {
+            return results;
+        }
+        IntSet viewerRoomIds = null;
+        if (viewerId > 0) {
+            List<Integer> roomIds = roomStore.getRoomIdsForUser(viewerId);
+            viewerRoomIds = new IntSet(Math.max(4, roomIds.size()));
+            for (int id : roomIds) {
+                viewerRoomIds.add(id);
+            }
+        }
+        lock.readLock().lock();
+        try {
+            MessageLog log = roomId > 0 ? rooms.get(roomId) : senderId > 0 ? senders.get(senderId) : all;
+            int skipped = 0;
+            for (int i = log != null ? log.size - 1 : -1; i >= 0 && results.size() < limit; i--) {
+                Message message = log.messages[i];
+                if (MessageSearchIndex.isVisible(message, viewerId, viewerRoomIds, roomId, senderId)
+                        && MessageSearchIndex.tokenize(message.getMessageText()).containsAll(terms)
+                        && skipped++ >= offset) {
+                    results.add(message);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return results;
+    }
+
+    public String describe() {
+        lock.readLock().lock();
+        try {
+            return String.format("messages=%d, rooms=%d, conversations=%d, undeliveredRecipients=%d", all.size,
+                    rooms.size(), conversationLogs.size(), undelivered.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Messages of one room, conversation or sender in an array sorted by (sent_at, message_id);
+     * they nearly always arrive in that order, so add() rarely moves anything
+     */
+    private static final class MessageLog {
+        final int conversationId;
+        Message[] messages = new Message[16];
+        int size;
+
+        MessageLog(int conversationId) {
+            this.conversationId = conversationId;
+        }
+
+        void add(Message message) {
+            if (size == messages.length) {
+                messages = Arrays.copyOf(messages, size * 2);
+            }
+            int i = size;
+            while (i > 0 && compare(messages[i - 1], message.getSentAt(), message.getMessageId()) > 0) {
+                messages[i] = messages[i - 1];
+                i--;
+            }
+            messages[i] = message;
+            size++;
+        }
+
+        /**
+         * Number of messages strictly before the position, i.e. the index the next older page ends at
+         */
+        int countBefore(Timestamp sentAt, int messageId) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(messages[mid], sentAt, messageId) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private static int compare(Message message, Timestamp sentAt, int messageId) {
+            int bySentAt = message.getSentAt().compareTo(sentAt);
+            return bySentAt != 0 ? bySentAt : Integer.compare(message.getMessageId(), messageId);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Read markers held in memory, for running without a database (storage.backend=memory)
+ * Markers of a user are keyed by scope; like the upsert in ReadMarkerDAO, a saved marker never
+ * moves backwards.
+ */
+public class InMemoryReadMarkerStore implements ReadMarkerStore {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final IntObjectMap<Map<String, ReadReceiptTracker.ReadMarker>> markers = new IntObjectMap<>();
+
+    @Override
+    public List<ReadReceiptTracker.ReadMarker> getReadMarkers(int userId) {
+        lock.lock();
+        try {
+            Map<String, ReadReceiptTracker.ReadMarker> ofUser = markers.get(userId);
+            return ofUser != null ? new ArrayList<>(ofUser.values()) : new ArrayList<>();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void saveReadMarkers(List<ReadReceiptTracker.ReadMarker> batch) {
+        lock.lock();
+        try {
+            for (ReadReceiptTracker.ReadMarker marker : batch) {
+                markers.computeIfAbsent(marker.getUserId(), id -> new HashMap<>())
+                        .merge(marker.scopeKey(), marker, InMemoryReadMarkerStore::newest);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static ReadReceiptTracker.ReadMarker newest(ReadReceiptTracker.ReadMarker saved,
+            ReadReceiptTracker.ReadMarker update) {
+        return new ReadReceiptTracker.ReadMarker(saved.getUserId(), saved.getScopeType(), saved.getScopeId(),
+                Math.max(saved.getLastReadMessageId(), update.getLastReadMessageId()),
+                saved.getLastReadAt().after(update.getLastReadAt()) ? saved.getLastReadAt() : update.getLastReadAt());
+    }
+}
@@ -0,0 +1,157 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Rooms and memberships held in memory, for running without a database (storage.backend=memory)
+ * Starts with the default room, like the seed data of database/schema.sql. Members of a room
+ * and rooms of a member are IntSets in IntObjectMaps keyed by id.
+ */
+public class InMemoryRoomStore implements RoomStore {
+    private static final int DEFAULT_MAX_USERS = 50;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final IntObjectMap<Room> rooms = new IntObjectMap<>();
+    private final IntObjectMap<IntSet> roomsOfUser = new IntObjectMap<>(1024);
+    private int lastRoomId;
+
+    public InMemoryRoomStore(int defaultRoomId, String defaultRoomName) {
+        rooms.put(defaultRoomId, new Room(defaultRoomId, defaultRoomName, "Main chat room for everyone"));
+        lastRoomId = defaultRoomId;
+    }
+
+    @Override
+    public ChatRoom loadRoom(int roomId) {
+        lock.lock();
+        try {
+            Room room = rooms.get(roomId);
+            if (room == null) {
+                return null;
+            }
+            int[] memberIds = new int[room.members.size()];
+            int[] index = new int[1];
+            room.members.forEach(userId -> memberIds[index[0]++] = userId);
+            return new ChatRoom(roomId, room.name, room.description, false, DEFAULT_MAX_USERS, memberIds);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int findRoomId(String roomName) {
+        lock.lock();
+        try {
+            int[] found = new int[1];
+            rooms.forEachValue(room -> {
+                if (room.name.equalsIgnoreCase(roomName) && (found[0] == 0 || room.roomId < found[0])) {
+                    found[0] = room.roomId;
+                }
+            });
+            return found[0];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int createRoom(String roomName, int createdBy) {
+        lock.lock();
+        try {
+            int existing = findRoomId(roomName);
+            if (existing != 0) {
+                return existing;
+            }
+            Room room = new Room(++lastRoomId, roomName, null);
+            rooms.put(room.roomId, room);
+            return room.roomId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rooms created here are all public
+     */
+    @Override
+    public Map<Integer, String> getVisibleRooms(int userId) {
+        List<Room> visible = new ArrayList<>();
+        lock.lock();
+        try {
+            rooms.forEachValue(visible::add);
+        } finally {
+            lock.unlock();
+        }
+        visible.sort((a, b) -> a.name.compareTo(b.name));
+        Map<Integer, String> names = new LinkedHashMap<>();
+        for (Room room : visible) {
+            names.put(room.roomId, room.name);
+        }
+        return names;
+    }
+
+    @Override
+    public List<Integer> getRoomIdsForUser(int userId) {
+        List<Integer> roomIds = new ArrayList<>();
+        lock.lock();
+        try {
+            IntSet ofUser = roomsOfUser.get(userId);
+            if (ofUser != null) {
+                ofUser.forEach(roomIds::add);
+            }
+        } finally {
+            lock.unlock();
+        }
+        Collections.sort(roomIds);
+        return roomIds;
+    }
+
+    @Override
+    public boolean addMember(int roomId, int userId) {
+        lock.lock();
+        try {
+            Room room = rooms.get(roomId);
+            if (room == null) {
+                return false;
+            }
+            room.members.add(userId);
+            roomsOfUser.computeIfAbsent(userId, id -> new IntSet(4)).add(roomId);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean removeMember(int roomId, int userId) {
+        lock.lock();
+        try {
+            Room room = rooms.get(roomId);
+            if (room != null) {
+                room.members.remove(userId);
+            }
+            IntSet ofUser = roomsOfUser.get(userId);
+            if (ofUser != null) {
+                ofUser.remove(roomId);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Room {
+        final int roomId;
+        final String name;
+        final String description;
+        final IntSet members = new IntSet();
+
+        Room(int roomId, String name, String description) {
+            this.roomId = roomId;
+            this.name = name;
+            this.description = description;
+        }
+    }
+}
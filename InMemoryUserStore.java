@@ -0,0 +1,194 @@
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Users and their presence held in memory, for running without a database (storage.backend=memory)
+ * Accounts are kept by id in an IntObjectMap and by username in a HashMap; lookups hand out
+ * copies, like UserCache, so sessions can change their User freely. The node a user is online on
+ * is kept next to the account, which is all SessionStore needs. Nothing survives a restart.
+ */
+public class InMemoryUserStore implements UserStore, SessionStore {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final IntObjectMap<Account> byId = new IntObjectMap<>(1024);
+    private final Map<String, Account> byUsername = new HashMap<>();
+    private int lastUserId;
+
+    @Override
+    public boolean createUser(User user) {
+        lock.writeLock().lock();
+        try {
+            if (byUsername.containsKey(user.getUsername())) {
+                return false;
+            }
+            user.setUserId(++lastUserId);
+            Account account = new Account(new User(user));
+            byId.put(user.getUserId(), account);
+            byUsername.put(user.getUsername(), account);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public User findByUsername(String username) {
+        lock.readLock().lock();
+        try {
+            return activeCopy(byUsername.get(username));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public User findById(int userId) {
+        lock.readLock().lock();
+        try {
+            return activeCopy(byId.get(userId));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static User activeCopy(Account account) {
+        return account != null && "active".equals(account.user.getStatus()) ? new User(account.user) : null;
+    }
+
+    @Override
+    public User authenticateUser(String username, String passwordHash) {
+        User user = findByUsername(username);
+        if (user != null && user.getPasswordHash().equals(passwordHash)) {
+            user.setOnline(true);
+            return user;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean updateUser(User user) {
+        lock.writeLock().lock();
+        try {
+            Account account = byId.get(user.getUserId());
+            if (account == null) {
+                return false;
+            }
+            account.user.setEmail(user.getEmail());
+            account.user.setDisplayName(user.getDisplayName());
+            account.user.setAvatarUrl(user.getAvatarUrl());
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean usernameExists(String username) {
+        lock.readLock().lock();
+        try {
+            return byUsername.containsKey(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void presenceChanged(int userId, boolean online, Timestamp changedAt) {
+        lock.writeLock().lock();
+        try {
+            Account account = byId.get(userId);
+            if (account != null) {
+                account.user.setOnline(online);
+                account.user.setLastSeen(changedAt);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveOnlineStatuses(List<PresenceTracker.PresenceChange> changes, String nodeId) {
+        lock.writeLock().lock();
+        try {
+            for (PresenceTracker.PresenceChange change : changes) {
+                Account account = byId.get(change.getUserId());
+                // Going offline only applies while the account still names this node
+                if (account != null && (change.isOnline() || account.nodeId == null || account.nodeId.equals(nodeId))) {
+                    account.user.setOnline(change.isOnline());
+                    account.user.setLastSeen(change.getChangedAt());
+                    account.nodeId = nodeId;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int markAllOffline() {
+        return markOffline(null);
+    }
+
+    @Override
+    public int markNodeOffline(String nodeId) {
+        return markOffline(nodeId);
+    }
+
+    private int markOffline(String nodeId) {
+        int[] cleared = new int[1];
+        lock.writeLock().lock();
+        try {
+            byId.forEachValue(account -> {
+                if (account.user.isOnline()
+                        && (nodeId == null || account.nodeId == null || account.nodeId.equals(nodeId))) {
+                    account.user.setOnline(false);
+                    cleared[0]++;
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return cleared[0];
+    }
+
+    @Override
+    public void loadOnlineUsersOnOtherNodes(String localNodeId, UserDirectory directory) {
+        lock.readLock().lock();
+        try {
+            byId.forEachValue(account -> {
+                if (account.user.isOnline() && account.nodeId != null && !account.nodeId.equals(localNodeId)) {
+                    directory.setOnline(account.user.getUserId(), account.nodeId, account.user.getUsername(),
+                            account.user.getDisplayName());
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public String describe() {
+        int[] online = new int[1];
+        lock.readLock().lock();
+        try {
+            byId.forEachValue(account -> {
+                if (account.user.isOnline()) {
+                    online[0]++;
+                }
+            });
+            return String.format("users=%d, online=%d", byId.size(), online[0]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static final class Account {
+        final User user;
+        String nodeId;
+
+        Account(User user) {
+            this.user = user;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * MessageBus between servers running in the same JVM, joined by channel name
+ * Stand-in for the PostgreSQL bus in single-node deployments (nobody else on the channel) and for
+ * running several nodes in one process while testing. Each bus delivers on its own thread, so a
+ * slow node never holds up the publisher, and in the order events were published.
+ */
+public class InProcessMessageBus implements MessageBus {
+    private static final Logger LOGGER = Logger.getLogger(InProcessMessageBus.class.getName());
+    private static final Map<String, List<InProcessMessageBus>> CHANNELS = new ConcurrentHashMap<>();
+
+    private final String nodeId;
+    private final String channel;
+    private final ExecutorService deliveryThread;
+    private volatile Consumer<BusEvent> handler;
+
+    // Metrics
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong receivedCount = new AtomicLong();
+
+    public InProcessMessageBus(String nodeId, String channel) {
+        this.nodeId = nodeId;
+        this.channel = channel;
+        this.deliveryThread = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bus-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void start(Consumer<BusEvent> handler) {
+        this.handler = handler;
+        CHANNELS.computeIfAbsent(channel, name -> new CopyOnWriteArrayList<>()).add(this);
+    }
+
+    @Override
+    public void publish(BusEvent event) {
+        publishedCount.incrementAndGet();
+        for (InProcessMessageBus peer : CHANNELS.getOrDefault(channel, List.of())) {
+            if (peer != this) {
+                peer.deliver(event);
+            }
+        }
+    }
+
+    private void deliver(BusEvent event) {
+        try {
+            deliveryThread.execute(() -> {
+                receivedCount.incrementAndGet();
+                try {
+                    handler.accept(event);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Bus event " + event.getType() + " failed on node " + nodeId, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed meanwhile
+        }
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void close() {
+        List<InProcessMessageBus> peers = CHANNELS.get(channel);
+        if (peers != null) {
+            peers.remove(this);
+        }
+        deliveryThread.shutdown();
+    }
+
+    @Override
+    public String describe() {
+        return String.format("in-process, node=%s, peers=%d, published=%d, received=%d", nodeId,
+                Math.max(0, CHANNELS.getOrDefault(channel, List.of()).size() - 1), publishedCount.get(),
+                receivedCount.get());
+    }
+}
@@ -0,0 +1,209 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drains the OfflineJournal into PostgreSQL once the database is reachable again
+ * The replayer waits for DatabaseHealthProber to report the database up again; then records are
+ * read batch_size at a time and runs of the same type are written together (messages with one JDBC
+ * batch, presence with one UPDATE batch, registrations one by one) before the journal position
+ * moves past them. Losing the connection mid-replay stops the replay until the prober sees the
+ * database come back, and a saturated pool stops it until the next pass; a record the database
+ * rejects for any other reason is retried on its own and then skipped, so one bad row cannot wedge
+ * the journal.
+ * Online presence written before a restart is skipped, the restart already reset presence.
+ */
+public class JournalReplayer {
+    private static final Logger LOGGER = Logger.getLogger(JournalReplayer.class.getName());
+    private static final long SYNC_INTERVAL_MS = 1000;
+
+    private final OfflineJournal journal;
+    private final DatabaseManager dbManager;
+    private final MessageStore messageStore;
+    private final UserStore userStore;
+    private final SessionStore sessionStore;
+    private final int batchSize;
+    private final Thread replayerThread;
+    private volatile boolean running = true;
+
+    // Metrics
+    private final AtomicLong replayedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+    private final AtomicLong interruptedCount = new AtomicLong();
+
+    public JournalReplayer(OfflineJournal journal, DatabaseManager dbManager, MessageStore messageStore,
+            UserStore userStore, SessionStore sessionStore, int batchSize) {
+        this.journal = journal;
+        this.dbManager = dbManager;
+        this.messageStore = messageStore;
+        this.userStore = userStore;
+        this.sessionStore = sessionStore;
+        this.batchSize = Math.max(1, batchSize);
+
+        this.replayerThread = new Thread(this::runReplayer, "journal-replayer");
+        this.replayerThread.setDaemon(true);
+        this.replayerThread.start();
+    }
+
+    private void runReplayer() {
+        while (running) {
+            try {
+                Thread.sleep(SYNC_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                // shutdown() wakes us up
+            }
+            journal.sync();
+            if (!running) {
+                break;
+            }
+
+            if (dbManager.isAvailable() && journal.hasPending()) {
+                replay();
+            }
+        }
+    }
+
+    /**
+     * Replay batches until the journal is empty or the database goes away again
+     */
+    private void replay() {
+        LOGGER.info("Replaying " + journal.getPendingRecords() + " journaled writes into the database");
+        while (running && journal.hasPending() && dbManager.isAvailable()) {
+            List<OfflineJournal.Entry> entries = journal.read(batchSize);
+            int start = 0;
+            while (start < entries.size()) {
+                int end = start + 1;
+                byte type = entries.get(start).getType();
+                // Registrations commit one by one, a user created before an outage must not be retried
+                while (type != OfflineJournal.TYPE_REGISTRATION && end < entries.size()
+                        && entries.get(end).getType() == type) {
+                    end++;
+                }
+                List<OfflineJournal.Entry> run = entries.subList(start, end);
+                if (!applyRun(run)) {
+                    interruptedCount.incrementAndGet();
+                    LOGGER.warning("Journal replay stopped, database unavailable or busy; "
+                            + journal.getPendingRecords() + " records left");
+                    return;
+                }
+                journal.commit(run.get(run.size() - 1), run.size());
+                replayedCount.addAndGet(run.size());
+                batchCount.incrementAndGet();
+                start = end;
+            }
+        }
+        if (!journal.hasPending()) {
+            journal.sync();
+            LOGGER.info("Journal replay complete: " + describe());
+        }
+    }
+
+    /**
+     * Write one run of records of the same type
+     *
+     * @return false if the database became unreachable or no connection was free; nothing of the
+     *         run may be committed then
+     */
+    private boolean applyRun(List<OfflineJournal.Entry> run) {
+        try {
+            write(run);
+            return true;
+        } catch (SQLException e) {
+            if (dbManager.reportFailure(e) || DatabaseManager.isPoolTimeout(e)) {
+                return false;
+            }
+            if (run.size() > 1) {
+                // Find the record the database rejects; the others still go in
+                for (OfflineJournal.Entry entry : run) {
+                    if (!applyRun(List.of(entry))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            Object value = run.get(0).getValue();
+            if (value instanceof User) {
+                journal.releaseUsername(((User) value).getUsername());
+            }
+            skippedCount.incrementAndGet();
+            LOGGER.log(Level.SEVERE, "Skipping journaled " + value + ", the database rejected it", e);
+            return true;
+        }
+    }
+
+    private void write(List<OfflineJournal.Entry> run) throws SQLException {
+        switch (run.get(0).getType()) {
+            case OfflineJournal.TYPE_MESSAGE: {
+                List<Message> messages = new ArrayList<>(run.size());
+                for (OfflineJournal.Entry entry : run) {
+                    messages.add((Message) entry.getValue());
+                }
+                messageStore.saveMessages(messages);
+                break;
+            }
+            case OfflineJournal.TYPE_PRESENCE:
+                writePresence(run);
+                break;
+            default:
+                for (OfflineJournal.Entry entry : run) {
+                    writeRegistration((User) entry.getValue());
+                }
+        }
+    }
+
+    private void writePresence(List<OfflineJournal.Entry> run) throws SQLException {
+        List<PresenceTracker.PresenceChange> changes = new ArrayList<>(run.size());
+        String nodeId = null;
+        for (OfflineJournal.Entry entry : run) {
+            OfflineJournal.PresenceRecord record = (OfflineJournal.PresenceRecord) entry.getValue();
+            if (entry.isFromPreviousRun() && record.getChange().isOnline()) {
+                continue;
+            }
+            if (nodeId != null && !nodeId.equals(record.getNodeId())) {
+                sessionStore.saveOnlineStatuses(changes, nodeId);
+                changes.clear();
+            }
+            nodeId = record.getNodeId();
+            changes.add(record.getChange());
+        }
+        if (!changes.isEmpty()) {
+            sessionStore.saveOnlineStatuses(changes, nodeId);
+        }
+    }
+
+    /**
+     * Create a user registered during the outage, unless someone took the name on another node
+     * meanwhile. UserStore reports failures as false, so a failure is told apart from a conflict
+     * by probing the database.
+     */
+    private void writeRegistration(User user) throws SQLException {
+        if (userStore.usernameExists(user.getUsername())) {
+            LOGGER.warning("Journaled registration of " + user.getUsername() + " dropped, the name is taken");
+        } else if (!userStore.createUser(user)) {
+            if (!dbManager.checkAvailability()) {
+                throw new SQLException("Database unavailable", "08000");
+            }
+            throw new SQLException("Could not create journaled user " + user.getUsername());
+        }
+        journal.releaseUsername(user.getUsername());
+    }
+
+    public void shutdown(long timeoutMs) {
+        running = false;
+        replayerThread.interrupt();
+        try {
+            replayerThread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String describe() {
+        return String.format("replayed=%d, batches=%d, skipped=%d, interrupted=%d",
+                replayedCount.get(), batchCount.get(), skippedCount.get(), interruptedCount.get());
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram in nanoseconds with log-linear buckets
+ * Every power of two is split into 16 buckets, so a reported percentile is within 6.25% of the
+ * true value, from 1 ns up to about 36 minutes (larger values land in the last bucket). record()
+ * is one atomic increment plus two LongAdder updates and never blocks; percentiles walk the 608
+ * buckets without copying them, so a reading taken while others record is off by at most the
+ * samples that arrived during the walk. Counts are cumulative since the histogram was created.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // another thread raised max meanwhile; retry against its value
+        }
+    }
+
+    /**
+     * Record the time elapsed since a System.nanoTime() reading
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Largest value that falls into a bucket
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSumNanos() {
+        return sum.sum();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public long percentile(double quantile) {
+        long[] result = new long[1];
+        percentiles(new double[] { quantile }, result);
+        return result[0];
+    }
+
+    /**
+     * Fill result with the value at each quantile (ascending, 0..1) in one pass over the buckets,
+     * 0 while nothing was recorded
+     */
+    public void percentiles(double[] quantiles, long[] result) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        int next = 0;
+        if (total > 0) {
+            long seen = 0;
+            long maxValue = max.get();
+            for (int i = 0; i < BUCKETS && next < quantiles.length; i++) {
+                seen += counts.get(i);
+                while (next < quantiles.length && seen >= Math.max(1, (long) Math.ceil(quantiles[next] * total))) {
+                    result[next++] = Math.min(upperBoundOf(i), maxValue);
+                }
+            }
+        }
+        while (next < quantiles.length) {
+            result[next++] = 0;
+        }
+    }
+}
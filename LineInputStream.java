@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Buffered socket input that serves both UTF-8 text lines and raw bytes from one buffer
+ * Unlike BufferedReader/InputStreamReader it holds no monitors, so a virtual thread parked in
+ * readLine() never pins its carrier, and binary reads (e.g. a DataInputStream wrapped around it
+ * for SENDFILE) see exactly the bytes that follow the last line.
+ */
+public class LineInputStream extends InputStream {
+    private static final int MAX_LINE_BYTES = 64 * 1024;
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    private byte[] lineBytes = new byte[256];
+
+    public LineInputStream(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[Math.max(bufferSize, 1024)];
+    }
+
+    /**
+     * Read a line terminated by \n (a trailing \r is dropped), or null at end of stream
+     */
+    public String readLine() throws IOException {
+        int length = 0;
+        while (true) {
+            if (position == limit && !fill()) {
+                return length > 0 ? decode(length) : null;
+            }
+
+            byte b = buffer[position++];
+            if (b == '\n') {
+                return decode(length);
+            }
+            if (length == MAX_LINE_BYTES) {
+                throw new IOException("Line exceeds " + MAX_LINE_BYTES + " bytes");
+            }
+            if (length == lineBytes.length) {
+                lineBytes = Arrays.copyOf(lineBytes, Math.min(length * 2, MAX_LINE_BYTES));
+            }
+            lineBytes[length++] = b;
+        }
+    }
+
+    private String decode(int length) {
+        if (length > 0 && lineBytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(lineBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (position == limit) {
+            // Large reads bypass the buffer once it is drained
+            if (length >= buffer.length) {
+                return in.read(target, offset, length);
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int count = Math.min(length, limit - position);
+        System.arraycopy(buffer, position, target, offset, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Bytes already read from the underlying stream but not yet consumed; callers that switch to
+     * reading the socket channel directly must take these first
+     */
+    public int buffered() {
+        return limit - position;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (limit - position) + in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,278 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test comparing EnhancedServer execution modes
+ * Starts the server once per mode as a child process, registers N chat sessions against it and
+ * reports resident memory as connections per GB plus broadcast latency percentiles.
+ * Sessions REGISTER fresh users; the server runs on in-memory storage by default, so no database is
+ * needed, while --storage postgres measures against the database from config/application.properties.
+ *
+ * Usage: java -cp .:postgresql-42.7.7.jar LoadTest [--clients N] [--messages M]
+ *        [--modes platform,virtual] [--engine blocking|nio] [--storage memory|postgres] [--port P]
+ */
+public class LoadTest {
+    private static final String PING = "lt-ping ";
+
+    private final int clients;
+    private final int messages;
+    private final int port;
+    private final String engine;
+    private final String storage;
+
+    public LoadTest(int clients, int messages, int port, String engine, String storage) {
+        this.clients = clients;
+        this.messages = messages;
+        this.port = port;
+        this.engine = engine;
+        this.storage = storage;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = 1000;
+        int messages = 50;
+        int port = 9777;
+        String engine = "blocking";
+        String modes = "platform,virtual";
+        String storage = "memory";
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--clients":
+                    clients = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--messages":
+                    messages = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--engine":
+                    engine = args[i + 1];
+                    break;
+                case "--modes":
+                    modes = args[i + 1];
+                    break;
+                case "--storage":
+                    storage = args[i + 1];
+                    break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        LoadTest loadTest = new LoadTest(clients, messages, port, engine, storage);
+        List<String> report = new ArrayList<>();
+        for (String mode : modes.split(",")) {
+            report.add(loadTest.runMode(mode.trim()));
+        }
+
+        System.out.println("\n=== Load Test Results (" + clients + " clients, " + messages + " broadcasts) ===");
+        System.out.println(String.format("%-10s %10s %12s %10s %12s %12s %12s",
+                "mode", "connected", "rss_mb", "threads", "conn/GB", "p50_ms", "p99_ms"));
+        report.forEach(System.out::println);
+    }
+
+    private String runMode(String mode) throws Exception {
+        System.out.println("▶ Starting server in " + mode + " mode (" + engine + " engine, " + storage + " storage)...");
+        Files.createDirectories(Paths.get("logs"));
+
+        ProcessBuilder builder = new ProcessBuilder("java", "-cp", System.getProperty("java.class.path"),
+                "EnhancedServer");
+        builder.environment().put("PORT", String.valueOf(port));
+        builder.environment().put("SERVER_EXECUTION_MODE", mode);
+        builder.environment().put("SERVER_ENGINE", engine);
+        builder.environment().put("STORAGE_BACKEND", storage);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(new File("logs/loadtest-server-" + mode + ".log"));
+        Process server = builder.start();
+
+        ExecutorService readers = VirtualThreads.isSupported() ? VirtualThreads.newPerTaskExecutor()
+                : Executors.newCachedThreadPool();
+        List<Session> sessions = new ArrayList<>();
+        try {
+            waitForPort();
+            long baselineRssKb = readProcStatus(server.pid(), "VmRSS");
+
+            String runId = Long.toString(System.currentTimeMillis(), 36);
+            CountDownLatch registered = new CountDownLatch(clients);
+            long[] latencies = new long[Math.max(1, clients * messages)];
+            AtomicInteger received = new AtomicInteger();
+
+            for (int i = 0; i < clients; i++) {
+                Session session = new Session("lt" + runId + "_" + i, registered, latencies, received);
+                session.connect(port);
+                sessions.add(session);
+                readers.submit(session);
+            }
+            registered.await(120, TimeUnit.SECONDS);
+            int connected = (int) sessions.stream().filter(s -> s.loggedIn).count();
+
+            // Let join notifications settle before sampling memory
+            Thread.sleep(2000);
+            long loadedRssKb = readProcStatus(server.pid(), "VmRSS");
+            long threads = readProcStatus(server.pid(), "Threads");
+
+            received.set(0);
+            Session sender = sessions.stream().filter(s -> s.loggedIn).findFirst().orElse(null);
+            if (sender != null) {
+                for (int m = 0; m < messages; m++) {
+                    sender.send(PING + System.nanoTime());
+                    Thread.sleep(20);
+                }
+                long deadline = System.currentTimeMillis() + 60_000;
+                int expected = Math.min(latencies.length, messages * connected);
+                while (received.get() < expected && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(50);
+                }
+            }
+
+            int samples = Math.min(received.get(), latencies.length);
+            long[] sorted = Arrays.copyOf(latencies, samples);
+            Arrays.sort(sorted);
+
+            double rssMb = loadedRssKb > 0 ? loadedRssKb / 1024.0 : -1;
+            long deltaKb = loadedRssKb - baselineRssKb;
+            String perGb = (baselineRssKb > 0 && deltaKb > 0)
+                    ? String.format("%.0f", connected / (deltaKb / (1024.0 * 1024.0)))
+                    : "n/a";
+
+            return String.format("%-10s %10d %12.1f %10d %12s %12.2f %12.2f",
+                    mode, connected, rssMb, threads, perGb,
+                    percentile(sorted, 0.50) / 1_000_000.0, percentile(sorted, 0.99) / 1_000_000.0);
+        } finally {
+            for (Session session : sessions) {
+                session.close();
+            }
+            readers.shutdownNow();
+            server.destroy();
+            if (!server.waitFor(10, TimeUnit.SECONDS)) {
+                server.destroyForcibly();
+            }
+        }
+    }
+
+    private void waitForPort() throws InterruptedException, IOException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (System.currentTimeMillis() < deadline) {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress("127.0.0.1", port), 500);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(250);
+            }
+        }
+        throw new IOException("Server did not open port " + port);
+    }
+
+    /**
+     * Read a numeric field (kB for memory) from /proc/<pid>/status, -1 when unavailable
+     */
+    private static long readProcStatus(long pid, String field) {
+        Path status = Paths.get("/proc", String.valueOf(pid), "status");
+        try {
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith(field + ":")) {
+                    return Long.parseLong(line.substring(field.length() + 1).trim().split("\\s+")[0]);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /**
+     * One simulated chat user: registers, then records latency of every ping it receives
+     */
+    private static final class Session implements Runnable {
+        private final String username;
+        private final CountDownLatch registered;
+        private final long[] latencies;
+        private final AtomicInteger received;
+        private Socket socket;
+        private OutputStream output;
+        private volatile boolean loggedIn;
+
+        Session(String username, CountDownLatch registered, long[] latencies, AtomicInteger received) {
+            this.username = username;
+            this.registered = registered;
+            this.latencies = latencies;
+            this.received = received;
+        }
+
+        void connect(int port) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            output = socket.getOutputStream();
+            send("REGISTER " + username + " loadtest " + username);
+        }
+
+        void send(String line) throws IOException {
+            output.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void run() {
+            boolean counted = false;
+            try {
+                LineInputStream input = new LineInputStream(socket.getInputStream(), 4096);
+                String line;
+                while ((line = input.readLine()) != null) {
+                    int ping = line.indexOf(PING);
+                    if (ping >= 0) {
+                        long sentAt = Long.parseLong(line.substring(ping + PING.length()).trim());
+                        int slot = received.getAndIncrement();
+                        if (slot < latencies.length) {
+                            latencies[slot] = System.nanoTime() - sentAt;
+                        }
+                    } else if (!counted && line.startsWith("✅")) {
+                        loggedIn = true;
+                        counted = true;
+                        registered.countDown();
+                    } else if (!counted && line.contains("Disconnecting")) {
+                        counted = true;
+                        registered.countDown();
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // Connection closed by the test or the server
+            } finally {
+                if (!counted) {
+                    registered.countDown();
+                }
+            }
+        }
+
+        void close() {
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // Ignore, the test is finishing
+            }
+        }
+    }
+}
@@ -8,6 +8,7 @@ public class Message {
     private int senderId;
     private int roomId;
     private Integer recipientId; // for private messages
+    private Integer conversationId; // canonical sender/recipient pair of a private message
     private String messageText;
     private String messageType;
     private String filePath;
@@ -15,12 +16,14 @@ public class Message {
     private String fileName;
     private Timestamp sentAt;
     private Timestamp editedAt;
+    private Timestamp deliveredAt; // null while a private message waits for its offline recipient
     private boolean isEncrypted;
     private Integer replyTo;
 
     // Constructors
     public Message() {
         this.sentAt = new Timestamp(System.currentTimeMillis());
+        this.deliveredAt = this.sentAt;
         this.messageType = "text";
         this.isEncrypted = false;
     }
@@ -64,6 +67,14 @@ public class Message {
         this.recipientId = recipientId;
     }
 
+    public Integer getConversationId() {
+        return conversationId;
+    }
+
+    public void setConversationId(Integer conversationId) {
+        this.conversationId = conversationId;
+    }
+
     public String getMessageText() {
         return messageText;
     }
@@ -112,6 +123,14 @@ public class Message {
         this.sentAt = sentAt;
     }
 
+    public Timestamp getDeliveredAt() {
+        return deliveredAt;
+    }
+
+    public void setDeliveredAt(Timestamp deliveredAt) {
+        this.deliveredAt = deliveredAt;
+    }
+
     public Timestamp getEditedAt() {
         return editedAt;
     }
@@ -0,0 +1,22 @@
+import java.util.function.Consumer;
+
+/**
+ * Channel between EnhancedServer nodes that share one database
+ * publish() never blocks the caller on the network and never delivers an event back to the node
+ * that published it. Delivery is best effort and in publish order per node; anything that must
+ * survive a lost event (private messages, membership) is also in the database.
+ */
+public interface MessageBus {
+    /**
+     * Start delivering events from other nodes to the handler, on a thread of the bus
+     */
+    void start(Consumer<BusEvent> handler);
+
+    void publish(BusEvent event);
+
+    String getNodeId();
+
+    void close();
+
+    String describe();
+}
@@ -0,0 +1,36 @@
+import java.sql.Timestamp;
+
+/**
+ * Keyset position in message history: the (sent_at, message_id) of the oldest message already
+ * returned. The next page is everything strictly before it, which the composite
+ * (..., sent_at, message_id) indexes answer without an OFFSET scan.
+ */
+public final class MessageCursor {
+    private final Timestamp sentAt;
+    private final int messageId;
+
+    public MessageCursor(Timestamp sentAt, int messageId) {
+        this.sentAt = sentAt;
+        this.messageId = messageId;
+    }
+
+    /**
+     * Cursor continuing after the oldest message of a newest-first page
+     */
+    public static MessageCursor before(Message oldest) {
+        return new MessageCursor(oldest.getSentAt(), oldest.getMessageId());
+    }
+
+    public Timestamp getSentAt() {
+        return sentAt;
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageCursor{sentAt=" + sentAt + ", id=" + messageId + "}";
+    }
+}
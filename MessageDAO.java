@@ -1,5 +1,7 @@
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.logging.Logger;
 import java.util.logging.Level;
@@ -7,58 +9,45 @@ import java.util.logging.Level;
 /**
  * Data Access Object for Message operations
  */
-public class MessageDAO {
+public class MessageDAO implements MessageStore {
     private static final Logger LOGGER = Logger.getLogger(MessageDAO.class.getName());
     private final DatabaseManager dbManager;
+    private final ConversationDAO conversationDAO;
 
     public MessageDAO() {
+        this(new ConversationDAO());
+    }
+
+    public MessageDAO(ConversationDAO conversationDAO) {
         this.dbManager = DatabaseManager.getInstance();
+        this.conversationDAO = conversationDAO;
     }
 
+    // What a history page, the warm-up and the recent search index use, in mapHistoryRow's order
+    static final String HISTORY_COLUMNS = "message_id, sender_id, room_id, recipient_id, message_text, sent_at";
+    // A claimed message is only formatted for its recipient, in mapClaimedRow's order
+    private static final String CLAIM_COLUMNS = "message_id, sender_id, message_text, sent_at";
+    // A search hit is only formatted for display (paging is by offset), in mapSearchRow's order
+    private static final String SEARCH_COLUMNS = "m.sender_id, m.recipient_id, m.message_text, m.sent_at";
+
+    private static final String INSERT_MESSAGE_SQL = "INSERT INTO messages (sender_id, room_id, recipient_id, " +
+            "message_text, message_type, file_path, file_size, file_name, is_encrypted, reply_to, sent_at, " +
+            "conversation_id, delivered_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
     /**
      * Save a new message to the database
      */
+    @Override
     public boolean saveMessage(Message message) {
-        String sql = "INSERT INTO messages (sender_id, room_id, recipient_id, message_text, " +
-                "message_type, file_path, file_size, file_name, is_encrypted, reply_to) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-
-        try (PreparedStatement stmt = dbManager.getConnection().prepareStatement(sql,
-                Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setInt(1, message.getSenderId());
-
-            // Handle optional room_id
-            if (message.getRoomId() > 0) {
-                stmt.setInt(2, message.getRoomId());
-            } else {
-                stmt.setNull(2, Types.INTEGER);
-            }
-
-            // Handle optional recipient_id
-            if (message.getRecipientId() != null) {
-                stmt.setInt(3, message.getRecipientId());
-            } else {
-                stmt.setNull(3, Types.INTEGER);
-            }
-
-            stmt.setString(4, message.getMessageText());
-            stmt.setString(5, message.getMessageType());
-            stmt.setString(6, message.getFilePath());
-
-            if (message.getFileSize() != null) {
-                stmt.setLong(7, message.getFileSize());
-            } else {
-                stmt.setNull(7, Types.BIGINT);
-            }
-
-            stmt.setString(8, message.getFileName());
-            stmt.setBoolean(9, message.isEncrypted());
-
-            if (message.getReplyTo() != null) {
-                stmt.setInt(10, message.getReplyTo());
-            } else {
-                stmt.setNull(10, Types.INTEGER);
-            }
+        try {
+            resolveConversation(message);
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error resolving conversation for message", e);
+            return false;
+        }
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(INSERT_MESSAGE_SQL, Statement.RETURN_GENERATED_KEYS)) {
+            bindMessage(stmt, message);
 
             int rowsAffected = stmt.executeUpdate();
 
@@ -69,107 +58,361 @@ public class MessageDAO {
                         message.setMessageId(generatedKeys.getInt(1));
                     }
                 }
-                dbManager.commitTransaction();
+                dbManager.commit(conn);
                 return true;
             }
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Error saving message", e);
-            dbManager.rollbackTransaction();
         }
         return false;
     }
 
     /**
-     * Get recent messages for a room
+     * Save a batch of messages in one round-trip and one commit.
+     * Generated IDs are copied back onto the messages in order.
      */
-    public List<Message> getRecentMessages(int roomId, int limit) {
-        List<Message> messages = new ArrayList<>();
-        String sql = "SELECT * FROM messages WHERE room_id = ? ORDER BY sent_at DESC LIMIT ?";
-
-        try (PreparedStatement stmt = dbManager.getConnection().prepareStatement(sql)) {
-            stmt.setInt(1, roomId);
-            stmt.setInt(2, limit);
+    @Override
+    public void saveMessages(List<Message> messages) throws SQLException {
+        // Before borrowing the batch connection, so a small pool cannot deadlock on itself
+        for (Message message : messages) {
+            resolveConversation(message);
+        }
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(INSERT_MESSAGE_SQL, new String[] { "message_id" })) {
+            for (Message message : messages) {
+                bindMessage(stmt, message);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
 
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    messages.add(0, mapResultSetToMessage(rs)); // Add to beginning to maintain chronological order
+            try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                int index = 0;
+                while (generatedKeys.next() && index < messages.size()) {
+                    messages.get(index++).setMessageId(generatedKeys.getInt(1));
                 }
             }
+            dbManager.commit(conn);
+        }
+    }
+
+    private void resolveConversation(Message message) throws SQLException {
+        if (message.getRecipientId() != null && message.getConversationId() == null) {
+            message.setConversationId(
+                    conversationDAO.getOrCreateConversationId(message.getSenderId(), message.getRecipientId()));
+        }
+    }
+
+    private void bindMessage(PreparedStatement stmt, Message message) throws SQLException {
+        stmt.setInt(1, message.getSenderId());
+
+        // Handle optional room_id
+        if (message.getRoomId() > 0) {
+            stmt.setInt(2, message.getRoomId());
+        } else {
+            stmt.setNull(2, Types.INTEGER);
+        }
+
+        // Handle optional recipient_id
+        if (message.getRecipientId() != null) {
+            stmt.setInt(3, message.getRecipientId());
+        } else {
+            stmt.setNull(3, Types.INTEGER);
+        }
+
+        stmt.setString(4, message.getMessageText());
+        stmt.setString(5, message.getMessageType());
+        stmt.setString(6, message.getFilePath());
+
+        if (message.getFileSize() != null) {
+            stmt.setLong(7, message.getFileSize());
+        } else {
+            stmt.setNull(7, Types.BIGINT);
+        }
+
+        stmt.setString(8, message.getFileName());
+        stmt.setBoolean(9, message.isEncrypted());
+
+        if (message.getReplyTo() != null) {
+            stmt.setInt(10, message.getReplyTo());
+        } else {
+            stmt.setNull(10, Types.INTEGER);
+        }
+
+        // Keep the time the message was sent, not the time the write-behind flushed it
+        stmt.setTimestamp(11, message.getSentAt());
+
+        if (message.getConversationId() != null) {
+            stmt.setInt(12, message.getConversationId());
+        } else {
+            stmt.setNull(12, Types.INTEGER);
+        }
+
+        stmt.setTimestamp(13, message.getDeliveredAt());
+    }
+
+    /**
+     * Mark up to limit of a user's undelivered private messages as delivered and return them,
+     * oldest first. The claim is one statement over idx_messages_undelivered; SKIP LOCKED lets a
+     * concurrent claim for the same user take the next rows instead of waiting, so every message
+     * is handed out exactly once.
+     */
+    @Override
+    public List<Message> claimUndeliveredMessages(int recipientId, int limit) {
+        String sql = "UPDATE messages SET delivered_at = CURRENT_TIMESTAMP WHERE message_id IN (" +
+                "SELECT message_id FROM messages WHERE recipient_id = ? AND delivered_at IS NULL " +
+                "ORDER BY sent_at, message_id LIMIT ? FOR UPDATE SKIP LOCKED) RETURNING " + CLAIM_COLUMNS;
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, recipientId);
+            stmt.setInt(2, limit);
+            List<Message> messages = readMessages(stmt, limit, rs -> mapClaimedRow(rs, recipientId));
+            dbManager.commit(conn);
+            messages.sort(Comparator.comparing(Message::getSentAt).thenComparingInt(Message::getMessageId));
+            return messages;
         } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Error getting recent messages for room: " + roomId, e);
+            LOGGER.log(Level.SEVERE, "Error claiming undelivered messages for user: " + recipientId, e);
         }
-        return messages;
+        return new ArrayList<>();
     }
 
     /**
-     * Get private messages between two users
+     * Claim one stored private message for delivery, e.g. on the node its recipient is connected to
+     *
+     * @return false if it was already delivered (say, by a login claim) or the claim failed
+     */
+    @Override
+    public boolean claimMessage(int messageId) {
+        String sql = "UPDATE messages SET delivered_at = CURRENT_TIMESTAMP WHERE message_id = ? AND delivered_at IS NULL";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, messageId);
+            int rowsAffected = stmt.executeUpdate();
+            dbManager.commit(conn);
+            return rowsAffected > 0;
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error claiming message: " + messageId, e);
+        }
+        return false;
+    }
+
+    /**
+     * Get recent messages for a room, oldest first
+     */
+    public List<Message> getRecentMessages(int roomId, int limit) {
+        return chronological(getRoomHistory(roomId, null, limit));
+    }
+
+    /**
+     * Get private messages between two users, oldest first
      */
     public List<Message> getPrivateMessages(int user1Id, int user2Id, int limit) {
-        List<Message> messages = new ArrayList<>();
-        String sql = "SELECT * FROM messages WHERE " +
-                "((sender_id = ? AND recipient_id = ?) OR (sender_id = ? AND recipient_id = ?)) " +
-                "ORDER BY sent_at DESC LIMIT ?";
-
-        try (PreparedStatement stmt = dbManager.getConnection().prepareStatement(sql)) {
-            stmt.setInt(1, user1Id);
-            stmt.setInt(2, user2Id);
-            stmt.setInt(3, user2Id);
-            stmt.setInt(4, user1Id);
-            stmt.setInt(5, limit);
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    messages.add(0, mapResultSetToMessage(rs));
-                }
-            }
+        return chronological(getPrivateHistory(user1Id, user2Id, null, limit));
+    }
+
+    /**
+     * Get message history for a user, newest first
+     */
+    public List<Message> getUserMessageHistory(int userId, int limit) {
+        return getUserHistory(userId, null, limit);
+    }
+
+    // ===== Keyset pagination =====
+    // Every page is ordered newest first by (sent_at, message_id); pass MessageCursor.before() of
+    // the last message to get the next, older page. A null cursor starts at the newest message.
+
+    /**
+     * One page of a room's history, served by idx_messages_room_sent
+     */
+    @Override
+    public List<Message> getRoomHistory(int roomId, MessageCursor before, int limit) {
+        String sql = "SELECT " + HISTORY_COLUMNS + " FROM messages WHERE room_id = ?" + keysetCondition(before)
+                + " ORDER BY sent_at DESC, message_id DESC LIMIT ?";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, roomId);
+            int index = bindKeyset(stmt, 2, before);
+            stmt.setInt(index, limit);
+            return readMessages(stmt, limit, MessageDAO::mapHistoryRow);
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error getting history for room: " + roomId, e);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * One page of the conversation between two users: a single range of
+     * idx_messages_conversation_sent, whichever direction each message went
+     */
+    @Override
+    public List<Message> getPrivateHistory(int user1Id, int user2Id, MessageCursor before, int limit) {
+        int conversationId = conversationDAO.findConversationId(user1Id, user2Id);
+        if (conversationId == 0) {
+            return new ArrayList<>();
+        }
+        String sql = "SELECT " + HISTORY_COLUMNS + " FROM messages WHERE conversation_id = ?" + keysetCondition(before)
+                + " ORDER BY sent_at DESC, message_id DESC LIMIT ?";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, conversationId);
+            int index = bindKeyset(stmt, 2, before);
+            stmt.setInt(index, limit);
+            return readMessages(stmt, limit, MessageDAO::mapHistoryRow);
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Error getting private messages between users: " + user1Id + " and " + user2Id, e);
         }
-        return messages;
+        return new ArrayList<>();
     }
 
     /**
-     * Get message history for a user
+     * One page of the messages a user sent, served by idx_messages_sender_sent
      */
-    public List<Message> getUserMessageHistory(int userId, int limit) {
-        List<Message> messages = new ArrayList<>();
-        String sql = "SELECT * FROM messages WHERE sender_id = ? ORDER BY sent_at DESC LIMIT ?";
+    @Override
+    public List<Message> getUserHistory(int userId, MessageCursor before, int limit) {
+        String sql = "SELECT " + HISTORY_COLUMNS + " FROM messages WHERE sender_id = ?" + keysetCondition(before)
+                + " ORDER BY sent_at DESC, message_id DESC LIMIT ?";
 
-        try (PreparedStatement stmt = dbManager.getConnection().prepareStatement(sql)) {
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, userId);
-            stmt.setInt(2, limit);
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    messages.add(mapResultSetToMessage(rs));
-                }
-            }
+            int index = bindKeyset(stmt, 2, before);
+            stmt.setInt(index, limit);
+            return readMessages(stmt, limit, MessageDAO::mapHistoryRow);
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Error getting message history for user: " + userId, e);
         }
+        return new ArrayList<>();
+    }
+
+    /**
+     * The newest perConversation messages of every private conversation with a message since
+     * the given time, in chronological order; used to warm MessageHistory at startup
+     */
+    @Override
+    public List<Message> getRecentConversationMessages(Timestamp since, int perConversation) {
+        String sql = "SELECT " + HISTORY_COLUMNS + " FROM (SELECT " + HISTORY_COLUMNS + ", ROW_NUMBER() OVER (" +
+                "PARTITION BY conversation_id " +
+                "ORDER BY sent_at DESC, message_id DESC) AS position " +
+                "FROM messages WHERE conversation_id IS NOT NULL AND sent_at > ?) recent " +
+                "WHERE position <= ? ORDER BY sent_at, message_id";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setTimestamp(1, since);
+            stmt.setInt(2, perConversation);
+            return readMessages(stmt, perConversation, MessageDAO::mapHistoryRow);
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error loading recent private conversations", e);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * The newest messages of all rooms and conversations, newest first, served by
+     * idx_messages_sent_at; used to warm MessageSearchIndex at startup
+     */
+    @Override
+    public List<Message> getRecentMessages(int limit) {
+        String sql = "SELECT " + HISTORY_COLUMNS + " FROM messages ORDER BY sent_at DESC, message_id DESC LIMIT ?";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, limit);
+            return readMessages(stmt, limit, MessageDAO::mapHistoryRow);
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error loading recent messages", e);
+        }
+        return new ArrayList<>();
+    }
+
+    private static String keysetCondition(MessageCursor before) {
+        return before == null ? "" : " AND (sent_at, message_id) < (?, ?)";
+    }
+
+    private static int bindKeyset(PreparedStatement stmt, int index, MessageCursor before) throws SQLException {
+        if (before == null) {
+            return index;
+        }
+        stmt.setTimestamp(index++, before.getSentAt());
+        stmt.setInt(index++, before.getMessageId());
+        return index;
+    }
+
+    private List<Message> readMessages(PreparedStatement stmt, int limit, RowMapper mapper) throws SQLException {
+        List<Message> messages = new ArrayList<>(Math.max(0, Math.min(limit, 1000)));
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                messages.add(mapper.map(rs));
+            }
+        }
         return messages;
     }
 
+    private static List<Message> chronological(List<Message> newestFirst) {
+        Collections.reverse(newestFirst);
+        return newestFirst;
+    }
+
     /**
-     * Search messages by text content
+     * Search messages by text content, best match first
      */
     public List<Message> searchMessages(String searchText, int limit) {
-        List<Message> messages = new ArrayList<>();
-        String sql = "SELECT * FROM messages WHERE message_text ILIKE ? ORDER BY sent_at DESC LIMIT ?";
-
-        try (PreparedStatement stmt = dbManager.getConnection().prepareStatement(sql)) {
-            stmt.setString(1, "%" + searchText + "%");
-            stmt.setInt(2, limit);
+        return searchMessages(searchText, 0, 0, 0, limit, 0);
+    }
 
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    messages.add(mapResultSetToMessage(rs));
-                }
+    /**
+     * Ranked full-text search backed by the GIN index idx_messages_search. The query uses web
+     * search syntax ("quoted phrases", -excluded, or) over the 'simple' configuration, which
+     * lower-cases words without stemming so results match MessageSearchIndex.
+     *
+     * @param viewerId private messages are only returned to their sender and recipient, room
+     *                 messages only to members of the room; 0 skips both checks (admin use)
+     * @param roomId   0 for any room
+     * @param senderId 0 for any sender
+     */
+    @Override
+    public List<Message> searchMessages(String searchText, int viewerId, int roomId, int senderId, int limit,
+            int offset) {
+        StringBuilder sql = new StringBuilder("SELECT " + SEARCH_COLUMNS + ", ts_rank(to_tsvector('simple', m.message_text), q) AS rank " +
+                "FROM messages m, websearch_to_tsquery('simple', ?) q " +
+                "WHERE to_tsvector('simple', m.message_text) @@ q");
+        if (viewerId > 0) {
+            sql.append(" AND (m.recipient_id IS NULL OR m.sender_id = ? OR m.recipient_id = ?)");
+            sql.append(" AND (m.room_id IS NULL OR m.room_id IN (SELECT room_id FROM room_members WHERE user_id = ?))");
+        }
+        if (roomId > 0) {
+            sql.append(" AND m.room_id = ?");
+        }
+        if (senderId > 0) {
+            sql.append(" AND m.sender_id = ?");
+        }
+        sql.append(" ORDER BY rank DESC, m.sent_at DESC, m.message_id DESC LIMIT ? OFFSET ?");
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int index = 1;
+            stmt.setString(index++, searchText);
+            if (viewerId > 0) {
+                stmt.setInt(index++, viewerId);
+                stmt.setInt(index++, viewerId);
+                stmt.setInt(index++, viewerId);
+            }
+            if (roomId > 0) {
+                stmt.setInt(index++, roomId);
             }
+            if (senderId > 0) {
+                stmt.setInt(index++, senderId);
+            }
+            stmt.setInt(index++, limit);
+            stmt.setInt(index, Math.max(0, offset));
+            return readMessages(stmt, limit, MessageDAO::mapSearchRow);
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Error searching messages: " + searchText, e);
         }
-        return messages;
+        return new ArrayList<>();
     }
 
     /**
@@ -179,55 +422,72 @@ public class MessageDAO {
         String sql = "UPDATE messages SET message_text = '[Message deleted]', edited_at = CURRENT_TIMESTAMP " +
                 "WHERE message_id = ? AND sender_id = ?";
 
-        try (PreparedStatement stmt = dbManager.getConnection().prepareStatement(sql)) {
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, messageId);
             stmt.setInt(2, userId);
 
             int rowsAffected = stmt.executeUpdate();
             if (rowsAffected > 0) {
-                dbManager.commitTransaction();
+                dbManager.commit(conn);
                 return true;
             }
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Error deleting message: " + messageId, e);
-            dbManager.rollbackTransaction();
         }
         return false;
     }
 
+    private interface RowMapper {
+        Message map(ResultSet rs) throws SQLException;
+    }
+
     /**
-     * Map ResultSet to Message object
+     * Map a row starting with HISTORY_COLUMNS to a Message object
      */
-    private Message mapResultSetToMessage(ResultSet rs) throws SQLException {
+    static Message mapHistoryRow(ResultSet rs) throws SQLException {
         Message message = new Message();
-        message.setMessageId(rs.getInt("message_id"));
-        message.setSenderId(rs.getInt("sender_id"));
-        message.setRoomId(rs.getInt("room_id"));
+        message.setMessageId(rs.getInt(1));
+        message.setSenderId(rs.getInt(2));
+        message.setRoomId(rs.getInt(3));
 
-        int recipientId = rs.getInt("recipient_id");
+        int recipientId = rs.getInt(4);
         if (!rs.wasNull()) {
             message.setRecipientId(recipientId);
         }
 
-        message.setMessageText(rs.getString("message_text"));
-        message.setMessageType(rs.getString("message_type"));
-        message.setFilePath(rs.getString("file_path"));
+        message.setMessageText(rs.getString(5));
+        message.setSentAt(rs.getTimestamp(6));
+        return message;
+    }
 
-        long fileSize = rs.getLong("file_size");
-        if (!rs.wasNull()) {
-            message.setFileSize(fileSize);
-        }
+    /**
+     * Map a row of CLAIM_COLUMNS to a Message object addressed to recipientId
+     */
+    private static Message mapClaimedRow(ResultSet rs, int recipientId) throws SQLException {
+        Message message = new Message();
+        message.setMessageId(rs.getInt(1));
+        message.setSenderId(rs.getInt(2));
+        message.setRecipientId(recipientId);
+        message.setMessageText(rs.getString(3));
+        message.setSentAt(rs.getTimestamp(4));
+        return message;
+    }
 
-        message.setFileName(rs.getString("file_name"));
-        message.setSentAt(rs.getTimestamp("sent_at"));
-        message.setEditedAt(rs.getTimestamp("edited_at"));
-        message.setEncrypted(rs.getBoolean("is_encrypted"));
+    /**
+     * Map a row starting with SEARCH_COLUMNS to a Message object
+     */
+    private static Message mapSearchRow(ResultSet rs) throws SQLException {
+        Message message = new Message();
+        message.setSenderId(rs.getInt(1));
 
-        int replyTo = rs.getInt("reply_to");
+        int recipientId = rs.getInt(2);
         if (!rs.wasNull()) {
-            message.setReplyTo(replyTo);
+            message.setRecipientId(recipientId);
         }
 
+        message.setMessageText(rs.getString(3));
+        message.setSentAt(rs.getTimestamp(4));
         return message;
     }
 }
@@ -0,0 +1,141 @@
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.logging.Logger;
+
+/**
+ * Recent room and private history served from memory
+ * Each room and conversation keeps a MessageRing of its last ring_size messages, filled as
+ * messages are sent and warmed from the MessageStore at startup. A page is answered from the ring and
+ * only the part older than the ring goes to the database, so /history and join backfill for
+ * recent messages never touch PostgreSQL.
+ */
+public class MessageHistory {
+    private static final Logger LOGGER = Logger.getLogger(MessageHistory.class.getName());
+
+    private final MessageStore messageStore;
+    private final int ringSize;
+    private final Map<Integer, MessageRing> rooms = new ConcurrentHashMap<>();
+    private final Map<Long, MessageRing> conversations = new ConcurrentHashMap<>();
+
+    // Metrics
+    private final AtomicLong memoryPages = new AtomicLong();
+    private final AtomicLong databasePages = new AtomicLong();
+
+    public MessageHistory(MessageStore messageStore, int ringSize) {
+        this.messageStore = messageStore;
+        this.ringSize = Math.max(1, ringSize);
+    }
+
+    /**
+     * Load the newest messages of a room unless it already has a ring; call before the room
+     * receives live messages
+     */
+    public void warmRoom(int roomId) {
+        if (rooms.containsKey(roomId)) {
+            return;
+        }
+        List<Message> newestFirst = messageStore.getRoomHistory(roomId, null, ringSize);
+        MessageRing ring = new MessageRing(ringSize, newestFirst.size() == ringSize);
+        for (int i = newestFirst.size() - 1; i >= 0; i--) {
+            ring.add(newestFirst.get(i));
+        }
+        rooms.put(roomId, ring);
+    }
+
+    /**
+     * Load the newest messages of every conversation active in the last activeDays days.
+     * Older conversations get a ring on their next message and read the rest from the database.
+     */
+    public void warmConversations(int activeDays) {
+        Timestamp since = new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(activeDays));
+        Map<Long, List<Message>> recent = new HashMap<>();
+        for (Message message : messageStore.getRecentConversationMessages(since, ringSize)) {
+            recent.computeIfAbsent(ConversationDAO.conversationKey(message.getSenderId(), message.getRecipientId()),
+                    key -> new ArrayList<>()).add(message);
+        }
+        for (Map.Entry<Long, List<Message>> entry : recent.entrySet()) {
+            // The query only looked back to since, so a short ring proves nothing about older messages
+            MessageRing ring = new MessageRing(ringSize, true);
+            entry.getValue().forEach(ring::add);
+            conversations.put(entry.getKey(), ring);
+        }
+        LOGGER.info("Message history warmed: " + rooms.size() + " rooms, " + conversations.size() + " conversations");
+    }
+
+    public void addRoomMessage(int roomId, Message message) {
+        rooms.computeIfAbsent(roomId, id -> new MessageRing(ringSize, true)).add(message);
+    }
+
+    public void addPrivateMessage(Message message) {
+        conversations.computeIfAbsent(ConversationDAO.conversationKey(message.getSenderId(), message.getRecipientId()),
+                key -> new MessageRing(ringSize, true)).add(message);
+    }
+
+    /**
+     * One page of room history, newest first, like MessageStore.getRoomHistory
+     */
+    public List<Message> getRoomHistory(int roomId, MessageCursor before, int limit) {
+        return page(rooms.get(roomId), before, limit,
+                (cursor, remaining) -> messageStore.getRoomHistory(roomId, cursor, remaining));
+    }
+
+    /**
+     * One page of a private conversation, newest first, like MessageStore.getPrivateHistory
+     */
+    public List<Message> getPrivateHistory(int user1Id, int user2Id, MessageCursor before, int limit) {
+        return page(conversations.get(ConversationDAO.conversationKey(user1Id, user2Id)), before, limit,
+                (cursor, remaining) -> messageStore.getPrivateHistory(user1Id, user2Id, cursor, remaining));
+    }
+
+    /**
+     * Ring of a room, or null if it has none
+     */
+    public MessageRing getRoomRing(int roomId) {
+        return rooms.get(roomId);
+    }
+
+    /**
+     * Rings of the conversations of one user that are held in memory, keyed by the other participant
+     */
+    public Map<Integer, MessageRing> getConversationRings(int userId) {
+        Map<Integer, MessageRing> rings = new HashMap<>();
+        for (Map.Entry<Long, MessageRing> entry : conversations.entrySet()) {
+            int low = (int) (entry.getKey() >>> 32);
+            int high = (int) (long) entry.getKey();
+            if (low == userId || high == userId) {
+                rings.put(low == userId ? high : low, entry.getValue());
+            }
+        }
+        return rings;
+    }
+
+    private List<Message> page(MessageRing ring, MessageCursor before, int limit,
+            BiFunction<MessageCursor, Integer, List<Message>> database) {
+        if (ring == null) {
+            databasePages.incrementAndGet();
+            return database.apply(before, limit);
+        }
+        List<Message> page = ring.page(before, limit);
+        if (page.size() < limit && ring.hasOlderInDatabase()) {
+            // Continue below the oldest message the ring returned
+            MessageCursor from = page.isEmpty() ? before : MessageCursor.before(page.get(page.size() - 1));
+            page.addAll(database.apply(from, limit - page.size()));
+            databasePages.incrementAndGet();
+        } else {
+            memoryPages.incrementAndGet();
+        }
+        return page;
+    }
+
+    public String describe() {
+        return String.format("rooms=%d, conversations=%d, ring=%d, memoryPages=%d, databasePages=%d",
+                rooms.size(), conversations.size(), ringSize, memoryPages.get(), databasePages.get());
+    }
+}
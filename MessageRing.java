@@ -0,0 +1,126 @@
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-size lock-free ring of the most recent messages of one room or conversation
+ * Writers claim a sequence number with one getAndIncrement and publish an immutable slot holding
+ * that sequence; readers walk back from the newest sequence and stop at the first slot that a
+ * later lap has overwritten. A slot whose writer has claimed but not yet published it is skipped,
+ * so readers never block and never see a torn entry.
+ */
+public class MessageRing {
+    // Database keyset order, newest first; sequence order can differ by a few milliseconds when
+    // senders race between creating a message and adding it
+    private static final Comparator<Message> NEWEST_FIRST = Comparator.comparing(Message::getSentAt)
+            .thenComparingInt(Message::getMessageId).reversed();
+
+    private final AtomicReferenceArray<Slot> slots;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final int capacity;
+    private volatile boolean olderInDatabase;
+
+    /**
+     * @param olderInDatabase whether messages older than the first one added may exist in the database
+     */
+    public MessageRing(int capacity, boolean olderInDatabase) {
+        this.capacity = Math.max(1, capacity);
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+        this.olderInDatabase = olderInDatabase;
+    }
+
+    public void add(Message message) {
+        long sequence = nextSequence.getAndIncrement();
+        if (sequence >= capacity) {
+            olderInDatabase = true;
+        }
+        slots.set((int) (sequence % capacity), new Slot(sequence, message));
+    }
+
+    /**
+     * Messages strictly before the cursor (all when it is null), at most limit, sorted newest first
+     * by (sent_at, message_id) so the last one is a safe cursor for continuing in the database
+     */
+    public List<Message> page(MessageCursor before, int limit) {
+        List<Message> page = new ArrayList<>(Math.min(limit, capacity));
+        long newest = nextSequence.get() - 1;
+        long oldest = Math.max(0, newest - capacity + 1);
+        for (long sequence = newest; sequence >= oldest && page.size() < limit; sequence--) {
+            Slot slot = slots.get((int) (sequence % capacity));
+            if (slot == null || slot.sequence < sequence) {
+                continue; // claimed but not yet published
+            }
+            if (slot.sequence > sequence) {
+                break; // overwritten by a newer lap, everything older is gone too
+            }
+            if (before == null || isBefore(slot.message, before)) {
+                page.add(slot.message);
+            }
+        }
+        page.sort(NEWEST_FIRST);
+        return page;
+    }
+
+    /**
+     * Keyset order of the database: (sent_at, message_id). Messages still waiting in the
+     * write-behind queue have no id yet, so for them only sent_at decides.
+     */
+    private static boolean isBefore(Message message, MessageCursor cursor) {
+        int order = message.getSentAt().compareTo(cursor.getSentAt());
+        if (order != 0) {
+            return order < 0;
+        }
+        return message.getMessageId() > 0 && cursor.getMessageId() > 0
+                && message.getMessageId() < cursor.getMessageId();
+    }
+
+    /**
+     * Number of messages in the ring sent after the given time by someone other than userId
+     *
+     * @param after null counts every message in the ring
+     */
+    public int countAfter(Timestamp after, int userId) {
+        int count = 0;
+        long newest = nextSequence.get() - 1;
+        long oldest = Math.max(0, newest - capacity + 1);
+        for (long sequence = newest; sequence >= oldest; sequence--) {
+            Slot slot = slots.get((int) (sequence % capacity));
+            if (slot == null || slot.sequence < sequence) {
+                continue;
+            }
+            if (slot.sequence > sequence) {
+                break;
+            }
+            Message message = slot.message;
+            if (message.getSenderId() != userId && (after == null || message.getSentAt().after(after))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean hasOlderInDatabase() {
+        return olderInDatabase;
+    }
+
+    public int size() {
+        return (int) Math.min(nextSequence.get(), capacity);
+    }
+
+    private static final class Slot {
+        final long sequence;
+        final Message message;
+
+        Slot(long sequence, Message message) {
+            this.sequence = sequence;
+            this.message = message;
+        }
+    }
+}
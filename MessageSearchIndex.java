@@ -0,0 +1,207 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process inverted index over the last N messages, for searching recent chat without
+ * touching the database
+ * Messages get increasing sequence numbers and live in a ring; each token maps to the sequences
+ * of the messages containing it, in increasing order. When the ring overwrites a message its
+ * postings are, by construction, at the head of every list that has them, so they are trimmed
+ * lazily the next time that list is touched. Tokenization matches the 'simple' text search
+ * configuration used by MessageDAO: lower-cased runs of letters and digits.
+ */
+public class MessageSearchIndex {
+    private final Message[] ring;
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long nextSequence;
+
+    // Metrics
+    private final AtomicLong indexedCount = new AtomicLong();
+    private final AtomicLong searchCount = new AtomicLong();
+
+    public MessageSearchIndex(int capacity) {
+        this.ring = new Message[Math.max(1, capacity)];
+    }
+
+    public void add(Message message) {
+        Set<String> tokens = tokenize(message.getMessageText());
+        lock.lock();
+        try {
+            long sequence = nextSequence++;
+            ring[(int) (sequence % ring.length)] = message;
+            for (String token : tokens) {
+                postings.computeIfAbsent(token, t -> new Postings()).add(sequence);
+            }
+            if ((sequence & 0xFFF) == 0) {
+                purgeEvicted();
+            }
+        } finally {
+            lock.unlock();
+        }
+        indexedCount.incrementAndGet();
+    }
+
+    /**
+     * Messages containing every term of the query, newest first
+     *
+     * @param viewerId      private messages are only returned to their sender and recipient
+     * @param viewerRoomIds rooms whose messages the viewer may see, null for every room
+     * @param roomId        0 for any room
+     * @param senderId      0 for any sender
+     */
+    public List<Message> search(String query, int viewerId, IntSet viewerRoomIds, int roomId, int senderId,
+            int limit, int offset) {
+        searchCount.incrementAndGet();
+        List<Message> results = new ArrayList<>();
+        Set<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return results;
+        }
+
+        lock.lock();
+        try {
+            long oldest = Math.max(0, nextSequence - ring.length);
+            Postings[] lists = new Postings[terms.size()];
+            int index = 0;
+            for (String term : terms) {
+                Postings list = postings.get(term);
+                if (list == null) {
+                    return results;
+                }
+                list.trimBefore(oldest);
+                lists[index++] = list;
+            }
+            // Walk the shortest list from its newest end, probing the others
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.size(), b.size()));
+            int skipped = 0;
+            for (int i = lists[0].size() - 1; i >= 0 && results.size() < limit; i--) {
+                long sequence = lists[0].get(i);
+                if (!containsAll(lists, sequence)) {
+                    continue;
+                }
+                Message message = ring[(int) (sequence % ring.length)];
+                if (!isVisible(message, viewerId, viewerRoomIds, roomId, senderId)) {
+                    continue;
+                }
+                if (skipped++ >= offset) {
+                    results.add(message);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return results;
+    }
+
+    private static boolean containsAll(Postings[] lists, long sequence) {
+        for (int i = 1; i < lists.length; i++) {
+            if (!lists[i].contains(sequence)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Filters shared with InMemoryMessageStore; a viewerId of 0 sees private messages too, and
+     * null viewerRoomIds every room
+     */
+    static boolean isVisible(Message message, int viewerId, IntSet viewerRoomIds, int roomId, int senderId) {
+        Integer recipientId = message.getRecipientId();
+        if (viewerId > 0 && recipientId != null && message.getSenderId() != viewerId && recipientId != viewerId) {
+            return false;
+        }
+        if (viewerRoomIds != null && message.getRoomId() > 0 && !viewerRoomIds.contains(message.getRoomId())) {
+            return false;
+        }
+        return (roomId == 0 || message.getRoomId() == roomId) && (senderId == 0 || message.getSenderId() == senderId);
+    }
+
+    private void purgeEvicted() {
+        long oldest = Math.max(0, nextSequence - ring.length);
+        Iterator<Postings> lists = postings.values().iterator();
+        while (lists.hasNext()) {
+            Postings list = lists.next();
+            list.trimBefore(oldest);
+            if (list.size() == 0) {
+                lists.remove();
+            }
+        }
+    }
+
+    public static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    public String describe() {
+        lock.lock();
+        try {
+            return String.format("capacity=%d, indexed=%d, terms=%d, searches=%d",
+                    ring.length, indexedCount.get(), postings.size(), searchCount.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Growable queue of increasing sequence numbers with a movable head
+     */
+    private static final class Postings {
+        private long[] values = new long[4];
+        private int head;
+        private int tail;
+
+        void add(long sequence) {
+            if (tail == values.length) {
+                int live = tail - head;
+                long[] target = live * 2 < values.length ? values : new long[values.length * 2];
+                System.arraycopy(values, head, target, 0, live);
+                values = target;
+                head = 0;
+                tail = live;
+            }
+            values[tail++] = sequence;
+        }
+
+        void trimBefore(long oldest) {
+            while (head < tail && values[head] < oldest) {
+                head++;
+            }
+        }
+
+        int size() {
+            return tail - head;
+        }
+
+        long get(int i) {
+            return values[head + i];
+        }
+
+        boolean contains(long sequence) {
+            return Arrays.binarySearch(values, head, tail, sequence) >= 0;
+        }
+    }
+}
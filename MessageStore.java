@@ -0,0 +1,66 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Storage of room and private messages: MessageDAO on PostgreSQL, or InMemoryMessageStore
+ * History pages are ordered newest first by (sent_at, message_id) and continue before a
+ * MessageCursor; a null cursor starts at the newest message.
+ */
+public interface MessageStore {
+    /**
+     * Store one message and set its generated id
+     */
+    boolean saveMessage(Message message);
+
+    /**
+     * Store a batch of messages, setting their generated ids in order
+     */
+    void saveMessages(List<Message> messages) throws SQLException;
+
+    /**
+     * Mark up to limit of a user's undelivered private messages as delivered and return them,
+     * oldest first; every message is handed out exactly once
+     */
+    List<Message> claimUndeliveredMessages(int recipientId, int limit);
+
+    /**
+     * Claim one stored private message for delivery
+     *
+     * @return false if it was already delivered or the claim failed
+     */
+    boolean claimMessage(int messageId);
+
+    List<Message> getRoomHistory(int roomId, MessageCursor before, int limit);
+
+    /**
+     * One page of the conversation between two users, whichever direction each message went
+     */
+    List<Message> getPrivateHistory(int user1Id, int user2Id, MessageCursor before, int limit);
+
+    /**
+     * One page of the messages a user sent
+     */
+    List<Message> getUserHistory(int userId, MessageCursor before, int limit);
+
+    /**
+     * The newest perConversation messages of every private conversation with a message since
+     * the given time, in chronological order
+     */
+    List<Message> getRecentConversationMessages(Timestamp since, int perConversation);
+
+    /**
+     * The newest messages of all rooms and conversations, newest first
+     */
+    List<Message> getRecentMessages(int limit);
+
+    /**
+     * Search messages by text, best match first
+     *
+     * @param viewerId private messages are only returned to their sender and recipient, room
+     *                 messages only to members of the room; 0 skips both checks (admin use)
+     * @param roomId   0 for any room
+     * @param senderId 0 for any sender
+     */
+    List<Message> searchMessages(String searchText, int viewerId, int roomId, int senderId, int limit, int offset);
+}
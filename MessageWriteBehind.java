@@ -0,0 +1,218 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind pipeline for chat message persistence
+ * Senders enqueue into a bounded queue and return immediately; a dedicated writer thread drains
+ * it in batches (up to batch_size messages or linger_ms, whichever comes first) and inserts each
+ * batch with one JDBC batch and one commit. When the queue is full, enqueue() blocks for up to
+ * enqueue_timeout_ms so a struggling database slows senders down instead of growing the heap.
+ * While DatabaseManager reports the database unavailable, messages go straight to the
+ * OfflineJournal instead, and a batch that fails because the connection is gone is journaled
+ * rather than retried; JournalReplayer writes them once the database is back.
+ */
+public class MessageWriteBehind {
+    private static final Logger LOGGER = Logger.getLogger(MessageWriteBehind.class.getName());
+    private static final int MAX_RETRIES = 3;
+    private static final long RETRY_BACKOFF_MS = 100;
+
+    private final MessageStore messageStore;
+    private final DatabaseManager dbManager;
+    private final OfflineJournal journal;
+    private final BlockingQueue<Message> queue;
+    private final int capacity;
+    private final int batchSize;
+    private final long lingerMs;
+    private final long enqueueTimeoutMs;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    private volatile boolean failing;
+
+    // Metrics
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong journaledCount = new AtomicLong();
+
+    /**
+     * @param journal where messages go while the database is down, null to keep retrying instead
+     */
+    public MessageWriteBehind(MessageStore messageStore, DatabaseManager dbManager, OfflineJournal journal,
+            int capacity, int batchSize, long lingerMs, long enqueueTimeoutMs) {
+        this.messageStore = messageStore;
+        this.dbManager = dbManager;
+        this.journal = journal;
+        this.capacity = Math.max(1, capacity);
+        this.queue = new ArrayBlockingQueue<>(this.capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerMs = Math.max(0, lingerMs);
+        this.enqueueTimeoutMs = Math.max(0, enqueueTimeoutMs);
+
+        this.writerThread = new Thread(this::runWriter, "message-write-behind");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queue a message for persistence, blocking up to enqueue_timeout_ms while the queue is full
+     *
+     * @return false if the message was dropped
+     */
+    public boolean enqueue(Message message) {
+        if (!running) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        if (journal != null && !dbManager.isAvailable()) {
+            return journal(message);
+        }
+        try {
+            if (queue.offer(message) || queue.offer(message, enqueueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                enqueuedCount.incrementAndGet();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        droppedCount.incrementAndGet();
+        LOGGER.warning("Message persistence queue full, dropping message from user " + message.getSenderId());
+        return false;
+    }
+
+    private void runWriter() {
+        List<Message> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Message first = queue.poll(250, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                fillBatch(batch);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                // shutdown() interrupts a linger wait; the loop condition drains what is left
+                if (!batch.isEmpty()) {
+                    writeBatch(batch);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void fillBatch(List<Message> batch) throws InterruptedException {
+        queue.drainTo(batch, batchSize - batch.size());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+        while (running && batch.size() < batchSize) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            Message next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+            queue.drainTo(batch, batchSize - batch.size());
+        }
+    }
+
+    private void writeBatch(List<Message> batch) {
+        for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
+            try {
+                messageStore.saveMessages(batch);
+                writtenCount.addAndGet(batch.size());
+                batchCount.incrementAndGet();
+                failing = false;
+                return;
+            } catch (SQLException e) {
+                if (journal != null && dbManager.reportFailure(e)) {
+                    LOGGER.warning("Database unavailable, journaling a batch of " + batch.size() + " messages");
+                    for (Message message : batch) {
+                        journal(message);
+                    }
+                    return;
+                }
+                if (attempt == MAX_RETRIES) {
+                    failedCount.addAndGet(batch.size());
+                    failing = true;
+                    LOGGER.log(Level.SEVERE, "Failed to persist " + batch.size() + " messages after "
+                            + MAX_RETRIES + " attempts", e);
+                    return;
+                }
+                LOGGER.log(Level.WARNING, "Message batch insert failed, retrying (attempt " + attempt + ")", e);
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MS << (attempt - 1));
+                } catch (InterruptedException ie) {
+                    // Keep retrying; shutdown still wants this batch flushed
+                }
+            }
+        }
+    }
+
+    private boolean journal(Message message) {
+        if (journal.appendMessage(message)) {
+            journaledCount.incrementAndGet();
+            return true;
+        }
+        droppedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Stop accepting messages and flush everything already queued before returning
+     */
+    public void shutdown(long timeoutMs) {
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writerThread.isAlive()) {
+            LOGGER.warning("Message write-behind did not finish flushing, " + queue.size() + " messages pending");
+        } else {
+            LOGGER.info("Message write-behind flushed: " + describe());
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Whether the last batch was given up after all retries; cleared by the next successful one
+     */
+    public boolean isFailing() {
+        return failing;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public String describe() {
+        return String.format("queued=%d, enqueued=%d, written=%d, batches=%d, journaled=%d, dropped=%d, failed=%d",
+                queue.size(), enqueuedCount.get(), writtenCount.get(), batchCount.get(), journaledCount.get(),
+                droppedCount.get(), failedCount.get());
+    }
+}
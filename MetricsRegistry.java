@@ -0,0 +1,287 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide registry of counters, gauges and latency histograms
+ * Metrics are registered once (usually into a static final field) and then updated without
+ * locks; asking for a metric that already exists returns the same instance. A metric may carry
+ * one label, e.g. connecthub_dao_call_seconds{method="UserDAO.findById"}. The registry renders itself for
+ * the console status command and in the Prometheus text format, where histograms are summaries
+ * with their p50/p99/p999 and times are in seconds.
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+    private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+    private static final String[] QUANTILE_LABELS = { "0.5", "0.99", "0.999" };
+
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+    private final List<Family> ordered = new CopyOnWriteArrayList<>();
+    private final long createdAt = System.currentTimeMillis();
+
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    public Counter counter(String name, String help) {
+        return counter(name, help, null, null);
+    }
+
+    public Counter counter(String name, String help, String labelName, String labelValue) {
+        return (Counter) family(name, help, Type.COUNTER).get(labelName, labelValue, Counter::new);
+    }
+
+    /**
+     * Register a gauge read from the supplier whenever metrics are rendered; registering the
+     * same name again replaces the supplier (e.g. a component that was recreated)
+     */
+    public void gauge(String name, String help, LongSupplier supplier) {
+        family(name, help, Type.GAUGE).put(null, null, supplier);
+    }
+
+    public LatencyHistogram histogram(String name, String help) {
+        return histogram(name, help, null, null);
+    }
+
+    public LatencyHistogram histogram(String name, String help, String labelName, String labelValue) {
+        return (LatencyHistogram) family(name, help, Type.HISTOGRAM).get(labelName, labelValue, LatencyHistogram::new);
+    }
+
+    private Family family(String name, String help, Type type) {
+        Family family = families.get(name);
+        if (family == null) {
+            synchronized (ordered) {
+                family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+                if (!ordered.contains(family)) {
+                    ordered.add(family);
+                }
+            }
+        }
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type);
+        }
+        return family;
+    }
+
+    /**
+     * Human-readable lines for the console; counters also show their average rate since startup
+     */
+    public void appendStatus(StringBuilder out) {
+        double uptimeSeconds = Math.max(1, System.currentTimeMillis() - createdAt) / 1000.0;
+        long[] values = new long[QUANTILES.length];
+        for (Family family : ordered) {
+            for (Series series : family.series) {
+                out.append(family.name);
+                if (series.labelName != null) {
+                    out.append('{').append(series.labelName).append('=').append(series.labelValue).append('}');
+                }
+                out.append(": ");
+                switch (family.type) {
+                    case COUNTER:
+                        long total = ((Counter) series.metric).get();
+                        out.append(total).append(String.format(" (%.2f/s)", total / uptimeSeconds));
+                        break;
+                    case GAUGE:
+                        out.append(((LongSupplier) series.metric).getAsLong());
+                        break;
+                    default:
+                        LatencyHistogram histogram = (LatencyHistogram) series.metric;
+                        histogram.percentiles(QUANTILES, values);
+                        out.append("count=").append(histogram.getCount())
+                                .append(", p50=").append(formatNanos(values[0]))
+                                .append(", p99=").append(formatNanos(values[1]))
+                                .append(", p999=").append(formatNanos(values[2]))
+                                .append(", max=").append(formatNanos(histogram.getMaxNanos()));
+                }
+                out.append('\n');
+            }
+        }
+    }
+
+    /**
+     * Prometheus text exposition format (version 0.0.4)
+     */
+    public void appendPrometheus(StringBuilder out) {
+        appendPrometheus(out, new long[QUANTILES.length]);
+    }
+
+    /**
+     * Prometheus text with a caller-owned scratch array of at least three slots; appending to a
+     * reused StringBuilder this way allocates nothing (the lists are walked by index, not iterator)
+     */
+    public void appendPrometheus(StringBuilder out, long[] values) {
+        for (int f = 0; f < ordered.size(); f++) {
+            Family family = ordered.get(f);
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type.prometheusType).append('\n');
+            for (int i = 0; i < family.series.size(); i++) {
+                Series series = family.series.get(i);
+                switch (family.type) {
+                    case COUNTER:
+                        appendSample(out, family.name, "", series, null).append(((Counter) series.metric).get());
+                        out.append('\n');
+                        break;
+                    case GAUGE:
+                        appendSample(out, family.name, "", series, null)
+                                .append(((LongSupplier) series.metric).getAsLong());
+                        out.append('\n');
+                        break;
+                    default:
+                        LatencyHistogram histogram = (LatencyHistogram) series.metric;
+                        histogram.percentiles(QUANTILES, values);
+                        for (int q = 0; q < QUANTILES.length; q++) {
+                            appendSeconds(appendSample(out, family.name, "", series, QUANTILE_LABELS[q]), values[q]);
+                            out.append('\n');
+                        }
+                        appendSeconds(appendSample(out, family.name, "_sum", series, null), histogram.getSumNanos());
+                        out.append('\n');
+                        appendSample(out, family.name, "_count", series, null).append(histogram.getCount());
+                        out.append('\n');
+                }
+            }
+        }
+    }
+
+    private static StringBuilder appendSample(StringBuilder out, String name, String suffix, Series series,
+            String quantile) {
+        out.append(name).append(suffix);
+        if (series.labelName != null || quantile != null) {
+            out.append('{');
+            if (series.labelName != null) {
+                out.append(series.labelName).append("=\"").append(series.labelValue).append('"');
+            }
+            if (quantile != null) {
+                if (series.labelName != null) {
+                    out.append(',');
+                }
+                out.append("quantile=\"").append(quantile).append('"');
+            }
+            out.append('}');
+        }
+        return out.append(' ');
+    }
+
+    /**
+     * Nanoseconds as decimal seconds, written digit by digit so rendering allocates nothing
+     */
+    static void appendSeconds(StringBuilder out, long nanos) {
+        out.append(nanos / 1_000_000_000L).append('.');
+        long fraction = nanos % 1_000_000_000L;
+        for (long divisor = 100_000_000L; divisor > 0; divisor /= 10) {
+            out.append((char) ('0' + fraction / divisor % 10));
+        }
+    }
+
+    static String formatNanos(long nanos) {
+        if (nanos < 1_000) {
+            return nanos + "ns";
+        }
+        if (nanos < 1_000_000) {
+            return String.format("%.1fµs", nanos / 1_000.0);
+        }
+        if (nanos < 1_000_000_000) {
+            return String.format("%.2fms", nanos / 1_000_000.0);
+        }
+        return String.format("%.2fs", nanos / 1_000_000_000.0);
+    }
+
+    /**
+     * Label values end up inside double quotes in the Prometheus output
+     */
+    private static String checkLabel(String value) {
+        if (value != null && (value.indexOf('"') >= 0 || value.indexOf('\\') >= 0 || value.indexOf('\n') >= 0)) {
+            throw new IllegalArgumentException("Unsupported metric label value: " + value);
+        }
+        return value;
+    }
+
+    private enum Type {
+        COUNTER("counter"), GAUGE("gauge"), HISTOGRAM("summary");
+
+        final String prometheusType;
+
+        Type(String prometheusType) {
+            this.prometheusType = prometheusType;
+        }
+    }
+
+    /**
+     * All series of one metric name, differing only in their label value
+     */
+    private static final class Family {
+        final String name;
+        final String help;
+        final Type type;
+        final List<Series> series = new CopyOnWriteArrayList<>();
+        final Map<String, Series> byLabel = new ConcurrentHashMap<>();
+
+        Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        Object get(String labelName, String labelValue, Supplier<Object> factory) {
+            Series existing = byLabel.get(key(labelName, labelValue));
+            if (existing != null) {
+                return existing.metric;
+            }
+            synchronized (this) {
+                return byLabel.computeIfAbsent(key(labelName, labelValue), k -> {
+                    Series created = new Series(labelName, checkLabel(labelValue), factory.get());
+                    series.add(created);
+                    return created;
+                }).metric;
+            }
+        }
+
+        synchronized void put(String labelName, String labelValue, Object metric) {
+            Series created = new Series(labelName, checkLabel(labelValue), metric);
+            Series previous = byLabel.put(key(labelName, labelValue), created);
+            if (previous != null) {
+                series.set(series.indexOf(previous), created);
+            } else {
+                series.add(created);
+            }
+        }
+
+        private static String key(String labelName, String labelValue) {
+            return labelName == null ? "" : labelName + "=" + labelValue;
+        }
+    }
+
+    private static final class Series {
+        final String labelName;
+        final String labelValue;
+        final Object metric;
+
+        Series(String labelName, String labelValue, Object metric) {
+            this.labelName = labelName;
+            this.labelValue = labelValue;
+            this.metric = metric;
+        }
+    }
+
+    /**
+     * Monotonic counter
+     */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+}
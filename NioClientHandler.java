@@ -0,0 +1,599 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking transport for the line based client protocol
+ * Bytes are decoded into lines on the owning event loop and each line is handed to
+ * ClientHandler.handleLine on the worker pool, one at a time per connection, so message
+ * order is preserved without dedicating a thread to every client. After a client negotiates the
+ * binary protocol the same loop decodes length-prefixed frames instead of lines.
+ */
+public class NioClientHandler extends ClientHandler {
+    private static final Logger LOGGER = Logger.getLogger(NioClientHandler.class.getName());
+    private static final int MAX_LINE_BYTES = 64 * 1024;
+    private static final int MAX_PENDING_LINES = 256;
+    private static final int MAX_GATHER = 32;
+
+    private final SocketChannel channel;
+    private final NioServerEngine.EventLoop eventLoop;
+    private final Executor workerPool;
+    private final ByteBuffer readBuffer;
+    private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(256);
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Queue<Runnable> inbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingInbound = new AtomicInteger();
+    private final AtomicBoolean processing = new AtomicBoolean();
+    private final AtomicBoolean cleanupScheduled = new AtomicBoolean();
+    private volatile boolean closeRequested;
+
+    // Event loop confined state
+    private SelectionKey key;
+    private boolean readPaused;
+    private boolean channelClosed;
+    private Upload upload;
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(BinaryFrame.HEADER_BYTES);
+    private byte frameType;
+    private byte[] framePayload;
+    private int framePosition;
+    private boolean binaryOutput;
+    private final ByteBuffer[] staged = new ByteBuffer[MAX_GATHER];
+    private int stagedIndex;
+    private int stagedCount;
+    private FileOutbound pendingFile;
+
+    public NioClientHandler(SocketChannel channel, EnhancedServer server, NioServerEngine.EventLoop eventLoop,
+            Executor workerPool, String remoteAddress, int bufferSize) {
+        super(server, remoteAddress);
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.workerPool = workerPool;
+        this.readBuffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 1024));
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void onRegistered(SelectionKey key) {
+        this.key = key;
+        enqueueInbound(this::sendAuthPrompt);
+    }
+
+    // ===== Inbound path (event loop) =====
+
+    void onReadable() {
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            if (isConnected) {
+                LOGGER.log(Level.WARNING, "Client disconnected unexpectedly: " + getDisplayInfo(), e);
+            }
+            onChannelClosed();
+            return;
+        }
+        if (read == -1) {
+            onChannelClosed();
+            return;
+        }
+        BYTES_RECEIVED.add(read);
+
+        readBuffer.flip();
+        try {
+            while (readBuffer.hasRemaining() && !channelClosed && !closeRequested) {
+                if (upload != null) {
+                    consumeUpload();
+                    continue;
+                }
+                if (isBinaryInput()) {
+                    consumeFrame();
+                    continue;
+                }
+
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    dispatchLine();
+                } else if (lineBuffer.size() >= MAX_LINE_BYTES) {
+                    lineBuffer.reset();
+                    disconnect("Line too long");
+                    break;
+                } else {
+                    lineBuffer.write(b);
+                }
+            }
+        } finally {
+            readBuffer.clear();
+        }
+    }
+
+    private void dispatchLine() {
+        String line = lineBuffer.toString(StandardCharsets.UTF_8);
+        lineBuffer.reset();
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+
+        // Framing decisions belong to the decoder: frames or upload bytes follow this line directly
+        if (isProtocolRequest(line)) {
+            negotiateProtocol(line);
+            return;
+        }
+        // Taken even while the LOGIN before it is still being checked, so the upload's bytes are
+        // never read as lines; finishUpload decides on the worker whether the file is kept
+        String trimmed = line.trim();
+        if (trimmed.startsWith("SENDFILE ")) {
+            upload = new Upload(trimmed.substring(9).trim());
+            return;
+        }
+
+        final String received = line;
+        enqueueInbound(() -> {
+            if (isConnected) {
+                handleLine(received);
+            }
+        });
+        pauseIfBacklogged();
+    }
+
+    private void consumeFrame() {
+        if (framePayload == null) {
+            while (frameHeader.hasRemaining() && readBuffer.hasRemaining()) {
+                frameHeader.put(readBuffer.get());
+            }
+            if (frameHeader.hasRemaining()) {
+                return;
+            }
+            frameHeader.flip();
+            frameType = frameHeader.get();
+            int length = frameHeader.getInt();
+            frameHeader.clear();
+            if (!BinaryFrame.isValidLength(frameType, length)) {
+                disconnect("Invalid frame");
+                return;
+            }
+            framePayload = new byte[length];
+            framePosition = 0;
+        }
+
+        int chunk = Math.min(framePayload.length - framePosition, readBuffer.remaining());
+        readBuffer.get(framePayload, framePosition, chunk);
+        framePosition += chunk;
+        if (framePosition < framePayload.length) {
+            return;
+        }
+
+        final BinaryFrame frame = new BinaryFrame(frameType, framePayload);
+        framePayload = null;
+        enqueueInbound(() -> {
+            if (isConnected) {
+                handleFrame(frame);
+            }
+        });
+        pauseIfBacklogged();
+    }
+
+    private void pauseIfBacklogged() {
+        if (pendingInbound.get() >= MAX_PENDING_LINES && !readPaused) {
+            readPaused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    private void consumeUpload() {
+        Upload current = upload;
+        if (current.remaining < 0) {
+            while (current.header.hasRemaining() && readBuffer.hasRemaining()) {
+                current.header.put(readBuffer.get());
+            }
+            if (current.header.hasRemaining()) {
+                return;
+            }
+            current.header.flip();
+            current.remaining = current.header.getLong();
+            current.length = current.remaining;
+            current.startedAt = System.nanoTime();
+            if (current.remaining < 0) {
+                upload = null;
+                disconnect("Invalid file size");
+                return;
+            }
+            openUpload(current);
+        }
+
+        int chunk = (int) Math.min(current.remaining, readBuffer.remaining());
+        if (chunk > 0) {
+            ByteBuffer slice = readBuffer.slice();
+            slice.limit(chunk);
+            readBuffer.position(readBuffer.position() + chunk);
+            current.remaining -= chunk;
+
+            if (current.fileChannel != null) {
+                try {
+                    while (slice.hasRemaining()) {
+                        current.fileChannel.write(slice);
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Error receiving file: " + current.fileName, e);
+                    sendMessage("❌ Error receiving file: " + e.getMessage());
+                    current.discard();
+                }
+            }
+        }
+
+        if (current.remaining == 0) {
+            upload = null;
+            finishUpload(current);
+        }
+    }
+
+    private void openUpload(Upload current) {
+        // Too large: the announced bytes are still consumed, just not written anywhere
+        if (rejectOversizedUpload(current.length)) {
+            return;
+        }
+        try {
+            // Named once the worker knows who sent it, see finishUpload
+            File directory = new File("uploads");
+            directory.mkdirs();
+            current.file = File.createTempFile("incoming_", ".part", directory);
+            current.fileChannel = FileChannel.open(current.file.toPath(), StandardOpenOption.WRITE);
+            sendMessage("📥 Receiving file: " + current.fileName + " (" + formatFileSize(current.remaining) + ")");
+        } catch (IOException e) {
+            // Keep consuming the announced bytes so the stream stays in sync
+            LOGGER.log(Level.SEVERE, "Error receiving file: " + current.fileName, e);
+            sendMessage("❌ Error receiving file: " + e.getMessage());
+        }
+    }
+
+    private void finishUpload(Upload current) {
+        if (current.fileChannel == null) {
+            return;
+        }
+        current.close();
+        FILE_BYTES_RECEIVED.add(current.length);
+        FILE_RECEIVE_TIME.recordSince(current.startedAt);
+        enqueueInbound(() -> {
+            User owner = getUser();
+            if (owner == null) {
+                current.discard();
+                sendMessage("❌ Please login before sending files");
+                return;
+            }
+            File target = uploadTarget(current.fileName);
+            try {
+                Files.move(current.file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error receiving file: " + current.fileName, e);
+                current.discard();
+                sendMessage("❌ Error receiving file: " + e.getMessage());
+                return;
+            }
+            sendMessage("✅ File received successfully: " + target.getName());
+            LOGGER.info("File received by " + owner.getUsername() + ": " + current.fileName);
+        });
+    }
+
+    @Override
+    protected void receiveFile(String fileName) {
+        // Never reached: the decoder takes every SENDFILE line together with its bytes
+        sendMessage("❌ Wait for the login confirmation before sending files");
+    }
+
+    // ===== Worker dispatch =====
+
+    private void enqueueInbound(Runnable task) {
+        inbound.add(task);
+        pendingInbound.incrementAndGet();
+        scheduleProcessing();
+    }
+
+    private void scheduleProcessing() {
+        if (processing.compareAndSet(false, true)) {
+            try {
+                workerPool.execute(this::drainInbound);
+            } catch (RejectedExecutionException e) {
+                processing.set(false);
+                drainInbound();
+            }
+        }
+    }
+
+    private void drainInbound() {
+        try {
+            Runnable task;
+            while ((task = inbound.poll()) != null) {
+                int pending = pendingInbound.decrementAndGet();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Error handling message from " + getDisplayInfo(), e);
+                }
+                if (pending == MAX_PENDING_LINES / 2) {
+                    eventLoop.execute(this::resumeReading);
+                }
+            }
+        } finally {
+            processing.set(false);
+        }
+        if (!inbound.isEmpty()) {
+            scheduleProcessing();
+        }
+    }
+
+    private void resumeReading() {
+        if (readPaused && !channelClosed && key != null && key.isValid()) {
+            readPaused = false;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    // ===== Outbound path =====
+
+    @Override
+    protected void transmitFile(File file) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        enqueue(EncodedMessage.withFile(file.getName(), fileChannel, fileChannel.size()));
+        sendMessage("✅ File sent successfully: " + file.getName());
+        LOGGER.info("File sent by " + getUser().getUsername() + ": " + file.getName());
+    }
+
+    @Override
+    protected void scheduleDrain() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(this::flush);
+        }
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    /**
+     * Write queued messages with gathering writes. The shared encoded arrays are wrapped rather
+     * than copied, so a broadcast costs one ByteBuffer header per recipient.
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        if (channelClosed || key == null) {
+            return;
+        }
+
+        try {
+            while (true) {
+                if (stagedIndex < stagedCount) {
+                    BYTES_SENT.add(channel.write(staged, stagedIndex, stagedCount - stagedIndex));
+                    while (stagedIndex < stagedCount && !staged[stagedIndex].hasRemaining()) {
+                        staged[stagedIndex++] = null;
+                    }
+                    if (stagedIndex < stagedCount) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                if (pendingFile != null) {
+                    if (!pendingFile.writeTo(channel)) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    FILE_BYTES_SENT.add(pendingFile.end);
+                    FILE_SEND_TIME.recordSince(pendingFile.startedAt);
+                    pendingFile.release();
+                    pendingFile = null;
+                }
+                if (!stageNext()) {
+                    break;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+
+            if (closeRequested) {
+                onChannelClosed();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Write failed for " + getDisplayInfo(), e);
+            onChannelClosed();
+        }
+    }
+
+    /**
+     * Move up to MAX_GATHER messages from the outbound queue into the gather array, stopping
+     * after a file header so the file body is written before anything queued behind it
+     */
+    private boolean stageNext() {
+        stagedIndex = 0;
+        stagedCount = 0;
+        EncodedMessage next;
+        while (stagedCount < MAX_GATHER && (next = getOutboundQueue().poll()) != null) {
+            staged[stagedCount++] = ByteBuffer.wrap(next.bytes(binaryOutput));
+            if (next.switchesToBinary()) {
+                binaryOutput = true;
+            }
+            if (next.hasFile()) {
+                pendingFile = new FileOutbound(next.file(), next.fileLength(), binaryOutput);
+                break;
+            }
+        }
+        return stagedCount > 0;
+    }
+
+    // ===== Lifecycle =====
+
+    @Override
+    public void disconnect(String reason) {
+        boolean wasConnected = isConnected;
+        super.disconnect(reason);
+        if (wasConnected) {
+            closeRequested = true;
+            if (flushScheduled.compareAndSet(false, true)) {
+                eventLoop.execute(this::flush);
+            }
+        }
+    }
+
+    /**
+     * Close the channel on the event loop and schedule the session cleanup on a worker
+     */
+    void onChannelClosed() {
+        if (!channelClosed) {
+            channelClosed = true;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Error closing channel for " + getDisplayInfo(), e);
+            }
+
+            for (int i = 0; i < stagedCount; i++) {
+                staged[i] = null;
+            }
+            stagedIndex = 0;
+            stagedCount = 0;
+            if (pendingFile != null) {
+                pendingFile.release();
+                pendingFile = null;
+            }
+            getOutboundQueue().clear();
+            if (upload != null) {
+                upload.discard();
+                upload = null;
+            }
+        }
+
+        if (cleanupScheduled.compareAndSet(false, true)) {
+            enqueueInbound(this::cleanup);
+        }
+    }
+
+    @Override
+    protected void closeTransport() {
+        if (eventLoop.inEventLoop()) {
+            onChannelClosed();
+        } else {
+            eventLoop.execute(this::onChannelClosed);
+        }
+    }
+
+    /**
+     * File body streamed after its header with FileChannel.transferTo, so the bytes go from the
+     * page cache to the socket without passing through the heap. Returns true from writeTo once
+     * fully written; in binary mode the content goes out as FILE_CHUNK frames then FILE_END.
+     */
+    private static final class FileOutbound {
+        private final FileChannel file;
+        private final long end;
+        private final boolean framed;
+        private final ByteBuffer header = ByteBuffer.allocate(BinaryFrame.HEADER_BYTES).flip();
+        private final long startedAt = System.nanoTime();
+        private long position;
+        private long chunkRemaining;
+        private boolean endWritten;
+
+        FileOutbound(FileChannel file, long end, boolean framed) {
+            this.file = file;
+            this.end = end;
+            this.framed = framed;
+        }
+
+        boolean writeTo(SocketChannel target) throws IOException {
+            while (true) {
+                if (header.hasRemaining()) {
+                    BYTES_SENT.add(target.write(header));
+                    if (header.hasRemaining()) {
+                        return false;
+                    }
+                } else if (chunkRemaining > 0) {
+                    long written = file.transferTo(position, chunkRemaining, target);
+                    BYTES_SENT.add(Math.max(0, written));
+                    if (written <= 0) {
+                        if (position >= file.size()) {
+                            throw new EOFException("File truncated during transfer");
+                        }
+                        // Socket send buffer is full
+                        return false;
+                    }
+                    position += written;
+                    chunkRemaining -= written;
+                } else if (position < end) {
+                    chunkRemaining = framed ? Math.min(BinaryFrame.FILE_CHUNK_SIZE, end - position) : end - position;
+                    if (framed) {
+                        header.clear();
+                        header.put(BinaryFrame.FILE_CHUNK).putInt((int) chunkRemaining).flip();
+                    }
+                } else if (framed && !endWritten) {
+                    endWritten = true;
+                    header.clear();
+                    header.put(BinaryFrame.fileEnd()).flip();
+                } else {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Error closing file channel", e);
+            }
+        }
+    }
+
+    /**
+     * Raw upload that follows a SENDFILE line: an 8 byte length, then the file content
+     */
+    private static final class Upload {
+        private final String fileName;
+        private final ByteBuffer header = ByteBuffer.allocate(Long.BYTES);
+        private long remaining = -1;
+        private long length;
+        private long startedAt;
+        private File file;
+        private FileChannel fileChannel;
+
+        Upload(String fileName) {
+            this.fileName = fileName;
+        }
+
+        void close() {
+            if (fileChannel != null) {
+                try {
+                    fileChannel.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Error closing upload file " + fileName, e);
+                }
+                fileChannel = null;
+            }
+        }
+
+        /**
+         * Close and delete what was received so far
+         */
+        void discard() {
+            close();
+            if (file != null && file.exists() && !file.delete()) {
+                LOGGER.fine("Could not delete partial upload " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Selector based connection engine for EnhancedServer
+ * One acceptor hands new channels round-robin to a small fixed set of event loops.
+ * Protocol handling (authentication, DAO calls, broadcasts) runs on a worker pool so a
+ * slow database never stalls a selector.
+ */
+public class NioServerEngine {
+    private static final Logger LOGGER = Logger.getLogger(NioServerEngine.class.getName());
+
+    private final EnhancedServer server;
+    private final int port;
+    private final int bufferSize;
+    private final EventLoop[] eventLoops;
+    private final ExecutorService workerPool;
+    private ServerSocketChannel serverChannel;
+    private Selector acceptSelector;
+    private volatile boolean running;
+    private int nextLoop;
+
+    public NioServerEngine(EnhancedServer server, int port, int eventLoopCount, int workerThreads, int bufferSize) {
+        this.server = server;
+        this.port = port;
+        this.bufferSize = bufferSize;
+        this.eventLoops = new EventLoop[Math.max(1, eventLoopCount)];
+        this.workerPool = Executors.newFixedThreadPool(Math.max(1, workerThreads), namedThreads("nio-worker"));
+    }
+
+    /**
+     * Bind the listening channel and start the event loop threads
+     */
+    public void start() throws IOException {
+        acceptSelector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(i);
+            eventLoops[i].start();
+        }
+        running = true;
+        LOGGER.info("NIO engine listening on port " + port + " with " + eventLoops.length
+                + " event loops");
+    }
+
+    /**
+     * Accept connections on the calling thread until stop() is invoked
+     */
+    public void runAcceptLoop() {
+        while (running) {
+            try {
+                acceptSelector.select();
+                Iterator<SelectionKey> keys = acceptSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        acceptConnection();
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                if (running) {
+                    LOGGER.log(Level.SEVERE, "Error accepting client connection", e);
+                }
+            }
+        }
+    }
+
+    private void acceptConnection() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            EnhancedServer.CONNECTIONS_ACCEPTED.increment();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+            LOGGER.info("📱 New client connection from: " + remote.getAddress());
+
+            EventLoop loop = eventLoops[nextLoop];
+            nextLoop = (nextLoop + 1) % eventLoops.length;
+
+            NioClientHandler handler = new NioClientHandler(channel, server, loop, workerPool,
+                    remote.getAddress().getHostAddress(), bufferSize);
+            loop.register(handler);
+        }
+    }
+
+    /**
+     * Close the listening channel so runAcceptLoop() returns; existing connections stay open
+     */
+    public void stopAccepting() {
+        running = false;
+        try {
+            if (acceptSelector != null) {
+                acceptSelector.close();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error closing listening channel", e);
+        }
+    }
+
+    /**
+     * Stop accepting, close every event loop and drain the worker pool
+     */
+    public void stop() {
+        stopAccepting();
+
+        for (EventLoop loop : eventLoops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+
+        workerPool.shutdown();
+        try {
+            if (!workerPool.awaitTermination(5, TimeUnit.SECONDS)) {
+                workerPool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workerPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Single threaded selector loop owning a subset of the client channels.
+     * Other threads interact with it only through execute(), which wakes the selector.
+     */
+    static final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        private volatile boolean open = true;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-loop-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void register(NioClientHandler handler) {
+            execute(() -> {
+                try {
+                    SelectionKey key = handler.getChannel().register(selector, SelectionKey.OP_READ, handler);
+                    handler.onRegistered(key);
+                } catch (ClosedChannelException e) {
+                    handler.onChannelClosed();
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        boolean inEventLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        void shutdown() {
+            open = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (open) {
+                try {
+                    selector.select();
+                    runTasks();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioClientHandler handler = (NioClientHandler) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                handler.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                handler.onWritable();
+                            }
+                        } catch (CancelledKeyException e) {
+                            handler.onChannelClosed();
+                        }
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Event loop selector failure", e);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "Unexpected error in event loop", e);
+                }
+            }
+
+            // Flush whatever was queued before shutdown, then close the remaining channels
+            runTasks();
+            for (SelectionKey key : selector.keys()) {
+                ((NioClientHandler) key.attachment()).onChannelClosed();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error closing selector", e);
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Event loop task failed", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,466 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only journal of writes made while the database is unreachable, in a memory-mapped file
+ * Chat messages, presence changes and registrations are appended as length-prefixed records;
+ * JournalReplayer reads them back in order once the database is reachable again and moves the
+ * replay position in the file header forward after every committed batch, so a restart resumes
+ * where it stopped (a batch cut short by a crash is replayed again). An append is a copy into the
+ * mapping and survives a process crash; force() runs from the replayer about once a second. When
+ * everything has been replayed the used region is zeroed and the journal starts over at the front.
+ * A full journal rejects appends until it has been drained.
+ *
+ * Layout: magic, version, replay position (long), then records of [int length][byte type][payload]
+ * written body first, length last, so a zero length marks the end.
+ */
+public class OfflineJournal {
+    private static final Logger LOGGER = Logger.getLogger(OfflineJournal.class.getName());
+    private static final int MAGIC = 0x434A4E4C; // "CJNL"
+    private static final int VERSION = 1;
+    private static final int READ_POSITION_OFFSET = 8;
+    private static final int HEADER_BYTES = 16;
+
+    public static final byte TYPE_MESSAGE = 1;
+    public static final byte TYPE_PRESENCE = 2;
+    public static final byte TYPE_REGISTRATION = 3;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final Set<String> pendingUsernames = ConcurrentHashMap.newKeySet();
+    // Guards the positions and the buffer; a ReentrantLock so virtual threads do not pin on it
+    private final ReentrantLock lock = new ReentrantLock();
+    // Records before this position were written by a previous run, until the journal starts over
+    private int recoveredEnd;
+    private int readPosition;
+    private int writePosition;
+    private volatile int pendingRecords;
+    private boolean dirty;
+
+    // Metrics
+    private final AtomicLong appendedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong replayedCount = new AtomicLong();
+
+    private OfflineJournal(Path path, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = buffer.capacity();
+
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(READ_POSITION_OFFSET, HEADER_BYTES);
+        }
+        readPosition = (int) buffer.getLong(READ_POSITION_OFFSET);
+
+        // Find the end of what the previous run wrote and the registrations still waiting
+        int position = readPosition;
+        int length;
+        while (position + 5 <= capacity && (length = buffer.getInt(position)) > 0 && position + 4 + length <= capacity) {
+            if (buffer.get(position + 4) == TYPE_REGISTRATION) {
+                pendingUsernames.add(decodeRegistration(position).getUsername());
+            }
+            pendingRecords++;
+            position += 4 + length;
+        }
+        writePosition = position;
+        recoveredEnd = position;
+        if (pendingRecords > 0) {
+            LOGGER.warning("Offline journal " + path + " holds " + pendingRecords + " records from a previous run");
+        }
+    }
+
+    /**
+     * Open or create the journal, mapping sizeBytes of it
+     *
+     * @return null if the file cannot be opened or mapped, offline writes are then not kept
+     */
+    public static OfflineJournal open(String file, long sizeBytes) {
+        Path path = Path.of(file);
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long size = Math.max(channel.size(), Math.min(Integer.MAX_VALUE, Math.max(HEADER_BYTES * 2, sizeBytes)));
+            OfflineJournal journal = new OfflineJournal(path, channel,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            LOGGER.info("Offline journal opened: " + journal.describe());
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Cannot open offline journal " + file + ", offline writes will be lost", e);
+            return null;
+        }
+    }
+
+    // ===== Appending =====
+
+    public boolean appendMessage(Message message) {
+        byte[] text = utf8(message.getMessageText());
+        byte[] type = utf8(message.getMessageType());
+        byte[] filePath = utf8(message.getFilePath());
+        byte[] fileName = utf8(message.getFileName());
+        int size = 4 * 4 + 8 * 3 + 1 + 4 * 4 + text.length + type.length + filePath.length + fileName.length;
+
+        lock.lock();
+        try {
+            int position = reserve(size);
+            if (position < 0) {
+                return false;
+            }
+            buffer.position(position + 5);
+            buffer.putInt(message.getSenderId());
+            buffer.putInt(message.getRoomId());
+            buffer.putInt(message.getRecipientId() != null ? message.getRecipientId() : 0);
+            buffer.putInt(message.getReplyTo() != null ? message.getReplyTo() : 0);
+            buffer.putLong(message.getFileSize() != null ? message.getFileSize() : -1);
+            buffer.putLong(message.getSentAt().getTime());
+            buffer.putLong(message.getDeliveredAt() != null ? message.getDeliveredAt().getTime() : -1);
+            buffer.put((byte) (message.isEncrypted() ? 1 : 0));
+            putBytes(text);
+            putBytes(type);
+            putBytes(filePath);
+            putBytes(fileName);
+            commitAppend(position, TYPE_MESSAGE, size);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean appendPresence(PresenceTracker.PresenceChange change, String nodeId) {
+        byte[] node = utf8(nodeId);
+        int size = 4 + 1 + 8 + 4 + node.length;
+
+        lock.lock();
+        try {
+            int position = reserve(size);
+            if (position < 0) {
+                return false;
+            }
+            buffer.position(position + 5);
+            buffer.putInt(change.getUserId());
+            buffer.put((byte) (change.isOnline() ? 1 : 0));
+            buffer.putLong(change.getChangedAt().getTime());
+            putBytes(node);
+            commitAppend(position, TYPE_PRESENCE, size);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Journal a new user; the username stays reserved until the registration is replayed
+     *
+     * @return false if the username is already waiting in the journal or the journal is full
+     */
+    public boolean appendRegistration(User user) {
+        if (!pendingUsernames.add(user.getUsername())) {
+            return false;
+        }
+        byte[] username = utf8(user.getUsername());
+        byte[] passwordHash = utf8(user.getPasswordHash());
+        byte[] displayName = utf8(user.getDisplayName());
+        int size = 4 * 3 + username.length + passwordHash.length + displayName.length;
+
+        lock.lock();
+        try {
+            int position = reserve(size);
+            if (position < 0) {
+                pendingUsernames.remove(user.getUsername());
+                return false;
+            }
+            buffer.position(position + 5);
+            putBytes(username);
+            putBytes(passwordHash);
+            putBytes(displayName);
+            commitAppend(position, TYPE_REGISTRATION, size);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isRegistrationPending(String username) {
+        return pendingUsernames.contains(username);
+    }
+
+    /**
+     * Position for a record with this payload size, or -1 if it does not fit
+     */
+    private int reserve(int payloadSize) {
+        if (writePosition + 4 + 1 + payloadSize + 4 > capacity) {
+            rejectedCount.incrementAndGet();
+            if (rejectedCount.get() == 1 || rejectedCount.get() % 1000 == 0) {
+                LOGGER.severe("Offline journal " + path + " is full, " + rejectedCount.get() + " writes rejected");
+            }
+            return -1;
+        }
+        return writePosition;
+    }
+
+    /**
+     * Publish a record whose payload is in place by writing its type, then its length
+     */
+    private void commitAppend(int position, byte type, int payloadSize) {
+        buffer.put(position + 4, type);
+        buffer.putInt(position, 1 + payloadSize);
+        writePosition = position + 4 + 1 + payloadSize;
+        pendingRecords++;
+        dirty = true;
+        appendedCount.incrementAndGet();
+    }
+
+    private void putBytes(byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    }
+
+    // ===== Replaying =====
+
+    public boolean hasPending() {
+        return pendingRecords > 0;
+    }
+
+    public int getPendingRecords() {
+        return pendingRecords;
+    }
+
+    /**
+     * Up to max records from the replay position, without consuming them; see commit()
+     */
+    public List<Entry> read(int max) {
+        lock.lock();
+        try {
+            List<Entry> entries = new ArrayList<>(Math.min(max, pendingRecords));
+            int position = readPosition;
+            while (entries.size() < max && position < writePosition) {
+                int length = buffer.getInt(position);
+                int end = position + 4 + length;
+                entries.add(new Entry(buffer.get(position + 4), decode(position), end, position < recoveredEnd));
+                position = end;
+            }
+            return entries;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Mark every record up to and including this one as replayed; once the journal is empty it
+     * is cleared and reused from the front
+     */
+    public void commit(Entry last, int records) {
+        lock.lock();
+        try {
+            readPosition = last.end;
+            pendingRecords -= records;
+            replayedCount.addAndGet(records);
+            if (readPosition >= writePosition) {
+                int i = HEADER_BYTES;
+                for (; i + Long.BYTES <= writePosition; i += Long.BYTES) {
+                    buffer.putLong(i, 0L);
+                }
+                for (; i < writePosition; i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                readPosition = HEADER_BYTES;
+                writePosition = HEADER_BYTES;
+                recoveredEnd = HEADER_BYTES;
+                pendingRecords = 0;
+            }
+            buffer.putLong(READ_POSITION_OFFSET, readPosition);
+            dirty = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registration replayed or given up; its username is no longer reserved here
+     */
+    public void releaseUsername(String username) {
+        pendingUsernames.remove(username);
+    }
+
+    private Object decode(int position) {
+        switch (buffer.get(position + 4)) {
+            case TYPE_MESSAGE:
+                return decodeMessage(position);
+            case TYPE_PRESENCE:
+                return decodePresence(position);
+            case TYPE_REGISTRATION:
+                return decodeRegistration(position);
+            default:
+                throw new IllegalStateException("Corrupt offline journal record at " + position);
+        }
+    }
+
+    private Message decodeMessage(int position) {
+        buffer.position(position + 5);
+        Message message = new Message();
+        message.setSenderId(buffer.getInt());
+        message.setRoomId(buffer.getInt());
+        int recipientId = buffer.getInt();
+        if (recipientId > 0) {
+            message.setRecipientId(recipientId);
+        }
+        int replyTo = buffer.getInt();
+        if (replyTo > 0) {
+            message.setReplyTo(replyTo);
+        }
+        long fileSize = buffer.getLong();
+        if (fileSize >= 0) {
+            message.setFileSize(fileSize);
+        }
+        message.setSentAt(new Timestamp(buffer.getLong()));
+        long deliveredAt = buffer.getLong();
+        message.setDeliveredAt(deliveredAt >= 0 ? new Timestamp(deliveredAt) : null);
+        message.setEncrypted(buffer.get() == 1);
+        message.setMessageText(getString());
+        message.setMessageType(getString());
+        message.setFilePath(emptyToNull(getString()));
+        message.setFileName(emptyToNull(getString()));
+        return message;
+    }
+
+    private PresenceRecord decodePresence(int position) {
+        buffer.position(position + 5);
+        int userId = buffer.getInt();
+        boolean online = buffer.get() == 1;
+        Timestamp changedAt = new Timestamp(buffer.getLong());
+        return new PresenceRecord(new PresenceTracker.PresenceChange(userId, online, changedAt), getString());
+    }
+
+    private User decodeRegistration(int position) {
+        buffer.position(position + 5);
+        String username = getString();
+        String passwordHash = getString();
+        return new User(username, passwordHash, getString());
+    }
+
+    private String getString() {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    // ===== Lifecycle =====
+
+    /**
+     * Flush appended records to disk if anything changed since the last call
+     */
+    public void sync() {
+        lock.lock();
+        try {
+            if (dirty) {
+                buffer.force();
+                dirty = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        sync();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error closing offline journal", e);
+        }
+        if (pendingRecords > 0) {
+            LOGGER.warning("Offline journal closed with " + pendingRecords + " records waiting for the database");
+        }
+    }
+
+    public String describe() {
+        return String.format("file=%s, pending=%d, used=%d/%d bytes, appended=%d, replayed=%d, rejected=%d",
+                path, pendingRecords, writePosition - readPosition, capacity, appendedCount.get(),
+                replayedCount.get(), rejectedCount.get());
+    }
+
+    /**
+     * Presence change as journaled, with the node it was made on
+     */
+    public static final class PresenceRecord {
+        private final PresenceTracker.PresenceChange change;
+        private final String nodeId;
+
+        PresenceRecord(PresenceTracker.PresenceChange change, String nodeId) {
+            this.change = change;
+            this.nodeId = nodeId;
+        }
+
+        public PresenceTracker.PresenceChange getChange() {
+            return change;
+        }
+
+        public String getNodeId() {
+            return nodeId;
+        }
+    }
+
+    /**
+     * One record read back for replay
+     */
+    public static final class Entry {
+        private final byte type;
+        private final Object value;
+        private final int end;
+        private final boolean fromPreviousRun;
+
+        Entry(byte type, Object value, int end, boolean fromPreviousRun) {
+            this.type = type;
+            this.value = value;
+            this.end = end;
+            this.fromPreviousRun = fromPreviousRun;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        /**
+         * A Message, PresenceRecord or User depending on the type
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        /**
+         * Written before this process started, e.g. presence that a restart has since reset
+         */
+        public boolean isFromPreviousRun() {
+            return fromPreviousRun;
+        }
+    }
+}
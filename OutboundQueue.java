@@ -0,0 +1,140 @@
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded per-client queue of encoded messages waiting to be written
+ * Any thread may offer; only the connection's writer polls. When a client cannot keep up and the
+ * queue reaches capacity, the slow-consumer policy decides what happens:
+ * DROP discards the new message, DISCONNECT asks the caller to close the connection, and
+ * COALESCE discards the oldest queued messages and tells the client how many it missed.
+ */
+public class OutboundQueue {
+
+    public enum SlowConsumerPolicy {
+        DROP, DISCONNECT, COALESCE;
+
+        public static SlowConsumerPolicy parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException | NullPointerException e) {
+                return COALESCE;
+            }
+        }
+    }
+
+    public enum OfferResult {
+        QUEUED, DROPPED, OVERFLOW
+    }
+
+    // Server-wide counters across every client queue
+    private static final AtomicInteger TOTAL_DEPTH = new AtomicInteger();
+    private static final AtomicLong TOTAL_ENQUEUED = new AtomicLong();
+    private static final AtomicLong TOTAL_DROPPED = new AtomicLong();
+    private static final AtomicLong TOTAL_COALESCED = new AtomicLong();
+    private static final AtomicLong TOTAL_OVERFLOWS = new AtomicLong();
+
+    private final Queue<EncodedMessage> items = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+    private volatile int maxDepth;
+
+    public OutboundQueue(int capacity, SlowConsumerPolicy policy) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+    }
+
+    public OfferResult offer(EncodedMessage message) {
+        if (depth.incrementAndGet() > capacity && message.isDroppable()) {
+            depth.decrementAndGet();
+            return overflow(message);
+        }
+        items.add(message);
+        TOTAL_DEPTH.incrementAndGet();
+        TOTAL_ENQUEUED.incrementAndGet();
+        int current = depth.get();
+        if (current > maxDepth) {
+            maxDepth = current;
+        }
+        return OfferResult.QUEUED;
+    }
+
+    private OfferResult overflow(EncodedMessage message) {
+        switch (policy) {
+            case DISCONNECT:
+                TOTAL_OVERFLOWS.incrementAndGet();
+                return OfferResult.OVERFLOW;
+            case COALESCE:
+                EncodedMessage oldest = items.peek();
+                if (oldest != null && oldest.isDroppable() && items.remove(oldest)) {
+                    // Net depth is unchanged: one out, one in
+                    items.add(message);
+                    skipped.incrementAndGet();
+                    TOTAL_COALESCED.incrementAndGet();
+                    TOTAL_ENQUEUED.incrementAndGet();
+                    return OfferResult.QUEUED;
+                }
+                TOTAL_DROPPED.incrementAndGet();
+                return OfferResult.DROPPED;
+            case DROP:
+            default:
+                TOTAL_DROPPED.incrementAndGet();
+                return OfferResult.DROPPED;
+        }
+    }
+
+    /**
+     * Next message to write; after coalescing, a notice with the number of skipped messages comes first
+     */
+    public EncodedMessage poll() {
+        int missed = skipped.getAndSet(0);
+        if (missed > 0) {
+            return EncodedMessage.of("⚠️ " + missed + " messages skipped because your connection is too slow");
+        }
+        EncodedMessage next = items.poll();
+        if (next != null) {
+            depth.decrementAndGet();
+            TOTAL_DEPTH.decrementAndGet();
+        }
+        return next;
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty() && skipped.get() == 0;
+    }
+
+    /**
+     * Discard everything queued, releasing any file bodies
+     */
+    public void clear() {
+        EncodedMessage next;
+        while ((next = items.poll()) != null) {
+            depth.decrementAndGet();
+            TOTAL_DEPTH.decrementAndGet();
+            next.release();
+        }
+        skipped.set(0);
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public static int getTotalDepth() {
+        return TOTAL_DEPTH.get();
+    }
+
+    public static String describeTotals() {
+        return String.format("queued=%d, enqueued=%d, dropped=%d, coalesced=%d, slow-consumer disconnects=%d",
+                TOTAL_DEPTH.get(), TOTAL_ENQUEUED.get(), TOTAL_DROPPED.get(), TOTAL_COALESCED.get(),
+                TOTAL_OVERFLOWS.get());
+    }
+}
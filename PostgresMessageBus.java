@@ -0,0 +1,200 @@
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * MessageBus over PostgreSQL LISTEN/NOTIFY, for nodes that share the chat database
+ * publish() only queues the encoded event. A publisher thread drains the queue and sends
+ * everything waiting as one statement, SELECT pg_notify(channel, p) FROM unnest(payloads), on a
+ * pooled connection. A listener thread holds a dedicated connection outside the pool that
+ * LISTENs on the channel and reconnects with exponential backoff when it drops; events sent
+ * while it is disconnected are missed, which is why everything durable also goes to the database.
+ * NOTIFY payloads are limited to 8000 bytes; larger events are dropped and counted.
+ */
+public class PostgresMessageBus implements MessageBus {
+    private static final Logger LOGGER = Logger.getLogger(PostgresMessageBus.class.getName());
+    private static final int MAX_PAYLOAD_BYTES = 7999;
+    private static final int MAX_BATCH = 500;
+    private static final long MAX_BACKOFF_MS = 30000;
+
+    private final DatabaseManager dbManager;
+    private final String nodeId;
+    private final String channel;
+    private final BlockingQueue<String> outbox;
+    private final Thread publisherThread;
+    private final Thread listenerThread;
+    private volatile Consumer<BusEvent> handler;
+    private volatile Connection listenConnection;
+    private volatile boolean running = true;
+
+    // Metrics
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong reconnectCount = new AtomicLong();
+
+    public PostgresMessageBus(DatabaseManager dbManager, String nodeId, String channel, int queueCapacity) {
+        if (!channel.matches("[a-z_][a-z0-9_]{0,62}")) {
+            throw new IllegalArgumentException("Invalid bus channel name: " + channel);
+        }
+        this.dbManager = dbManager;
+        this.nodeId = nodeId;
+        this.channel = channel;
+        this.outbox = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+
+        this.publisherThread = new Thread(this::runPublisher, "bus-publisher");
+        this.publisherThread.setDaemon(true);
+        this.listenerThread = new Thread(this::runListener, "bus-listener");
+        this.listenerThread.setDaemon(true);
+    }
+
+    @Override
+    public void start(Consumer<BusEvent> handler) {
+        this.handler = handler;
+        publisherThread.start();
+        listenerThread.start();
+    }
+
+    @Override
+    public void publish(BusEvent event) {
+        String payload = event.encode();
+        if (payload.getBytes(StandardCharsets.UTF_8).length > MAX_PAYLOAD_BYTES || !outbox.offer(payload)) {
+            droppedCount.incrementAndGet();
+            LOGGER.warning("Bus event " + event.getType() + " dropped (too large or outbox full)");
+        }
+    }
+
+    private void runPublisher() {
+        List<String> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !outbox.isEmpty()) {
+            try {
+                String first = outbox.poll(500, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                outbox.drainTo(batch, MAX_BATCH - 1);
+                send(batch);
+            } catch (InterruptedException e) {
+                // close() wakes us up to send what is left
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(List<String> payloads) {
+        String sql = "SELECT pg_notify(?, p) FROM unnest(?) AS p";
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            Array array = conn.createArrayOf("text", payloads.toArray());
+            stmt.setString(1, channel);
+            stmt.setArray(2, array);
+            stmt.executeQuery().close();
+            dbManager.commit(conn);
+            publishedCount.addAndGet(payloads.size());
+        } catch (SQLException e) {
+            droppedCount.addAndGet(payloads.size());
+            LOGGER.log(Level.WARNING, "Could not publish " + payloads.size() + " bus events", e);
+        }
+    }
+
+    private void runListener() {
+        long backoffMs = 1000;
+        while (running) {
+            try (Connection conn = dbManager.openDedicatedConnection();
+                    Statement stmt = conn.createStatement()) {
+                stmt.execute("LISTEN " + channel);
+                listenConnection = conn;
+                backoffMs = 1000;
+                LOGGER.info("Listening for bus events on channel " + channel + " as node " + nodeId);
+                PGConnection pg = conn.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pg.getNotifications(500);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            dispatch(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    break;
+                }
+                reconnectCount.incrementAndGet();
+                LOGGER.log(Level.WARNING, "Bus listener lost its connection, retrying in " + backoffMs + " ms", e);
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+                backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+            } finally {
+                listenConnection = null;
+            }
+        }
+    }
+
+    private void dispatch(String payload) {
+        try {
+            BusEvent event = BusEvent.decode(payload);
+            if (nodeId.equals(event.getNodeId())) {
+                return; // our own NOTIFY coming back
+            }
+            receivedCount.incrementAndGet();
+            handler.accept(event);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not handle bus event", e);
+        }
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Send what is still queued, then stop both threads
+     */
+    @Override
+    public void close() {
+        running = false;
+        publisherThread.interrupt();
+        try {
+            publisherThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        listenerThread.interrupt();
+        Connection conn = listenConnection;
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    @Override
+    public String describe() {
+        return String.format("postgres, node=%s, channel=%s, listening=%s, queued=%d, published=%d, received=%d, " +
+                "dropped=%d, reconnects=%d", nodeId, channel, listenConnection != null, outbox.size(),
+                publishedCount.get(), receivedCount.get(), droppedCount.get(), reconnectCount.get());
+    }
+}
@@ -0,0 +1,215 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory presence with periodic batched writes to users.is_online/last_seen
+ * Connects and disconnects only update the online set and a pending map keyed by user id, so a
+ * user who flaps several times between flushes costs a single UPDATE with the final state. A
+ * flusher thread writes the pending changes every flush_interval_ms in JDBC batches of up to
+ * batch_size rows; a failed batch is put back unless a newer change arrived meanwhile. While the
+ * database is unavailable the changes are appended to the OfflineJournal instead.
+ * Rows left online by a crash are cleared by resetAfterRestart() before clients connect; each
+ * row also records the node the user is on, so in a cluster a node only resets its own users.
+ */
+public class PresenceTracker {
+    private static final Logger LOGGER = Logger.getLogger(PresenceTracker.class.getName());
+
+    private final SessionStore sessionStore;
+    private final String nodeId;
+    private final DatabaseManager dbManager;
+    private final OfflineJournal journal;
+    private final Set<Integer> onlineUsers = ConcurrentHashMap.newKeySet();
+    private final Map<Integer, PresenceChange> pending = new ConcurrentHashMap<>();
+    private final long flushIntervalMs;
+    private final int batchSize;
+    private final Thread flusherThread;
+    private volatile boolean running = true;
+
+    // Metrics
+    private final AtomicLong recordedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong journaledCount = new AtomicLong();
+
+    /**
+     * @param journal where changes go while the database is down, null to keep them pending
+     */
+    public PresenceTracker(SessionStore sessionStore, String nodeId, DatabaseManager dbManager, OfflineJournal journal,
+            long flushIntervalMs, int batchSize) {
+        this.sessionStore = sessionStore;
+        this.nodeId = nodeId;
+        this.dbManager = dbManager;
+        this.journal = journal;
+        this.flushIntervalMs = Math.max(10, flushIntervalMs);
+        this.batchSize = Math.max(1, batchSize);
+
+        this.flusherThread = new Thread(this::runFlusher, "presence-flusher");
+        this.flusherThread.setDaemon(true);
+        this.flusherThread.start();
+    }
+
+    /**
+     * Mark users offline that the previous run left online; run once at startup, before clients
+     * connect
+     *
+     * @param clustered only reset this node's users, others may be online on other nodes
+     */
+    public void resetAfterRestart(boolean clustered) {
+        int cleared = clustered ? sessionStore.markNodeOffline(nodeId) : sessionStore.markAllOffline();
+        if (cleared > 0) {
+            LOGGER.info("Presence reset: " + cleared + " users left online by the previous run marked offline");
+        }
+    }
+
+    public void markOnline(int userId) {
+        onlineUsers.add(userId);
+        record(userId, true);
+    }
+
+    public void markOffline(int userId) {
+        onlineUsers.remove(userId);
+        record(userId, false);
+    }
+
+    private void record(int userId, boolean online) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        recordedCount.incrementAndGet();
+        if (pending.put(userId, new PresenceChange(userId, online, now)) != null) {
+            coalescedCount.incrementAndGet();
+        }
+        sessionStore.presenceChanged(userId, online, now);
+    }
+
+    public boolean isOnline(int userId) {
+        return onlineUsers.contains(userId);
+    }
+
+    public int getOnlineCount() {
+        return onlineUsers.size();
+    }
+
+    private void runFlusher() {
+        while (running) {
+            try {
+                Thread.sleep(flushIntervalMs);
+            } catch (InterruptedException e) {
+                // shutdown() wakes us up for the final flush
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Write every pending change, batch_size rows per statement batch
+     */
+    public void flush() {
+        List<PresenceChange> batch = new ArrayList<>(Math.min(batchSize, Math.max(1, pending.size())));
+        Iterator<Integer> userIds = pending.keySet().iterator();
+        while (userIds.hasNext()) {
+            PresenceChange change = pending.remove(userIds.next());
+            if (change == null) {
+                continue;
+            }
+            batch.add(change);
+            if (batch.size() == batchSize) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+    }
+
+    private void writeBatch(List<PresenceChange> batch) {
+        if (journal != null && !dbManager.isAvailable()) {
+            journalBatch(batch);
+            return;
+        }
+        try {
+            sessionStore.saveOnlineStatuses(batch, nodeId);
+            writtenCount.addAndGet(batch.size());
+            batchCount.incrementAndGet();
+        } catch (SQLException e) {
+            if (journal != null && dbManager.reportFailure(e)) {
+                journalBatch(batch);
+                return;
+            }
+            failedCount.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Presence batch of " + batch.size() + " failed, retrying next flush", e);
+            for (PresenceChange change : batch) {
+                pending.putIfAbsent(change.getUserId(), change);
+            }
+        }
+    }
+
+    private void journalBatch(List<PresenceChange> batch) {
+        for (PresenceChange change : batch) {
+            if (journal.appendPresence(change, nodeId)) {
+                journaledCount.incrementAndGet();
+            } else {
+                pending.putIfAbsent(change.getUserId(), change); // journal full, keep it in memory
+            }
+        }
+    }
+
+    /**
+     * Stop the flusher after one last flush of pending changes
+     */
+    public void shutdown(long timeoutMs) {
+        running = false;
+        flusherThread.interrupt();
+        try {
+            flusherThread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!pending.isEmpty()) {
+            LOGGER.warning("Presence flusher stopped with " + pending.size() + " changes pending");
+        }
+    }
+
+    public String describe() {
+        return String.format("online=%d, pending=%d, recorded=%d, coalesced=%d, written=%d, batches=%d, "
+                + "journaled=%d, failed=%d", onlineUsers.size(), pending.size(), recordedCount.get(),
+                coalescedCount.get(), writtenCount.get(), batchCount.get(), journaledCount.get(), failedCount.get());
+    }
+
+    /**
+     * Latest presence state of one user waiting to be written
+     */
+    public static final class PresenceChange {
+        private final int userId;
+        private final boolean online;
+        private final Timestamp changedAt;
+
+        public PresenceChange(int userId, boolean online, Timestamp changedAt) {
+            this.userId = userId;
+            this.online = online;
+            this.changedAt = changedAt;
+        }
+
+        public int getUserId() {
+            return userId;
+        }
+
+        public boolean isOnline() {
+            return online;
+        }
+
+        public Timestamp getChangedAt() {
+            return changedAt;
+        }
+    }
+}
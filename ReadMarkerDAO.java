@@ -0,0 +1,73 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Data Access Object for read receipts
+ * A read marker is one row per user and room or private conversation holding the newest message
+ * the user has acknowledged, instead of one message_read_status row per message read.
+ */
+public class ReadMarkerDAO implements ReadMarkerStore {
+    private static final Logger LOGGER = Logger.getLogger(ReadMarkerDAO.class.getName());
+    private final DatabaseManager dbManager;
+
+    public ReadMarkerDAO() {
+        this.dbManager = DatabaseManager.getInstance();
+    }
+
+    /**
+     * All read markers of one user
+     */
+    @Override
+    public List<ReadReceiptTracker.ReadMarker> getReadMarkers(int userId) {
+        List<ReadReceiptTracker.ReadMarker> markers = new ArrayList<>();
+        String sql = "SELECT scope_type, scope_id, last_read_message_id, last_read_at FROM read_markers WHERE user_id = ?";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    markers.add(new ReadReceiptTracker.ReadMarker(userId, rs.getString("scope_type"),
+                            rs.getInt("scope_id"), rs.getInt("last_read_message_id"), rs.getTimestamp("last_read_at")));
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error loading read markers for user: " + userId, e);
+        }
+        return markers;
+    }
+
+    /**
+     * Upsert a batch of read markers in one transaction; a marker never moves backwards, so a
+     * stale batch retried after a newer one is harmless
+     */
+    @Override
+    public void saveReadMarkers(List<ReadReceiptTracker.ReadMarker> markers) throws SQLException {
+        String sql = "INSERT INTO read_markers (user_id, scope_type, scope_id, last_read_message_id, last_read_at) " +
+                "VALUES (?, ?, ?, ?, ?) ON CONFLICT (user_id, scope_type, scope_id) DO UPDATE SET " +
+                "last_read_message_id = GREATEST(read_markers.last_read_message_id, EXCLUDED.last_read_message_id), " +
+                "last_read_at = GREATEST(read_markers.last_read_at, EXCLUDED.last_read_at)";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (ReadReceiptTracker.ReadMarker marker : markers) {
+                stmt.setInt(1, marker.getUserId());
+                stmt.setString(2, marker.getScopeType());
+                stmt.setInt(3, marker.getScopeId());
+                if (marker.getLastReadMessageId() > 0) {
+                    stmt.setInt(4, marker.getLastReadMessageId());
+                } else {
+                    stmt.setNull(4, Types.INTEGER);
+                }
+                stmt.setTimestamp(5, marker.getLastReadAt());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            dbManager.commit(conn);
+        }
+    }
+}
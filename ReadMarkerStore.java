@@ -0,0 +1,17 @@
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Storage of read markers: ReadMarkerDAO on PostgreSQL, or InMemoryReadMarkerStore
+ */
+public interface ReadMarkerStore {
+    /**
+     * All read markers of one user
+     */
+    List<ReadReceiptTracker.ReadMarker> getReadMarkers(int userId);
+
+    /**
+     * Save a batch of read markers; a marker never moves backwards
+     */
+    void saveReadMarkers(List<ReadReceiptTracker.ReadMarker> markers) throws SQLException;
+}
@@ -0,0 +1,305 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Read receipts: per-user high-water marks kept in memory and written to read_markers in batches
+ * A client acknowledges a room or private conversation with /read, which moves its marker to the
+ * newest message in that scope. Markers of a user are (re)loaded at login, dropped at logout and
+ * only move forwards; changes wait in a pending map keyed by user and scope, so repeated acknowledgements
+ * between flushes cost a single upsert. Unread counts are answered from the MessageHistory rings
+ * by counting messages newer than the marker, never with COUNT(*); a ring that is entirely
+ * unread and has older messages in the database reports its size as a lower bound.
+ */
+public class ReadReceiptTracker {
+    private static final Logger LOGGER = Logger.getLogger(ReadReceiptTracker.class.getName());
+
+    public static final String SCOPE_ROOM = "room";
+    public static final String SCOPE_PRIVATE = "private";
+
+    private final ReadMarkerStore readMarkerStore;
+    private final MessageHistory history;
+    private final Map<Integer, Map<String, ReadMarker>> markersByUser = new ConcurrentHashMap<>();
+    private final Map<String, ReadMarker> pending = new ConcurrentHashMap<>();
+    private final long flushIntervalMs;
+    private final int batchSize;
+    private final Thread flusherThread;
+    private volatile boolean running = true;
+
+    // Metrics
+    private final AtomicLong acknowledgedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    public ReadReceiptTracker(ReadMarkerStore readMarkerStore, MessageHistory history, long flushIntervalMs,
+            int batchSize) {
+        this.readMarkerStore = readMarkerStore;
+        this.history = history;
+        this.flushIntervalMs = Math.max(10, flushIntervalMs);
+        this.batchSize = Math.max(1, batchSize);
+
+        this.flusherThread = new Thread(this::runFlusher, "read-receipt-flusher");
+        this.flusherThread.setDaemon(true);
+        this.flusherThread.start();
+    }
+
+    /**
+     * Load the markers of a user who just logged in. They are merged into what this node already
+     * holds, since the user may have acknowledged messages on another node in the meantime.
+     */
+    public void load(int userId) {
+        Map<String, ReadMarker> markers = markersByUser.computeIfAbsent(userId, id -> new ConcurrentHashMap<>());
+        for (ReadMarker marker : readMarkerStore.getReadMarkers(userId)) {
+            markers.merge(marker.scopeKey(), marker, ReadReceiptTracker::newer);
+        }
+    }
+
+    /**
+     * Forget the markers of a user who logged out. Their pending changes are written first, so a
+     * login that reloads them from read_markers does not step back to an older marker.
+     */
+    public void unload(int userId) {
+        Map<String, ReadMarker> markers = markersByUser.remove(userId);
+        if (markers == null) {
+            return;
+        }
+        List<ReadMarker> batch = new ArrayList<>();
+        for (String scopeKey : markers.keySet()) {
+            ReadMarker marker = pending.remove(userId + ":" + scopeKey);
+            if (marker != null) {
+                batch.add(marker);
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+    }
+
+    private static ReadMarker newer(ReadMarker existing, ReadMarker candidate) {
+        return candidate.getLastReadAt().after(existing.getLastReadAt()) ? candidate : existing;
+    }
+
+    /**
+     * Mark a room read up to its newest message
+     *
+     * @return the new marker, or null if the room has no messages
+     */
+    public ReadMarker markRoomRead(int userId, int roomId) {
+        List<Message> newest = history.getRoomHistory(roomId, null, 1);
+        return newest.isEmpty() ? null : advance(userId, SCOPE_ROOM, roomId, newest.get(0));
+    }
+
+    /**
+     * Mark the private conversation with another user read up to its newest message
+     *
+     * @return the new marker, or null if the two users never exchanged a message
+     */
+    public ReadMarker markConversationRead(int userId, int otherUserId) {
+        List<Message> newest = history.getPrivateHistory(userId, otherUserId, null, 1);
+        return newest.isEmpty() ? null : advance(userId, SCOPE_PRIVATE, otherUserId, newest.get(0));
+    }
+
+    private ReadMarker advance(int userId, String scopeType, int scopeId, Message newest) {
+        // A message still in the write-behind queue has no id yet; its sent_at is the real mark
+        ReadMarker marker = new ReadMarker(userId, scopeType, scopeId, newest.getMessageId(), newest.getSentAt());
+        Map<String, ReadMarker> markers = markersByUser.computeIfAbsent(userId, id -> new ConcurrentHashMap<>());
+        ReadMarker current = markers.merge(marker.scopeKey(), marker, ReadReceiptTracker::newer);
+        if (current == marker) {
+            acknowledgedCount.incrementAndGet();
+            if (pending.put(userId + ":" + marker.scopeKey(), marker) != null) {
+                coalescedCount.incrementAndGet();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Unread messages of a user in the given rooms and in every conversation held in memory;
+     * scopes without unread messages are left out
+     */
+    public List<Unread> getUnread(int userId, Collection<Integer> roomIds) {
+        Map<String, ReadMarker> markers = markersByUser.getOrDefault(userId, Map.of());
+        List<Unread> unread = new ArrayList<>();
+        for (int roomId : roomIds) {
+            addUnread(unread, markers, userId, SCOPE_ROOM, roomId, history.getRoomRing(roomId));
+        }
+        for (Map.Entry<Integer, MessageRing> entry : history.getConversationRings(userId).entrySet()) {
+            addUnread(unread, markers, userId, SCOPE_PRIVATE, entry.getKey(), entry.getValue());
+        }
+        return unread;
+    }
+
+    private static void addUnread(List<Unread> unread, Map<String, ReadMarker> markers, int userId,
+            String scopeType, int scopeId, MessageRing ring) {
+        if (ring == null) {
+            return;
+        }
+        ReadMarker marker = markers.get(scopeType + ":" + scopeId);
+        int count = ring.countAfter(marker != null ? marker.getLastReadAt() : null, userId);
+        if (count > 0) {
+            unread.add(new Unread(scopeType, scopeId, count, count == ring.capacity() && ring.hasOlderInDatabase()));
+        }
+    }
+
+    private void runFlusher() {
+        while (running) {
+            try {
+                Thread.sleep(flushIntervalMs);
+            } catch (InterruptedException e) {
+                // shutdown() wakes us up for the final flush
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Write every pending marker, batch_size rows per statement batch
+     */
+    public void flush() {
+        List<ReadMarker> batch = new ArrayList<>(Math.min(batchSize, Math.max(1, pending.size())));
+        Iterator<String> keys = pending.keySet().iterator();
+        while (keys.hasNext()) {
+            ReadMarker marker = pending.remove(keys.next());
+            if (marker == null) {
+                continue;
+            }
+            batch.add(marker);
+            if (batch.size() == batchSize) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+    }
+
+    private void writeBatch(List<ReadMarker> batch) {
+        try {
+            readMarkerStore.saveReadMarkers(batch);
+            writtenCount.addAndGet(batch.size());
+            batchCount.incrementAndGet();
+        } catch (SQLException e) {
+            failedCount.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Read marker batch of " + batch.size() + " failed, retrying next flush", e);
+            for (ReadMarker marker : batch) {
+                pending.putIfAbsent(marker.getUserId() + ":" + marker.scopeKey(), marker);
+            }
+        }
+    }
+
+    /**
+     * Stop the flusher after one last flush of pending markers
+     */
+    public void shutdown(long timeoutMs) {
+        running = false;
+        flusherThread.interrupt();
+        try {
+            flusherThread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!pending.isEmpty()) {
+            LOGGER.warning("Read receipt flusher stopped with " + pending.size() + " markers pending");
+        }
+    }
+
+    public String describe() {
+        return String.format("users=%d, pending=%d, acknowledged=%d, coalesced=%d, written=%d, batches=%d, failed=%d",
+                markersByUser.size(), pending.size(), acknowledgedCount.get(), coalescedCount.get(),
+                writtenCount.get(), batchCount.get(), failedCount.get());
+    }
+
+    /**
+     * Newest message a user has read in one room or private conversation
+     */
+    public static final class ReadMarker {
+        private final int userId;
+        private final String scopeType;
+        private final int scopeId;
+        private final int lastReadMessageId;
+        private final Timestamp lastReadAt;
+
+        /**
+         * @param scopeType SCOPE_ROOM with a room id, or SCOPE_PRIVATE with the other user's id
+         * @param lastReadMessageId 0 if the message was not stored yet
+         */
+        public ReadMarker(int userId, String scopeType, int scopeId, int lastReadMessageId, Timestamp lastReadAt) {
+            this.userId = userId;
+            this.scopeType = scopeType;
+            this.scopeId = scopeId;
+            this.lastReadMessageId = lastReadMessageId;
+            this.lastReadAt = lastReadAt;
+        }
+
+        String scopeKey() {
+            return scopeType + ":" + scopeId;
+        }
+
+        public int getUserId() {
+            return userId;
+        }
+
+        public String getScopeType() {
+            return scopeType;
+        }
+
+        public int getScopeId() {
+            return scopeId;
+        }
+
+        public int getLastReadMessageId() {
+            return lastReadMessageId;
+        }
+
+        public Timestamp getLastReadAt() {
+            return lastReadAt;
+        }
+    }
+
+    /**
+     * Unread messages in one room or private conversation
+     */
+    public static final class Unread {
+        private final String scopeType;
+        private final int scopeId;
+        private final int count;
+        private final boolean atLeast;
+
+        Unread(String scopeType, int scopeId, int count, boolean atLeast) {
+            this.scopeType = scopeType;
+            this.scopeId = scopeId;
+            this.count = count;
+            this.atLeast = atLeast;
+        }
+
+        public String getScopeType() {
+            return scopeType;
+        }
+
+        public int getScopeId() {
+            return scopeId;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Count for display: "12", or "200+" when older unread messages are only in the database
+         */
+        public String formatCount() {
+            return atLeast ? count + "+" : String.valueOf(count);
+        }
+    }
+}
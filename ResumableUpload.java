@@ -0,0 +1,169 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * Server side state of one chunked, resumable upload
+ * Chunks must arrive at the acknowledged offset and carry a CRC32C of their data; accepted
+ * chunks are written in place to uploads/partial/<transfer_id>.part. The acknowledged offset is
+ * checkpointed to file_transfers (after an fsync, so the record never runs ahead of the data)
+ * every checkpoint_bytes and when the connection ends, which is where /resume continues.
+ */
+public class ResumableUpload {
+    private static final Logger LOGGER = Logger.getLogger(ResumableUpload.class.getName());
+    private static final Path PARTIAL_DIR = Paths.get("uploads", "partial");
+
+    private final FileTransfer transfer;
+    private final FileTransferStore transferStore;
+    private final FileChannel channel;
+    private final long checkpointBytes;
+    private long offset;
+    private long checkpointed;
+
+    private ResumableUpload(FileTransfer transfer, FileTransferStore transferStore, FileChannel channel, long offset,
+            long checkpointBytes) {
+        this.transfer = transfer;
+        this.transferStore = transferStore;
+        this.channel = channel;
+        this.offset = offset;
+        this.checkpointed = offset;
+        this.checkpointBytes = Math.max(1, checkpointBytes);
+    }
+
+    /**
+     * Record a new upload and open its partial file
+     */
+    public static ResumableUpload begin(FileTransferStore transferStore, int senderId, String fileName, File target,
+            long fileSize, long checkpointBytes, int expiryDays) throws IOException {
+        FileTransfer transfer = new FileTransfer(senderId, fileName, target.getPath(), fileSize);
+        transfer.setTransferStatus("in_progress");
+        transfer.setExpiryDate(new Timestamp(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(expiryDays)));
+        if (!transferStore.createTransfer(transfer)) {
+            throw new IOException("Could not record the transfer");
+        }
+
+        Files.createDirectories(PARTIAL_DIR);
+        FileChannel channel = FileChannel.open(partialPath(transfer.getTransferId()), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new ResumableUpload(transfer, transferStore, channel, 0, checkpointBytes);
+    }
+
+    /**
+     * Reopen an interrupted upload of this sender at its last checkpointed offset
+     */
+    public static ResumableUpload resume(FileTransferStore transferStore, int transferId, int senderId,
+            long checkpointBytes) throws IOException {
+        FileTransfer transfer = transferStore.findById(transferId);
+        if (transfer == null || transfer.getSenderId() != senderId) {
+            throw new IOException("Unknown upload #" + transferId);
+        }
+        if (!"in_progress".equals(transfer.getTransferStatus())) {
+            throw new IOException("Upload #" + transferId + " is " + transfer.getTransferStatus());
+        }
+
+        Files.createDirectories(PARTIAL_DIR);
+        FileChannel channel = FileChannel.open(partialPath(transferId), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        // Bytes past the checkpoint were never acknowledged durably; they are sent again
+        long offset = Math.min(transfer.getBytesReceived(), channel.size());
+        channel.truncate(offset);
+        return new ResumableUpload(transfer, transferStore, channel, offset, checkpointBytes);
+    }
+
+    private static Path partialPath(int transferId) {
+        return PARTIAL_DIR.resolve(transferId + ".part");
+    }
+
+    public static boolean checksumMatches(int checksum, byte[] data, int dataOffset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, dataOffset, length);
+        return (int) crc.getValue() == checksum;
+    }
+
+    /**
+     * Write a verified chunk that starts at the acknowledged offset
+     */
+    public void write(byte[] data, int dataOffset, int length) throws IOException {
+        if (offset + length > transfer.getFileSize()) {
+            throw new IOException("Upload is larger than announced");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, dataOffset, length);
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        offset = position;
+        if (offset - checkpointed >= checkpointBytes && !isComplete()) {
+            checkpoint();
+        }
+    }
+
+    public boolean isComplete() {
+        return offset == transfer.getFileSize();
+    }
+
+    /**
+     * Move the finished file to its target and mark the transfer completed
+     */
+    public File complete() throws IOException {
+        channel.force(false);
+        channel.close();
+        File target = new File(transfer.getFilePath());
+        Files.move(partialPath(transfer.getTransferId()), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        transferStore.completeTransfer(transfer.getTransferId(), transfer.getFileSize());
+        return target;
+    }
+
+    /**
+     * Checkpoint and release the file; the upload stays resumable
+     */
+    public void suspend() {
+        try {
+            checkpoint();
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error suspending upload #" + transfer.getTransferId(), e);
+        }
+    }
+
+    private void checkpoint() throws IOException {
+        if (offset == checkpointed || !channel.isOpen()) {
+            return;
+        }
+        channel.force(false);
+        if (transferStore.updateProgress(transfer.getTransferId(), offset, percent())) {
+            checkpointed = offset;
+        }
+    }
+
+    private int percent() {
+        return transfer.getFileSize() == 0 ? 100 : (int) (offset * 100 / transfer.getFileSize());
+    }
+
+    public int getTransferId() {
+        return transfer.getTransferId();
+    }
+
+    public String getFileName() {
+        return transfer.getFileName();
+    }
+
+    public long getFileSize() {
+        return transfer.getFileSize();
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+}
@@ -0,0 +1,200 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Data Access Object for chat rooms and their members
+ */
+public class RoomDAO implements RoomStore {
+    private static final Logger LOGGER = Logger.getLogger(RoomDAO.class.getName());
+    private final DatabaseManager dbManager;
+
+    public RoomDAO() {
+        this.dbManager = DatabaseManager.getInstance();
+    }
+
+    /**
+     * Load a room with the ids of all its members, or null if it does not exist
+     */
+    @Override
+    public ChatRoom loadRoom(int roomId) {
+        String sql = "SELECT room_id, room_name, description, is_private, max_users FROM chat_rooms WHERE room_id = ?";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, roomId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return new ChatRoom(roomId, rs.getString("room_name"), rs.getString("description"),
+                            rs.getBoolean("is_private"), rs.getInt("max_users"), getMemberIds(conn, roomId));
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error loading room: " + roomId, e);
+        }
+        return null;
+    }
+
+    private int[] getMemberIds(Connection conn, int roomId) throws SQLException {
+        String sql = "SELECT user_id FROM room_members WHERE room_id = ?";
+        int[] ids = new int[16];
+        int count = 0;
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, roomId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, count * 2);
+                    }
+                    ids[count++] = rs.getInt(1);
+                }
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Id of the room with this name (case-insensitive), or 0 if there is none
+     */
+    @Override
+    public int findRoomId(String roomName) {
+        String sql = "SELECT room_id FROM chat_rooms WHERE LOWER(room_name) = LOWER(?) ORDER BY room_id LIMIT 1";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, roomName);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error finding room: " + roomName, e);
+        }
+        return 0;
+    }
+
+    /**
+     * Create a public room; if another session created the same name first, return its id
+     *
+     * @return the room id, or 0 on failure
+     */
+    @Override
+    public int createRoom(String roomName, int createdBy) {
+        String sql = "INSERT INTO chat_rooms (room_name, created_by) VALUES (?, ?) " +
+                "ON CONFLICT DO NOTHING RETURNING room_id";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, roomName);
+            stmt.setInt(2, createdBy);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                boolean created = rs.next();
+                int roomId = created ? rs.getInt(1) : 0;
+                dbManager.commit(conn);
+                if (created) {
+                    LOGGER.info("Room created: " + roomName + " (ID: " + roomId + ")");
+                    return roomId;
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error creating room: " + roomName, e);
+            return 0;
+        }
+        return findRoomId(roomName);
+    }
+
+    /**
+     * Names of the public rooms plus the private rooms the user belongs to, keyed by room id and
+     * sorted by name
+     */
+    @Override
+    public Map<Integer, String> getVisibleRooms(int userId) {
+        Map<Integer, String> rooms = new LinkedHashMap<>();
+        String sql = "SELECT r.room_id, r.room_name FROM chat_rooms r " +
+                "WHERE r.is_private = false OR EXISTS " +
+                "(SELECT 1 FROM room_members m WHERE m.room_id = r.room_id AND m.user_id = ?) " +
+                "ORDER BY r.room_name";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    rooms.put(rs.getInt("room_id"), rs.getString("room_name"));
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error listing rooms for user: " + userId, e);
+        }
+        return rooms;
+    }
+
+    /**
+     * Ids of the rooms a user belongs to
+     */
+    @Override
+    public List<Integer> getRoomIdsForUser(int userId) {
+        List<Integer> roomIds = new ArrayList<>();
+        String sql = "SELECT room_id FROM room_members WHERE user_id = ? ORDER BY room_id";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    roomIds.add(rs.getInt(1));
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error loading rooms of user: " + userId, e);
+        }
+        return roomIds;
+    }
+
+    @Override
+    public boolean addMember(int roomId, int userId) {
+        String sql = "INSERT INTO room_members (room_id, user_id) VALUES (?, ?) ON CONFLICT (room_id, user_id) DO NOTHING";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, roomId);
+            stmt.setInt(2, userId);
+            stmt.executeUpdate();
+            dbManager.commit(conn);
+            return true;
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error adding user " + userId + " to room " + roomId, e);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean removeMember(int roomId, int userId) {
+        String sql = "DELETE FROM room_members WHERE room_id = ? AND user_id = ?";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, roomId);
+            stmt.setInt(2, userId);
+            stmt.executeUpdate();
+            dbManager.commit(conn);
+            return true;
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error removing user " + userId + " from room " + roomId, e);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,183 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Rooms and their membership, loaded lazily from chat_rooms and room_members
+ * A room is read from the database, members included, the first time anyone touches it (usually
+ * when a member logs in) and then stays in memory; joins and leaves write through to
+ * room_members and are announced on the MessageBus, so other nodes that have the room loaded
+ * update their copy. Every user belongs to the default room, which has no member limit.
+ */
+public class RoomManager {
+    private static final Logger LOGGER = Logger.getLogger(RoomManager.class.getName());
+
+    private final RoomStore roomStore;
+    private final MessageHistory history;
+    private final int defaultRoomId;
+    private final MessageBus bus;
+    private final Map<Integer, ChatRoom> rooms = new ConcurrentHashMap<>();
+
+    // Metrics
+    private final AtomicLong loadedCount = new AtomicLong();
+    private final AtomicLong joinCount = new AtomicLong();
+    private final AtomicLong leaveCount = new AtomicLong();
+
+    public RoomManager(RoomStore roomStore, MessageHistory history, int defaultRoomId, MessageBus bus) {
+        this.roomStore = roomStore;
+        this.history = history;
+        this.defaultRoomId = defaultRoomId;
+        this.bus = bus;
+    }
+
+    /**
+     * The room with this id, loading it and warming its history on first use; null if it does not exist
+     */
+    public ChatRoom getRoom(int roomId) {
+        ChatRoom room = rooms.get(roomId);
+        if (room != null) {
+            return room;
+        }
+        return rooms.computeIfAbsent(roomId, id -> {
+            ChatRoom loaded = roomStore.loadRoom(id);
+            if (loaded != null) {
+                history.warmRoom(id);
+                loadedCount.incrementAndGet();
+                LOGGER.info("Room loaded: " + loaded.getRoomName() + " (" + loaded.getMemberCount() + " members)");
+            }
+            return loaded;
+        });
+    }
+
+    /**
+     * The room with this id if it is already in memory, without loading it
+     */
+    public ChatRoom getLoadedRoom(int roomId) {
+        return rooms.get(roomId);
+    }
+
+    /**
+     * Id of the room with this name, or 0 if there is none
+     */
+    public int findRoomId(String roomName) {
+        for (ChatRoom room : rooms.values()) {
+            if (room.getRoomName().equalsIgnoreCase(roomName)) {
+                return room.getRoomId();
+            }
+        }
+        return roomStore.findRoomId(roomName);
+    }
+
+    /**
+     * The room with this name, created as a public room if it does not exist yet
+     *
+     * @return null if it could neither be found nor created
+     */
+    public ChatRoom findOrCreateRoom(String roomName, int createdBy) {
+        int roomId = findRoomId(roomName);
+        if (roomId == 0) {
+            roomId = roomStore.createRoom(roomName, createdBy);
+        }
+        return roomId != 0 ? getRoom(roomId) : null;
+    }
+
+    /**
+     * Load every room of a user who just logged in, adding them to the default room if needed
+     *
+     * @return ids of the user's rooms
+     */
+    public List<Integer> loadRoomsOf(int userId) {
+        List<Integer> roomIds = new ArrayList<>();
+        for (int roomId : roomStore.getRoomIdsForUser(userId)) {
+            ChatRoom room = getRoom(roomId);
+            if (room != null) {
+                room.addMember(userId); // the room may have been loaded before this row existed
+                roomIds.add(roomId);
+            }
+        }
+        if (!roomIds.contains(defaultRoomId)) {
+            ChatRoom lobby = getRoom(defaultRoomId);
+            if (lobby != null && join(lobby, userId)) {
+                roomIds.add(0, defaultRoomId);
+            }
+        }
+        return roomIds;
+    }
+
+    /**
+     * Ids of the loaded rooms a user belongs to; after loadRoomsOf that is all of them
+     */
+    public List<Integer> getRoomIdsOf(int userId) {
+        List<Integer> roomIds = new ArrayList<>();
+        for (ChatRoom room : rooms.values()) {
+            if (room.isMember(userId)) {
+                roomIds.add(room.getRoomId());
+            }
+        }
+        return roomIds;
+    }
+
+    public boolean join(ChatRoom room, int userId) {
+        if (room.isMember(userId)) {
+            return true;
+        }
+        if (!roomStore.addMember(room.getRoomId(), userId)) {
+            return false;
+        }
+        room.addMember(userId);
+        joinCount.incrementAndGet();
+        bus.publish(BusEvent.roomMember(bus.getNodeId(), room.getRoomId(), userId, true));
+        return true;
+    }
+
+    public boolean leave(ChatRoom room, int userId) {
+        if (!roomStore.removeMember(room.getRoomId(), userId)) {
+            return false;
+        }
+        room.removeMember(userId);
+        leaveCount.incrementAndGet();
+        bus.publish(BusEvent.roomMember(bus.getNodeId(), room.getRoomId(), userId, false));
+        return true;
+    }
+
+    /**
+     * Membership change made on another node; rooms not loaded here pick it up when they load
+     */
+    public void applyRemoteMembership(int roomId, int userId, boolean joined) {
+        ChatRoom room = rooms.get(roomId);
+        if (room == null) {
+            return;
+        }
+        if (joined) {
+            room.addMember(userId);
+        } else {
+            room.removeMember(userId);
+        }
+    }
+
+    /**
+     * Whether one more member fits; the default room is unlimited
+     */
+    public boolean hasRoomFor(ChatRoom room) {
+        return room.getRoomId() == defaultRoomId || !room.isFull();
+    }
+
+    /**
+     * Names of the rooms a user can see, keyed by room id
+     */
+    public Map<Integer, String> getVisibleRooms(int userId) {
+        return roomStore.getVisibleRooms(userId);
+    }
+
+    public int getDefaultRoomId() {
+        return defaultRoomId;
+    }
+
+    public String describe() {
+        return String.format("loaded=%d, joins=%d, leaves=%d, default=%d",
+                loadedCount.get(), joinCount.get(), leaveCount.get(), defaultRoomId);
+    }
+}
@@ -0,0 +1,39 @@
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage of chat rooms and their members: RoomDAO on PostgreSQL, or InMemoryRoomStore
+ */
+public interface RoomStore {
+    /**
+     * Load a room with the ids of all its members, or null if it does not exist
+     */
+    ChatRoom loadRoom(int roomId);
+
+    /**
+     * Id of the room with this name (case-insensitive), or 0 if there is none
+     */
+    int findRoomId(String roomName);
+
+    /**
+     * Create a public room; if one with the name exists already, return its id
+     *
+     * @return the room id, or 0 on failure
+     */
+    int createRoom(String roomName, int createdBy);
+
+    /**
+     * Names of the public rooms plus the private rooms the user belongs to, keyed by room id and
+     * sorted by name
+     */
+    Map<Integer, String> getVisibleRooms(int userId);
+
+    /**
+     * Ids of the rooms a user belongs to, ascending
+     */
+    List<Integer> getRoomIdsForUser(int userId);
+
+    boolean addMember(int roomId, int userId);
+
+    boolean removeMember(int roomId, int userId);
+}
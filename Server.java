@@ -1,5 +1,7 @@
 import java.io.*;
 import java.net.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -16,7 +18,10 @@ public class Server {
 
     public Server() {
         try {
-            serverSocket = new ServerSocket(PORT);
+            // Channel backed so the accepted socket supports zero-copy file sends
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(PORT));
+            serverSocket = serverChannel.socket();
             LOGGER.info("Server started on port " + PORT);
 
             clientSocket = serverSocket.accept();
@@ -95,15 +100,12 @@ public class Server {
 
             // Send file size
             dataOutputStream.writeLong(file.length());
+            dataOutputStream.flush();
 
             // Send file content
-            try (FileInputStream fis = new FileInputStream(file)) {
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    dataOutputStream.write(buffer, 0, bytesRead);
-                }
-                dataOutputStream.flush();
+            try (FileChannel fileChannel = new FileInputStream(file).getChannel()) {
+                FileTransfers.transferTo(fileChannel, 0, fileChannel.size(),
+                        FileTransfers.writableChannel(clientSocket, dataOutputStream));
                 LOGGER.info("File sent successfully: " + file.getName());
             }
         } catch (IOException e) {
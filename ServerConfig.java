@@ -0,0 +1,73 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Server configuration backed by config/application.properties
+ * Every key can be overridden by an environment variable, e.g. server.engine -> SERVER_ENGINE
+ */
+public class ServerConfig {
+    private static final Logger LOGGER = Logger.getLogger(ServerConfig.class.getName());
+    private static final String CONFIG_FILE = "config/application.properties";
+    private static ServerConfig instance;
+
+    private final Properties properties = new Properties();
+
+    private ServerConfig() {
+        try (FileInputStream fis = new FileInputStream(CONFIG_FILE)) {
+            properties.load(fis);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not load " + CONFIG_FILE + ", using defaults", e);
+        }
+    }
+
+    public static synchronized ServerConfig getInstance() {
+        if (instance == null) {
+            instance = new ServerConfig();
+        }
+        return instance;
+    }
+
+    public String getString(String key, String defaultValue) {
+        String envValue = System.getenv(key.toUpperCase(Locale.ROOT).replace('.', '_'));
+        if (envValue != null && !envValue.isEmpty()) {
+            return envValue.trim();
+        }
+        String value = properties.getProperty(key);
+        return value != null ? value.trim() : defaultValue;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Invalid integer for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Invalid number for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+}
@@ -0,0 +1,37 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Storage of who is online on which node (users.is_online, last_seen and node_id): UserDAO on
+ * PostgreSQL, or InMemoryUserStore. PresenceTracker batches the writes.
+ */
+public interface SessionStore {
+    /**
+     * Show a presence change in user lookups right away; the durable write follows in a batch
+     */
+    void presenceChanged(int userId, boolean online, Timestamp changedAt);
+
+    /**
+     * Write a batch of presence changes made on a node; going offline only applies while the
+     * user is still recorded on that node
+     */
+    void saveOnlineStatuses(List<PresenceTracker.PresenceChange> changes, String nodeId) throws SQLException;
+
+    /**
+     * @return number of users that were still marked online
+     */
+    int markAllOffline();
+
+    /**
+     * Mark offline the users a node left online, e.g. after it crashed
+     *
+     * @return number of users that were still marked online
+     */
+    int markNodeOffline(String nodeId);
+
+    /**
+     * Add the users online on other nodes to a directory
+     */
+    void loadOnlineUsersOnOtherNodes(String localNodeId, UserDirectory directory);
+}
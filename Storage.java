@@ -0,0 +1,110 @@
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * The stores EnhancedServer keeps its data in, chosen by storage.backend
+ * postgres (the default) uses the JDBC DAOs on DatabaseManager's pool. memory keeps users,
+ * sessions, messages, transfers, rooms and read markers in the InMemory* stores and needs no
+ * database at all, for perf tests and small deployments that can lose their data on restart.
+ * Only postgres has a DatabaseManager, and with it the offline journal, the health prober and the
+ * Postgres message bus.
+ */
+public final class Storage {
+    private static final Logger LOGGER = Logger.getLogger(Storage.class.getName());
+
+    private final String backend;
+    private final DatabaseManager dbManager;
+    private final UserStore users;
+    private final SessionStore sessions;
+    private final MessageStore messages;
+    private final FileTransferStore transfers;
+    private final RoomStore rooms;
+    private final ReadMarkerStore readMarkers;
+    private final Supplier<String> details;
+
+    private Storage(String backend, DatabaseManager dbManager, UserStore users, SessionStore sessions,
+            MessageStore messages, FileTransferStore transfers, RoomStore rooms, ReadMarkerStore readMarkers,
+            Supplier<String> details) {
+        this.backend = backend;
+        this.dbManager = dbManager;
+        this.users = users;
+        this.sessions = sessions;
+        this.messages = messages;
+        this.transfers = transfers;
+        this.rooms = rooms;
+        this.readMarkers = readMarkers;
+        this.details = details;
+    }
+
+    public static Storage create(ServerConfig config, int defaultRoomId) {
+        String backend = config.getString("storage.backend", "postgres");
+        if ("memory".equalsIgnoreCase(backend)) {
+            return memory(defaultRoomId, config.getString("storage.memory.default_room_name", "General"));
+        }
+        if (!"postgres".equalsIgnoreCase(backend)) {
+            LOGGER.warning("Unknown storage.backend " + backend + ", using postgres");
+        }
+        return postgres(new UserCache(config.getInt("cache.users.max_size", 10000),
+                config.getLong("cache.users.ttl_seconds", 300)));
+    }
+
+    public static Storage postgres(UserCache userCache) {
+        DatabaseManager dbManager = DatabaseManager.getInstance();
+        UserDAO userDAO = new UserDAO(userCache);
+        return new Storage("postgres", dbManager, userDAO, userDAO, new MessageDAO(new ConversationDAO()),
+                new FileTransferDAO(), new RoomDAO(), new ReadMarkerDAO(),
+                () -> "user cache: " + userCache.describe());
+    }
+
+    public static Storage memory(int defaultRoomId, String defaultRoomName) {
+        InMemoryUserStore users = new InMemoryUserStore();
+        InMemoryRoomStore rooms = new InMemoryRoomStore(defaultRoomId, defaultRoomName);
+        InMemoryMessageStore messages = new InMemoryMessageStore(rooms);
+        InMemoryFileTransferStore transfers = new InMemoryFileTransferStore();
+        LOGGER.warning("Using in-memory storage: users, messages and transfers are lost when the server stops");
+        return new Storage("memory", null, users, users, messages, transfers, rooms, new InMemoryReadMarkerStore(),
+                () -> users.describe() + ", " + messages.describe() + ", " + transfers.describe());
+    }
+
+    /**
+     * Whether writes can go to the stores now; only a database can be down
+     */
+    public boolean isAvailable() {
+        return dbManager == null || dbManager.isAvailable();
+    }
+
+    /**
+     * Null unless the backend is postgres
+     */
+    public DatabaseManager getDatabaseManager() {
+        return dbManager;
+    }
+
+    public UserStore getUsers() {
+        return users;
+    }
+
+    public SessionStore getSessions() {
+        return sessions;
+    }
+
+    public MessageStore getMessages() {
+        return messages;
+    }
+
+    public FileTransferStore getTransfers() {
+        return transfers;
+    }
+
+    public RoomStore getRooms() {
+        return rooms;
+    }
+
+    public ReadMarkerStore getReadMarkers() {
+        return readMarkers;
+    }
+
+    public String describe() {
+        return backend + ", " + details.get();
+    }
+}
@@ -31,6 +31,20 @@ public class User {
         this.lastSeen = new Timestamp(System.currentTimeMillis());
     }
 
+    public User(User other) {
+        this.userId = other.userId;
+        this.username = other.username;
+        this.passwordHash = other.passwordHash;
+        this.email = other.email;
+        this.displayName = other.displayName;
+        this.avatarUrl = other.avatarUrl;
+        this.isOnline = other.isOnline;
+        this.lastSeen = other.lastSeen;
+        this.createdAt = other.createdAt;
+        this.isAdmin = other.isAdmin;
+        this.status = other.status;
+    }
+
     // Getters and Setters
     public int getUserId() {
         return userId;
@@ -0,0 +1,187 @@
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded read-through cache of active users, looked up by id or username
+ * Entries expire ttl_seconds after they were loaded and the least recently used entry is evicted
+ * once max_size is reached. Callers always get a copy, so sessions can mutate their User freely.
+ * A load that raced with an invalidation is not cached (see stamp()), which keeps a slow SELECT
+ * from re-inserting a row that was updated while it ran.
+ */
+public class UserCache {
+    private final int maxSize;
+    private final long ttlNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Integer, Entry> byId = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Integer> idByUsername = new HashMap<>();
+    private long invalidations;
+
+    // Metrics
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    /**
+     * @param maxSize entries kept, 0 disables caching
+     */
+    public UserCache(int maxSize, long ttlSeconds) {
+        this.maxSize = Math.max(0, maxSize);
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(1, ttlSeconds));
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    public User get(int userId) {
+        if (!isEnabled()) {
+            return null;
+        }
+        lock.lock();
+        try {
+            return lookup(byId.get(userId));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public User get(String username) {
+        if (!isEnabled()) {
+            return null;
+        }
+        lock.lock();
+        try {
+            Integer userId = idByUsername.get(username);
+            return lookup(userId != null ? byId.get(userId) : null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private User lookup(Entry entry) {
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        if (System.nanoTime() - entry.loadedAt > ttlNanos) {
+            remove(entry.user.getUserId());
+            expiredCount.incrementAndGet();
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return new User(entry.user);
+    }
+
+    /**
+     * Invalidation counter to read before loading from the database and hand back to put()
+     */
+    public long stamp() {
+        lock.lock();
+        try {
+            return invalidations;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cache a freshly loaded user unless an invalidation happened since stamp was taken
+     */
+    public void put(User user, long stamp) {
+        if (!isEnabled() || user == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (stamp != invalidations) {
+                return;
+            }
+            remove(user.getUserId());
+            byId.put(user.getUserId(), new Entry(new User(user), System.nanoTime()));
+            idByUsername.put(user.getUsername(), user.getUserId());
+
+            Iterator<Entry> eldest = byId.values().iterator();
+            while (byId.size() > maxSize && eldest.hasNext()) {
+                Entry evicted = eldest.next();
+                eldest.remove();
+                idByUsername.remove(evicted.user.getUsername());
+                evictionCount.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(int userId) {
+        lock.lock();
+        try {
+            invalidations++;
+            remove(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Apply a presence change to the cached copy instead of dropping it, so the next login of
+     * the same user is still a hit. Presence is informational only, so this does not count as an
+     * invalidation and loads running concurrently stay cacheable.
+     */
+    public void updatePresence(int userId, boolean online, Timestamp lastSeen) {
+        lock.lock();
+        try {
+            Entry entry = byId.get(userId);
+            if (entry != null) {
+                entry.user.setOnline(online);
+                entry.user.setLastSeen(lastSeen);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(int userId) {
+        Entry entry = byId.remove(userId);
+        if (entry != null) {
+            idByUsername.remove(entry.user.getUsername());
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return byId.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String describe() {
+        if (!isEnabled()) {
+            return "disabled";
+        }
+        long hits = hitCount.get();
+        long lookups = hits + missCount.get();
+        return String.format("size=%d/%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d, expired=%d",
+                size(), maxSize, hits, missCount.get(), lookups > 0 ? hits * 100.0 / lookups : 0.0,
+                evictionCount.get(), expiredCount.get());
+    }
+
+    private static final class Entry {
+        final User user;
+        final long loadedAt;
+
+        Entry(User user, long loadedAt) {
+            this.user = user;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
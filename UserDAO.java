@@ -6,26 +6,42 @@ import java.util.logging.Level;
 
 /**
  * Data Access Object for User operations
- * Handles all database operations related to users
+ * Handles all database operations related to users. Lookups by id and username go through a
+ * UserCache; updates invalidate the cached row. While the database is unavailable lookups are
+ * answered from the cache alone, so users seen recently can still log in.
  */
-public class UserDAO {
+public class UserDAO implements UserStore, SessionStore {
     private static final Logger LOGGER = Logger.getLogger(UserDAO.class.getName());
     private final DatabaseManager dbManager;
+    private final UserCache cache;
+
+    // What a session needs: id and hash to authenticate, status, and the name and role it shows.
+    // mapResultSetToUser reads these by position, so keep the two in the same order.
+    static final String USER_COLUMNS = "user_id, username, password_hash, display_name, is_admin, status";
 
     public UserDAO() {
+        this(new UserCache(0, 0));
+    }
+
+    public UserDAO(UserCache cache) {
         this.dbManager = DatabaseManager.getInstance();
+        this.cache = cache;
+    }
+
+    public UserCache getCache() {
+        return cache;
     }
 
     /**
      * Create a new user in the database
      */
+    @Override
     public boolean createUser(User user) {
         String sql = "INSERT INTO users (username, password_hash, email, display_name, avatar_url, is_admin, status) " +
                 "VALUES (?, ?, ?, ?, ?, ?, ?)";
 
-        try {
-            PreparedStatement stmt = dbManager.getConnection().prepareStatement(sql,
-                    Statement.RETURN_GENERATED_KEYS);
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setString(1, user.getUsername());
             stmt.setString(2, user.getPasswordHash());
             stmt.setString(3, user.getEmail());
@@ -34,23 +50,21 @@ public class UserDAO {
             stmt.setBoolean(6, user.isAdmin());
             stmt.setString(7, user.getStatus());
 
-            dbManager.beginTransaction();
             int rowsAffected = stmt.executeUpdate();
 
             if (rowsAffected > 0) {
                 // Get the generated user ID
-                ResultSet generatedKeys = stmt.getGeneratedKeys();
-                if (generatedKeys.next()) {
-                    user.setUserId(generatedKeys.getInt(1));
+                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                    if (generatedKeys.next()) {
+                        user.setUserId(generatedKeys.getInt(1));
+                    }
                 }
-                dbManager.commitTransaction();
+                dbManager.commit(conn);
                 LOGGER.info("User created successfully: " + user.getUsername());
                 return true;
             }
-            dbManager.rollbackTransaction();
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Error creating user: " + user.getUsername(), e);
-            dbManager.rollbackTransaction();
         }
         return false;
     }
@@ -58,15 +72,28 @@ public class UserDAO {
     /**
      * Find user by username
      */
+    @Override
     public User findByUsername(String username) {
-        String sql = "SELECT * FROM users WHERE username = ? AND status = 'active'";
+        User cached = cache.get(username);
+        if (cached != null) {
+            return cached;
+        }
+        if (!dbManager.isAvailable()) {
+            return null;
+        }
 
-        try (PreparedStatement stmt = dbManager.getConnection().prepareStatement(sql)) {
+        long stamp = cache.stamp();
+        String sql = "SELECT " + USER_COLUMNS + " FROM users WHERE username = ? AND status = 'active'";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, username);
 
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return mapResultSetToUser(rs);
+                    User user = mapResultSetToUser(rs);
+                    cache.put(user, stamp);
+                    return user;
                 }
             }
         } catch (Exception e) {
@@ -78,15 +105,28 @@ public class UserDAO {
     /**
      * Find user by ID
      */
+    @Override
     public User findById(int userId) {
-        String sql = "SELECT * FROM users WHERE user_id = ? AND status = 'active'";
+        User cached = cache.get(userId);
+        if (cached != null) {
+            return cached;
+        }
+        if (!dbManager.isAvailable()) {
+            return null;
+        }
 
-        try (PreparedStatement stmt = dbManager.getConnection().prepareStatement(sql)) {
+        long stamp = cache.stamp();
+        String sql = "SELECT " + USER_COLUMNS + " FROM users WHERE user_id = ? AND status = 'active'";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, userId);
 
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return mapResultSetToUser(rs);
+                    User user = mapResultSetToUser(rs);
+                    cache.put(user, stamp);
+                    return user;
                 }
             }
         } catch (SQLException e) {
@@ -101,34 +141,131 @@ public class UserDAO {
     public boolean updateOnlineStatus(int userId, boolean isOnline) {
         String sql = "UPDATE users SET is_online = ?, last_seen = CURRENT_TIMESTAMP WHERE user_id = ?";
 
-        try (PreparedStatement stmt = dbManager.getConnection().prepareStatement(sql)) {
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setBoolean(1, isOnline);
             stmt.setInt(2, userId);
 
             int rowsAffected = stmt.executeUpdate();
             if (rowsAffected > 0) {
-                dbManager.commitTransaction();
+                dbManager.commit(conn);
+                cache.updatePresence(userId, isOnline, new Timestamp(System.currentTimeMillis()));
                 return true;
             }
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Error updating online status for user ID: " + userId, e);
-            try {
-                dbManager.rollbackTransaction();
-            } catch (Exception ex) {
-                LOGGER.log(Level.SEVERE, "Error rolling back transaction", ex);
-            }
         }
         return false;
     }
 
+    /**
+     * Cached users show the change at once; the row is written by saveOnlineStatuses
+     */
+    @Override
+    public void presenceChanged(int userId, boolean online, Timestamp changedAt) {
+        cache.updatePresence(userId, online, changedAt);
+    }
+
+    /**
+     * Write a batch of presence changes in one JDBC batch and commit
+     */
+    @Override
+    public void saveOnlineStatuses(List<PresenceTracker.PresenceChange> changes, String nodeId) throws SQLException {
+        // Going offline only applies while the row still names this node; the user may already be
+        // online on another one
+        String sql = "UPDATE users SET is_online = ?, last_seen = ?, node_id = ? " +
+                "WHERE user_id = ? AND (? OR node_id IS NULL OR node_id = ?)";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (PresenceTracker.PresenceChange change : changes) {
+                stmt.setBoolean(1, change.isOnline());
+                stmt.setTimestamp(2, change.getChangedAt());
+                stmt.setString(3, nodeId);
+                stmt.setInt(4, change.getUserId());
+                stmt.setBoolean(5, change.isOnline());
+                stmt.setString(6, nodeId);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            dbManager.commit(conn);
+        }
+    }
+
+    /**
+     * Clear is_online for every user, e.g. rows left behind by a crashed server
+     *
+     * @return number of users that were still marked online
+     */
+    @Override
+    public int markAllOffline() {
+        String sql = "UPDATE users SET is_online = false WHERE is_online = true";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int rowsAffected = stmt.executeUpdate();
+            dbManager.commit(conn);
+            return rowsAffected;
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error marking users offline", e);
+        }
+        return 0;
+    }
+
+    /**
+     * Clear is_online for the users a node left online, e.g. after it crashed; rows written before
+     * node ids were recorded count as belonging to every node
+     *
+     * @return number of users that were still marked online
+     */
+    @Override
+    public int markNodeOffline(String nodeId) {
+        String sql = "UPDATE users SET is_online = false WHERE is_online = true AND (node_id = ? OR node_id IS NULL)";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, nodeId);
+            int rowsAffected = stmt.executeUpdate();
+            dbManager.commit(conn);
+            return rowsAffected;
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error marking users of node " + nodeId + " offline", e);
+        }
+        return 0;
+    }
+
+    /**
+     * Add the users online on other nodes to a directory
+     */
+    @Override
+    public void loadOnlineUsersOnOtherNodes(String localNodeId, UserDirectory directory) {
+        String sql = "SELECT user_id, username, display_name, node_id FROM users " +
+                "WHERE is_online = true AND node_id IS NOT NULL AND node_id <> ?";
+
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, localNodeId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    directory.setOnline(rs.getInt("user_id"), rs.getString("node_id"), rs.getString("username"),
+                            rs.getString("display_name"));
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Error loading users online on other nodes", e);
+        }
+    }
+
     /**
      * Get all online users
      */
     public List<User> getOnlineUsers() {
         List<User> onlineUsers = new ArrayList<>();
-        String sql = "SELECT * FROM users WHERE is_online = true AND status = 'active' ORDER BY username";
+        String sql = "SELECT " + USER_COLUMNS + " FROM users WHERE is_online = true AND status = 'active' ORDER BY username";
 
-        try (PreparedStatement stmt = dbManager.getConnection().prepareStatement(sql);
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql);
                 ResultSet rs = stmt.executeQuery()) {
 
             while (rs.next()) {
@@ -143,11 +280,11 @@ public class UserDAO {
     /**
      * Authenticate user login
      */
+    @Override
     public User authenticateUser(String username, String passwordHash) {
         User user = findByUsername(username);
         if (user != null && user.getPasswordHash().equals(passwordHash)) {
-            // Update last seen and online status
-            updateOnlineStatus(user.getUserId(), true);
+            // The database row is updated by PresenceTracker once the session is registered
             user.setOnline(true);
             return user;
         }
@@ -155,12 +292,15 @@ public class UserDAO {
     }
 
     /**
-     * Update user profile
+     * Update user profile. Users returned by the lookups carry USER_COLUMNS only, so set email
+     * and avatar explicitly before calling this.
      */
+    @Override
     public boolean updateUser(User user) {
         String sql = "UPDATE users SET email = ?, display_name = ?, avatar_url = ? WHERE user_id = ?";
 
-        try (PreparedStatement stmt = dbManager.getConnection().prepareStatement(sql)) {
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, user.getEmail());
             stmt.setString(2, user.getDisplayName());
             stmt.setString(3, user.getAvatarUrl());
@@ -168,13 +308,13 @@ public class UserDAO {
 
             int rowsAffected = stmt.executeUpdate();
             if (rowsAffected > 0) {
-                dbManager.commitTransaction();
+                dbManager.commit(conn);
+                cache.invalidate(user.getUserId());
                 LOGGER.info("User updated successfully: " + user.getUsername());
                 return true;
             }
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Error updating user: " + user.getUsername(), e);
-            dbManager.rollbackTransaction();
         }
         return false;
     }
@@ -182,10 +322,16 @@ public class UserDAO {
     /**
      * Check if username exists
      */
+    @Override
     public boolean usernameExists(String username) {
+        if (cache.get(username) != null) {
+            return true;
+        }
+
         String sql = "SELECT COUNT(*) FROM users WHERE username = ?";
 
-        try (PreparedStatement stmt = dbManager.getConnection().prepareStatement(sql)) {
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, username);
 
             try (ResultSet rs = stmt.executeQuery()) {
@@ -200,21 +346,16 @@ public class UserDAO {
     }
 
     /**
-     * Map ResultSet to User object
+     * Map a row of USER_COLUMNS to a User object
      */
-    private User mapResultSetToUser(ResultSet rs) throws SQLException {
+    static User mapResultSetToUser(ResultSet rs) throws SQLException {
         User user = new User();
-        user.setUserId(rs.getInt("user_id"));
-        user.setUsername(rs.getString("username"));
-        user.setPasswordHash(rs.getString("password_hash"));
-        user.setEmail(rs.getString("email"));
-        user.setDisplayName(rs.getString("display_name"));
-        user.setAvatarUrl(rs.getString("avatar_url"));
-        user.setOnline(rs.getBoolean("is_online"));
-        user.setLastSeen(rs.getTimestamp("last_seen"));
-        user.setCreatedAt(rs.getTimestamp("created_at"));
-        user.setAdmin(rs.getBoolean("is_admin"));
-        user.setStatus(rs.getString("status"));
+        user.setUserId(rs.getInt(1));
+        user.setUsername(rs.getString(2));
+        user.setPasswordHash(rs.getString(3));
+        user.setDisplayName(rs.getString(4));
+        user.setAdmin(rs.getBoolean(5));
+        user.setStatus(rs.getString(6));
         return user;
     }
 }
@@ -0,0 +1,114 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which node each online user is connected to, across the cluster
+ * Every node keeps a full copy: its own users are added on connect, other nodes' users arrive as
+ * PRESENCE events on the MessageBus, and at startup the copy is seeded from users.node_id, which
+ * the PresenceTracker writes along with is_online. A node that restarts announces NODE_STARTED
+ * and everyone drops the entries it left behind.
+ */
+public class UserDirectory {
+    private final String localNodeId;
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Integer> userIdsByUsername = new ConcurrentHashMap<>();
+
+    public UserDirectory(String localNodeId) {
+        this.localNodeId = localNodeId;
+    }
+
+    /**
+     * Seed from the database: users marked online on other nodes
+     */
+    public void load(SessionStore sessionStore) {
+        sessionStore.loadOnlineUsersOnOtherNodes(localNodeId, this);
+    }
+
+    public void setOnline(int userId, String nodeId, String username, String displayName) {
+        Entry previous = entries.put(userId, new Entry(nodeId, username, displayName));
+        if (previous != null && !previous.username.equals(username)) {
+            userIdsByUsername.remove(previous.username, userId);
+        }
+        userIdsByUsername.put(username, userId);
+    }
+
+    /**
+     * Remove a user unless they have meanwhile connected to a different node
+     */
+    public void setOffline(int userId, String nodeId) {
+        Entry entry = entries.get(userId);
+        if (entry != null && entry.nodeId.equals(nodeId) && entries.remove(userId, entry)) {
+            userIdsByUsername.remove(entry.username, userId);
+        }
+    }
+
+    /**
+     * Forget every user of a node that restarted or went away
+     */
+    public int removeNode(String nodeId) {
+        int removed = 0;
+        Iterator<Map.Entry<Integer, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Entry> entry = iterator.next();
+            if (entry.getValue().nodeId.equals(nodeId)) {
+                iterator.remove();
+                userIdsByUsername.remove(entry.getValue().username, entry.getKey());
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Node the user is connected to, or null if they are offline
+     */
+    public String getNodeOf(int userId) {
+        Entry entry = entries.get(userId);
+        return entry != null ? entry.nodeId : null;
+    }
+
+    /**
+     * Id of an online user, or null
+     */
+    public Integer getUserId(String username) {
+        return userIdsByUsername.get(username);
+    }
+
+    public boolean isRemote(int userId) {
+        String nodeId = getNodeOf(userId);
+        return nodeId != null && !nodeId.equals(localNodeId);
+    }
+
+    public List<String> getOnlineDisplayNames() {
+        List<String> names = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            names.add(entry.displayName);
+        }
+        return names;
+    }
+
+    public String describe() {
+        int local = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.nodeId.equals(localNodeId)) {
+                local++;
+            }
+        }
+        return String.format("online=%d, local=%d, remote=%d", entries.size(), local, entries.size() - local);
+    }
+
+    private static final class Entry {
+        final String nodeId;
+        final String username;
+        final String displayName;
+
+        Entry(String nodeId, String username, String displayName) {
+            this.nodeId = nodeId;
+            this.username = username;
+            this.displayName = displayName;
+        }
+    }
+}
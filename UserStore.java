@@ -0,0 +1,28 @@
+/**
+ * Storage of user accounts: UserDAO on PostgreSQL, or InMemoryUserStore
+ * Lookups only find active users and return a User the caller may modify.
+ */
+public interface UserStore {
+    /**
+     * Create a user and set its generated id
+     *
+     * @return false if the user could not be stored, e.g. the name is taken
+     */
+    boolean createUser(User user);
+
+    User findByUsername(String username);
+
+    User findById(int userId);
+
+    /**
+     * The user with this name and password hash, marked online, or null
+     */
+    User authenticateUser(String username, String passwordHash);
+
+    /**
+     * Update email, display name and avatar
+     */
+    boolean updateUser(User user);
+
+    boolean usernameExists(String username);
+}
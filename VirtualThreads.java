@@ -0,0 +1,44 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Access to virtual threads without requiring a Java 21 compiler
+ * The server still builds and runs on Java 17; on 21+ the virtual thread executor is looked up
+ * reflectively so EnhancedServer can opt in through server.execution_mode=virtual.
+ */
+public final class VirtualThreads {
+    private static final Logger LOGGER = Logger.getLogger(VirtualThreads.class.getName());
+    private static final Method NEW_VIRTUAL_EXECUTOR = lookupFactory();
+
+    private VirtualThreads() {
+    }
+
+    private static Method lookupFactory() {
+        try {
+            return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public static boolean isSupported() {
+        return NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    /**
+     * Executor starting one virtual thread per task, or null when the runtime has none
+     */
+    public static ExecutorService newPerTaskExecutor() {
+        if (NEW_VIRTUAL_EXECUTOR == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.log(Level.WARNING, "Virtual thread executor unavailable", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package connecthub.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What EnhancedServer.broadcastMessage does once per chat line before fanning it out: format the
+ * room line and encode it into the EncodedMessage every member's queue shares
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BroadcastFormattingBenchmark {
+    private static final MethodHandle FORMAT_CHAT_LINE = ServerClasses.findStatic("EnhancedServer", "formatChatLine",
+            MethodType.methodType(String.class, String.class, String.class, String.class, long.class));
+    private static final MethodHandle ENCODE = ServerClasses.findStatic("EncodedMessage", "of",
+            MethodType.methodType(ServerClasses.load("EncodedMessage"), String.class))
+            .asType(MethodType.methodType(Object.class, String.class));
+
+    /** Empty for the default room, "#name " for the others */
+    @Param({"", "#release-planning "})
+    public String roomTag;
+
+    @Param({"ok", "Pushed the fix for the reconnect storm, can someone double-check the presence batches?"})
+    public String text;
+
+    private final String senderName = "Alice Example";
+    private final long sentAt = System.currentTimeMillis();
+
+    @Benchmark
+    public String format() throws Throwable {
+        return (String) FORMAT_CHAT_LINE.invokeExact(roomTag, senderName, text, sentAt);
+    }
+
+    @Benchmark
+    public Object formatAndEncode() throws Throwable {
+        String line = (String) FORMAT_CHAT_LINE.invokeExact(roomTag, senderName, text, sentAt);
+        return (Object) ENCODE.invokeExact(line);
+    }
+}
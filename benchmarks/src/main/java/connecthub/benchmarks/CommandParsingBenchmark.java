@@ -0,0 +1,43 @@
+package connecthub.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ClientHandler.parseCommand, run for every /command a client sends
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandParsingBenchmark {
+    private static final MethodHandle PARSE_COMMAND = ServerClasses.findStatic("ClientHandler", "parseCommand",
+            MethodType.methodType(String[].class, String.class));
+
+    @Param({
+            "/users",
+            "/history @alice",
+            "/msg alice are we still on for the release review at three?",
+            "/search \"connection pool\" -timeout"
+    })
+    public String command;
+
+    @Benchmark
+    public String[] parseCommand() throws Throwable {
+        return (String[]) PARSE_COMMAND.invokeExact(command);
+    }
+}
@@ -0,0 +1,110 @@
+package connecthub.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The file copy loops of the transfer paths, file to file so the disk cache rather than a socket
+ * sets the pace: the 4 KB loop of Server, the buffered 8 KB loop of ClientHandler, and
+ * FileTransfers.transferTo. FileTransferBenchmark covers the same paths over a loopback socket.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FileCopyBenchmark {
+    private static final MethodHandle TRANSFER_TO = ServerClasses.findStatic("FileTransfers", "transferTo",
+            MethodType.methodType(long.class, FileChannel.class, long.class, long.class, WritableByteChannel.class));
+
+    @Param({"1", "64"})
+    public int sizeMb;
+
+    private Path source;
+    private Path target;
+    private long size;
+
+    @Setup(Level.Trial)
+    public void writeSource() throws IOException {
+        size = sizeMb * 1024L * 1024L;
+        source = Files.createTempFile("connecthub-bench", ".bin");
+        target = Files.createTempFile("connecthub-bench-copy", ".bin");
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(source)) {
+            for (long written = 0; written < size; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public long loop4k() throws IOException {
+        try (InputStream in = new FileInputStream(source.toFile());
+                OutputStream out = new FileOutputStream(target.toFile())) {
+            return copy(in, out, 4096);
+        }
+    }
+
+    @Benchmark
+    public long loop8kBuffered() throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(source));
+                OutputStream out = new FileOutputStream(target.toFile())) {
+            return copy(in, out, 8192);
+        }
+    }
+
+    @Benchmark
+    public long transferTo() throws Throwable {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            return (long) TRANSFER_TO.invokeExact(in, 0L, size, (WritableByteChannel) out);
+        }
+    }
+
+    private static long copy(InputStream in, OutputStream out, int bufferSize) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,144 @@
+package connecthub.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MessageDAO and UserDAO row mapping over real pgjdbc result sets
+ * Rows are generated by the database (no table data needed) with the columns of
+ * HISTORY_COLUMNS / USER_COLUMNS, fetched once into scrollable result sets and mapped over and
+ * over, so only the driver getters and the mapping code are measured. The name-based baselines
+ * read the same columns the way the DAOs did over SELECT *.
+ *
+ * Needs PostgreSQL: run from the repository root so DatabaseManager finds
+ * config/application.properties, or set DATABASE_URL / DB_HOST etc.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RowMappingBenchmark {
+    private static final int ROWS = 1000;
+
+    private static final MethodHandle GET_INSTANCE = ServerClasses.findStatic("DatabaseManager", "getInstance",
+            MethodType.methodType(ServerClasses.load("DatabaseManager")))
+            .asType(MethodType.methodType(Object.class));
+    private static final MethodHandle GET_CONNECTION = ServerClasses.findVirtual("DatabaseManager", "getConnection",
+            MethodType.methodType(Connection.class))
+            .asType(MethodType.methodType(Connection.class, Object.class));
+    private static final MethodHandle CLOSE_POOL = ServerClasses.findVirtual("DatabaseManager", "closePool",
+            MethodType.methodType(void.class))
+            .asType(MethodType.methodType(void.class, Object.class));
+    private static final MethodHandle MAP_MESSAGE = ServerClasses.findStatic("MessageDAO", "mapHistoryRow",
+            MethodType.methodType(ServerClasses.load("Message"), ResultSet.class))
+            .asType(MethodType.methodType(Object.class, ResultSet.class));
+    private static final MethodHandle MAP_USER = ServerClasses.findStatic("UserDAO", "mapResultSetToUser",
+            MethodType.methodType(ServerClasses.load("User"), ResultSet.class))
+            .asType(MethodType.methodType(Object.class, ResultSet.class));
+
+    private static final String MESSAGE_ROWS_SQL = "SELECT g AS message_id, 1 + g % 50 AS sender_id, 1 AS room_id, " +
+            "NULL::int AS recipient_id, 'benchmark message number ' || g AS message_text, LOCALTIMESTAMP AS sent_at " +
+            "FROM generate_series(1, ?) g";
+    private static final String USER_ROWS_SQL = "SELECT g AS user_id, 'user' || g AS username, " +
+            "md5(g::text) AS password_hash, 'User ' || g AS display_name, false AS is_admin, " +
+            "'active'::varchar AS status FROM generate_series(1, ?) g";
+
+    private Object dbManager;
+    private Connection connection;
+    private ResultSet messages;
+    private ResultSet users;
+
+    @Setup(Level.Trial)
+    public void fetchRows() throws Throwable {
+        dbManager = (Object) GET_INSTANCE.invokeExact();
+        connection = (Connection) GET_CONNECTION.invokeExact(dbManager);
+        messages = fetch(MESSAGE_ROWS_SQL);
+        users = fetch(USER_ROWS_SQL);
+    }
+
+    private ResultSet fetch(String sql) throws SQLException {
+        PreparedStatement stmt = connection.prepareStatement(sql, ResultSet.TYPE_SCROLL_INSENSITIVE,
+                ResultSet.CONCUR_READ_ONLY);
+        stmt.closeOnCompletion();
+        stmt.setInt(1, ROWS);
+        return stmt.executeQuery();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Throwable {
+        messages.close();
+        users.close();
+        connection.close();
+        CLOSE_POOL.invokeExact(dbManager);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void mapMessage(Blackhole blackhole) throws Throwable {
+        messages.beforeFirst();
+        while (messages.next()) {
+            blackhole.consume((Object) MAP_MESSAGE.invokeExact(messages));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void readMessageColumnsByName(Blackhole blackhole) throws SQLException {
+        ResultSet rs = messages;
+        rs.beforeFirst();
+        while (rs.next()) {
+            blackhole.consume(rs.getInt("message_id"));
+            blackhole.consume(rs.getInt("sender_id"));
+            blackhole.consume(rs.getInt("room_id"));
+            blackhole.consume(rs.getInt("recipient_id"));
+            blackhole.consume(rs.getString("message_text"));
+            blackhole.consume(rs.getTimestamp("sent_at"));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void mapUser(Blackhole blackhole) throws Throwable {
+        users.beforeFirst();
+        while (users.next()) {
+            blackhole.consume((Object) MAP_USER.invokeExact(users));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void readUserColumnsByName(Blackhole blackhole) throws SQLException {
+        ResultSet rs = users;
+        rs.beforeFirst();
+        while (rs.next()) {
+            blackhole.consume(rs.getInt("user_id"));
+            blackhole.consume(rs.getString("username"));
+            blackhole.consume(rs.getString("password_hash"));
+            blackhole.consume(rs.getString("display_name"));
+            blackhole.consume(rs.getBoolean("is_admin"));
+            blackhole.consume(rs.getString("status"));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package connecthub.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Access to the server classes, which live in the default package
+ * JMH only generates code for benchmarks in a named package, and a named package cannot import
+ * the default one, so benchmarks call the server through method handles found here. Kept in
+ * static final fields, the handles are constants to the JIT and inline like direct calls.
+ */
+final class ServerClasses {
+
+    private ServerClasses() {
+    }
+
+    static Class<?> load(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Server class not on the classpath: " + className, e);
+        }
+    }
+
+    /**
+     * A static method of a server class, package-private ones included
+     */
+    static MethodHandle findStatic(String className, String name, MethodType type) {
+        Class<?> owner = load(className);
+        try {
+            return MethodHandles.privateLookupIn(owner, MethodHandles.lookup()).findStatic(owner, name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot reach " + className + "." + name, e);
+        }
+    }
+
+    /**
+     * An instance method of a server class; the receiver becomes the first argument
+     */
+    static MethodHandle findVirtual(String className, String name, MethodType type) {
+        Class<?> owner = load(className);
+        try {
+            return MethodHandles.privateLookupIn(owner, MethodHandles.lookup()).findVirtual(owner, name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot reach " + className + "." + name, e);
+        }
+    }
+}
@@ -13,6 +13,7 @@ CREATE TABLE users (
     display_name VARCHAR(100),
     avatar_url VARCHAR(255),
     is_online BOOLEAN DEFAULT FALSE,
+    node_id VARCHAR(64), -- server node the user is (or was last) connected to
     last_seen TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     is_admin BOOLEAN DEFAULT FALSE,
@@ -40,12 +41,22 @@ CREATE TABLE room_members (
     UNIQUE(room_id, user_id)
 );
 
+-- Private conversations: one row per pair of users, user_low < user_high
+CREATE TABLE conversations (
+    conversation_id SERIAL PRIMARY KEY,
+    user_low INTEGER REFERENCES users(user_id) ON DELETE CASCADE,
+    user_high INTEGER REFERENCES users(user_id) ON DELETE CASCADE,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    UNIQUE(user_low, user_high)
+);
+
 -- Messages table
 CREATE TABLE messages (
     message_id SERIAL PRIMARY KEY,
     sender_id INTEGER REFERENCES users(user_id),
     room_id INTEGER REFERENCES chat_rooms(room_id),
     recipient_id INTEGER REFERENCES users(user_id), -- for private messages
+    conversation_id INTEGER REFERENCES conversations(conversation_id), -- set for private messages
     message_text TEXT NOT NULL,
     message_type VARCHAR(20) DEFAULT 'text', -- text, file, system, image
     file_path VARCHAR(500), -- for file messages
@@ -53,6 +64,7 @@ CREATE TABLE messages (
     file_name VARCHAR(255),
     sent_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     edited_at TIMESTAMP,
+    delivered_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, -- NULL while a private message waits for its offline recipient
     is_encrypted BOOLEAN DEFAULT FALSE,
     reply_to INTEGER REFERENCES messages(message_id)
 );
@@ -69,6 +81,7 @@ CREATE TABLE file_transfers (
     file_type VARCHAR(100),
     transfer_status VARCHAR(20) DEFAULT 'pending', -- pending, in_progress, completed, failed, cancelled
     progress_percentage INTEGER DEFAULT 0,
+    bytes_received BIGINT DEFAULT 0, -- last checkpointed offset of a resumable upload
     started_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     completed_at TIMESTAMP,
     download_count INTEGER DEFAULT 0,
@@ -96,6 +109,16 @@ CREATE TABLE message_read_status (
     UNIQUE(message_id, user_id)
 );
 
+-- Read receipts: newest message each user has read per room and private conversation
+CREATE TABLE read_markers (
+    user_id INTEGER REFERENCES users(user_id) ON DELETE CASCADE,
+    scope_type VARCHAR(10) NOT NULL, -- room (scope_id = room_id) or private (scope_id = other user's id)
+    scope_id INTEGER NOT NULL,
+    last_read_message_id INTEGER,
+    last_read_at TIMESTAMP NOT NULL,
+    PRIMARY KEY (user_id, scope_type, scope_id)
+);
+
 -- Server logs and analytics
 CREATE TABLE server_logs (
     log_id SERIAL PRIMARY KEY,
@@ -133,9 +156,21 @@ CREATE TABLE blocked_users (
 );
 
 -- Create indexes for better performance
-CREATE INDEX idx_messages_sender_room ON messages(sender_id, room_id);
+-- History is paged newest first by (sent_at, message_id); each query has a matching index
+CREATE INDEX idx_messages_room_sent ON messages(room_id, sent_at, message_id);
+CREATE INDEX idx_messages_conversation_sent ON messages(conversation_id, sent_at, message_id)
+    WHERE conversation_id IS NOT NULL;
+CREATE INDEX idx_messages_sender_sent ON messages(sender_id, sent_at, message_id);
+-- Per-user queue of private messages sent while the recipient was offline
+CREATE INDEX idx_messages_undelivered ON messages(recipient_id, sent_at, message_id)
+    WHERE delivered_at IS NULL;
+-- Full-text search (MessageDAO.searchMessages must use the same expression)
+CREATE INDEX idx_messages_search ON messages USING GIN (to_tsvector('simple', message_text));
 CREATE INDEX idx_messages_sent_at ON messages(sent_at);
 CREATE INDEX idx_file_transfers_status ON file_transfers(transfer_status);
+-- Room names are unique ignoring case, so concurrent /join of a new room creates it once
+CREATE UNIQUE INDEX idx_chat_rooms_name ON chat_rooms(LOWER(room_name));
+CREATE INDEX idx_room_members_user ON room_members(user_id);
 CREATE INDEX idx_users_username ON users(username);
 CREATE INDEX idx_users_online ON users(is_online);
 CREATE INDEX idx_user_sessions_active ON user_sessions(is_active);
@@ -164,3 +199,44 @@ JOIN users u ON m.sender_id = u.user_id
 LEFT JOIN chat_rooms cr ON m.room_id = cr.room_id
 ORDER BY m.sent_at DESC
 LIMIT 100;
+
+-- Upgrading an existing database (safe to re-run)
+ALTER TABLE file_transfers ADD COLUMN IF NOT EXISTS bytes_received BIGINT DEFAULT 0;
+CREATE INDEX IF NOT EXISTS idx_messages_room_sent ON messages(room_id, sent_at, message_id);
+CREATE INDEX IF NOT EXISTS idx_messages_sender_sent ON messages(sender_id, sent_at, message_id);
+DROP INDEX IF EXISTS idx_messages_sender_room;
+CREATE INDEX IF NOT EXISTS idx_messages_search ON messages USING GIN (to_tsvector('simple', message_text));
+CREATE TABLE IF NOT EXISTS conversations (
+    conversation_id SERIAL PRIMARY KEY,
+    user_low INTEGER REFERENCES users(user_id) ON DELETE CASCADE,
+    user_high INTEGER REFERENCES users(user_id) ON DELETE CASCADE,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    UNIQUE(user_low, user_high)
+);
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS conversation_id INTEGER REFERENCES conversations(conversation_id);
+INSERT INTO conversations (user_low, user_high)
+    SELECT DISTINCT LEAST(sender_id, recipient_id), GREATEST(sender_id, recipient_id)
+    FROM messages WHERE recipient_id IS NOT NULL AND conversation_id IS NULL
+    ON CONFLICT (user_low, user_high) DO NOTHING;
+UPDATE messages m SET conversation_id = c.conversation_id
+    FROM conversations c
+    WHERE m.recipient_id IS NOT NULL AND m.conversation_id IS NULL
+    AND c.user_low = LEAST(m.sender_id, m.recipient_id) AND c.user_high = GREATEST(m.sender_id, m.recipient_id);
+CREATE INDEX IF NOT EXISTS idx_messages_conversation_sent ON messages(conversation_id, sent_at, message_id)
+    WHERE conversation_id IS NOT NULL;
+DROP INDEX IF EXISTS idx_messages_private;
+-- Existing rows count as delivered; only rows inserted as pending have delivered_at NULL
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS delivered_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP;
+CREATE INDEX IF NOT EXISTS idx_messages_undelivered ON messages(recipient_id, sent_at, message_id)
+    WHERE delivered_at IS NULL;
+CREATE TABLE IF NOT EXISTS read_markers (
+    user_id INTEGER REFERENCES users(user_id) ON DELETE CASCADE,
+    scope_type VARCHAR(10) NOT NULL, -- room (scope_id = room_id) or private (scope_id = other user's id)
+    scope_id INTEGER NOT NULL,
+    last_read_message_id INTEGER,
+    last_read_at TIMESTAMP NOT NULL,
+    PRIMARY KEY (user_id, scope_type, scope_id)
+);
+CREATE UNIQUE INDEX IF NOT EXISTS idx_chat_rooms_name ON chat_rooms(LOWER(room_name));
+CREATE INDEX IF NOT EXISTS idx_room_members_user ON room_members(user_id);
+ALTER TABLE users ADD COLUMN IF NOT EXISTS node_id VARCHAR(64);